@@ -8,7 +8,6 @@
 package com.opentok;
 
 import com.fasterxml.jackson.annotation.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
 * Represents an archive of an OpenTok session. 
@@ -88,19 +87,53 @@ public class Archive {
         }
     }
 
-    @JsonProperty private long createdAt;
-    @JsonProperty private int duration = 0;
-    @JsonProperty private String id;
-    @JsonProperty private String name;
-    @JsonProperty private int partnerId;
-    @JsonProperty private String reason;
-    @JsonProperty private String sessionId;
-    @JsonProperty private int size = 0;
-    @JsonProperty private Status status;
-    @JsonProperty private String url;
-    @JsonProperty private boolean hasVideo = true;
-    @JsonProperty private boolean hasAudio = true;
-    @JsonProperty private OutputMode outputMode = OutputMode.COMPOSED;
+    /**
+     * Defines the archive properties that can be requested with the
+     * {@link com.opentok.OpenTok#getArchive(String, java.util.Set)} and
+     * {@link com.opentok.OpenTok#listArchives(int, int, java.util.Set)} methods.
+     */
+    public enum Field {
+        CREATED_AT("createdAt"),
+        DURATION("duration"),
+        ID("id"),
+        NAME("name"),
+        PARTNER_ID("partnerId"),
+        REASON("reason"),
+        SESSION_ID("sessionId"),
+        SIZE("size"),
+        STATUS("status"),
+        URL("url"),
+        HAS_VIDEO("hasVideo"),
+        HAS_AUDIO("hasAudio"),
+        OUTPUT_MODE("outputMode");
+
+        private final String jsonName;
+
+        Field(String jsonName) {
+            this.jsonName = jsonName;
+        }
+
+        /**
+         * The name of the property in the JSON representation of an archive.
+         */
+        public String getJsonName() {
+            return jsonName;
+        }
+    }
+
+    @JsonProperty long createdAt;
+    @JsonProperty int duration = 0;
+    @JsonProperty String id;
+    @JsonProperty String name;
+    @JsonProperty int partnerId;
+    @JsonProperty String reason;
+    @JsonProperty String sessionId;
+    @JsonProperty int size = 0;
+    @JsonProperty Status status;
+    @JsonProperty String url;
+    @JsonProperty boolean hasVideo = true;
+    @JsonProperty boolean hasAudio = true;
+    @JsonProperty OutputMode outputMode = OutputMode.COMPOSED;
 
     protected Archive() {
     }
@@ -211,7 +244,7 @@ public class Archive {
     @Override
     public String toString() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return ArchiveJson.toJson(this);
         } catch (Exception e) {
             return "";
         }
@@ -0,0 +1,365 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.Archive.Status;
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.util.CacheBackend;
+import com.opentok.util.InMemoryCacheBackend;
+
+/**
+ * Caches the {@link Archive} objects returned by the {@link OpenTok#getArchive(String)} method,
+ * with a time to live that depends on the status of each archive.
+ * <p>
+ * Archives that have reached a final status (deleted, failed, or expired) do not change again, so
+ * by default they are kept until they are evicted. Archives that are still being recorded or
+ * processed are kept for a few seconds. Available archives are kept for 5 minutes by default,
+ * because their download URL expires 10 minutes after it was issued. An available archive whose
+ * size is still 0 is treated like a stopped archive.
+ * <p>
+ * The archives are stored, encoded with {@link ArchiveSerializer}, in a {@link CacheBackend}. By
+ * default this is an {@link InMemoryCacheBackend} that holds at most
+ * {@link Builder#maximumSize(int)} archives and evicts the least recently used one when it is
+ * full. Set a shared backend with {@link Builder#backend(CacheBackend)} to share one warm cache
+ * between several OpenTok objects. The keys include the API URL and the API key of the OpenTok
+ * object, so OpenTok objects of different projects can share a backend without seeing each
+ * other's archives. The cache entry of an archive is removed when you stop or
+ * delete the archive with an OpenTok object that uses the backend. Each entry is stamped with the
+ * time its request started, so an archive read before it was stopped or deleted is never served
+ * after it, even when that read completes later.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .archiveCache(new ArchiveCache.Builder().maximumSize(50000).build())
+ *   .build();
+ * </pre>
+ * <p>
+ * The {@link #get}, {@link #put}, {@link #invalidate}, and {@link #invalidateAll} methods apply to
+ * the archives of the first OpenTok object built with this ArchiveCache. When other OpenTok
+ * objects, with other API keys, are built with it, use their {@link OpenTok#getArchiveCache()}
+ * to reach their archives.
+ */
+public class ArchiveCache {
+
+    /**
+     * Use with {@link Builder#timeToLive(Archive.Status, long, TimeUnit)} to keep archives with a
+     * status until they are evicted.
+     */
+    public static final long FOREVER = CacheBackend.FOREVER;
+
+    private static final String KEY_PREFIX = "opentok:archive:";
+    private static final String INVALIDATED_PREFIX = "opentok:archive-invalidated:";
+    private static final String INVALIDATED_ALL_KEY = "opentok:archive-invalidated-all";
+
+    // "apiUrl:apiKey:" of the OpenTok object that uses the cache, set when it is built
+    private volatile String namespace = "";
+    private final CacheBackend backend;
+    private final Map<Status, Long> timeToLiveNanos;
+    // how long an invalidation is remembered: as long as an archive read before it can be cached
+    private final long invalidationTimeToLiveNanos;
+
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong errorCount;
+
+    private ArchiveCache(Builder builder) {
+        this.backend = builder.backend != null ? builder.backend : new InMemoryCacheBackend(builder.maximumSize);
+        this.timeToLiveNanos = new EnumMap<Status, Long>(builder.timeToLiveNanos);
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.errorCount = new AtomicLong();
+        long longest = 0;
+        for (Map.Entry<Status, Long> entry : timeToLiveNanos.entrySet()) {
+            // archives with a final status do not change, so caching them late is harmless
+            if (!isFinal(entry.getKey())) {
+                longest = Math.max(longest, entry.getValue());
+            }
+        }
+        this.invalidationTimeToLiveNanos = longest;
+    }
+
+    private ArchiveCache(ArchiveCache parent, String namespace) {
+        this.namespace = namespace;
+        this.backend = parent.backend;
+        this.timeToLiveNanos = parent.timeToLiveNanos;
+        this.invalidationTimeToLiveNanos = parent.invalidationTimeToLiveNanos;
+        this.hitCount = parent.hitCount;
+        this.missCount = parent.missCount;
+        this.errorCount = parent.errorCount;
+    }
+
+    /**
+     * Returns the cache of the archives of one OpenTok object: this one if it is not used yet or
+     * is used for the same API key, or a view of it with the same backend and statistics.
+     */
+    ArchiveCache bind(String apiUrl, int apiKey) {
+        String bound = apiUrl + ":" + apiKey + ":";
+        synchronized (this) {
+            if (namespace.length() == 0) {
+                namespace = bound;
+            }
+        }
+        return bound.equals(namespace) ? this : new ArchiveCache(this, bound);
+    }
+
+    /**
+     * Use this class to create an ArchiveCache object.
+     *
+     * @see ArchiveCache
+     */
+    public static class Builder {
+        private int maximumSize = 10000;
+        private CacheBackend backend;
+        private Map<Status, Long> timeToLiveNanos = new EnumMap<Status, Long>(Status.class);
+
+        public Builder() {
+            long inProgress = TimeUnit.SECONDS.toNanos(5);
+            timeToLiveNanos.put(Status.STARTED, inProgress);
+            timeToLiveNanos.put(Status.PAUSED, inProgress);
+            timeToLiveNanos.put(Status.STOPPED, inProgress);
+            timeToLiveNanos.put(Status.UPLOADED, inProgress);
+            timeToLiveNanos.put(Status.AVAILABLE, TimeUnit.MINUTES.toNanos(5));
+            timeToLiveNanos.put(Status.DELETED, FOREVER);
+            timeToLiveNanos.put(Status.FAILED, FOREVER);
+            timeToLiveNanos.put(Status.EXPIRED, FOREVER);
+        }
+
+        /**
+         * Call this method to set the maximum number of archives in the cache. The default is 10000.
+         * This setting only applies to the default in-memory backend.
+         *
+         * @param maximumSize The maximum number of cached archives.
+         *
+         * @return The ArchiveCache.Builder object with the maximum size setting.
+         */
+        public Builder maximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Call this method to store the archives in another backend, for example one shared by
+         * several servers. By default, an {@link InMemoryCacheBackend} is used.
+         *
+         * @param backend The cache backend.
+         *
+         * @return The ArchiveCache.Builder object with the backend setting.
+         */
+        public Builder backend(CacheBackend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long archives with the given status stay in the cache.
+         * Pass {@link ArchiveCache#FOREVER} to keep them until they are evicted, or 0 to not
+         * cache them.
+         *
+         * @param status The archive status.
+         * @param duration The time to live, or {@link ArchiveCache#FOREVER}.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The ArchiveCache.Builder object with the time to live setting.
+         */
+        public Builder timeToLive(Status status, long duration, TimeUnit unit) {
+            timeToLiveNanos.put(status, duration == FOREVER ? FOREVER : unit.toNanos(duration));
+            return this;
+        }
+
+        /**
+         * Builds the ArchiveCache object.
+         *
+         * @return The ArchiveCache object.
+         */
+        public ArchiveCache build() {
+            if (backend == null && maximumSize < 1) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            return new ArchiveCache(this);
+        }
+    }
+
+    /**
+     * Returns the cached archive with the given ID, or null if it is not cached or has expired.
+     * A backend that cannot be reached is treated as a cache miss.
+     */
+    public Archive get(String archiveId) {
+        String key = namespace + KEY_PREFIX + archiveId;
+        String invalidatedKey = namespace + INVALIDATED_PREFIX + archiveId;
+        String invalidatedAllKey = namespace + INVALIDATED_ALL_KEY;
+        Archive archive = null;
+        try {
+            Map<String, byte[]> values = backend.getAll(Arrays.asList(key, invalidatedKey, invalidatedAllKey));
+            byte[] value = values.get(key);
+            if (value != null && value.length >= 8) {
+                long requestedAt = ByteBuffer.wrap(value).getLong();
+                long invalidatedAt = Math.max(timestamp(values.get(invalidatedKey)),
+                        timestamp(values.get(invalidatedAllKey)));
+                if (requestedAt > invalidatedAt) {
+                    archive = ArchiveSerializer.deserializeArchive(Arrays.copyOfRange(value, 8, value.length));
+                }
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        } catch (InvalidArgumentException e) {
+            // written by a newer version of the SDK, or corrupted
+            errorCount.incrementAndGet();
+        }
+        if (archive == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return archive;
+    }
+
+    /**
+     * Adds an archive to the cache, replacing any cached archive with the same ID.
+     */
+    public void put(Archive archive) {
+        put(archive, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds an archive read by a request that started at <code>requestedAt</code>. It is not
+     * served if the archive was invalidated since then.
+     */
+    void put(Archive archive, long requestedAt) {
+        if (archive == null || archive.getId() == null || archive.getStatus() == null) {
+            return;
+        }
+        try {
+            long timeToLive = timeToLive(archive);
+            String key = namespace + KEY_PREFIX + archive.getId();
+            if (timeToLive <= 0) {
+                backend.invalidate(key);
+            } else {
+                byte[] encoded = ArchiveSerializer.serialize(archive);
+                ByteBuffer value = ByteBuffer.allocate(8 + encoded.length);
+                value.putLong(requestedAt).put(encoded);
+                backend.put(key, value.array(), timeToLive, TimeUnit.NANOSECONDS);
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the archive with the given ID from the cache. An archive read by a request that
+     * started before this call is not cached when the request completes.
+     */
+    public void invalidate(String archiveId) {
+        try {
+            if (invalidationTimeToLiveNanos > 0) {
+                backend.put(namespace + INVALIDATED_PREFIX + archiveId, now(), invalidationTimeToLiveNanos,
+                        TimeUnit.NANOSECONDS);
+            }
+            backend.invalidate(namespace + KEY_PREFIX + archiveId);
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all archives from the cache. With a shared backend, they are removed for every
+     * OpenTok object with the same API key, and the archives of other API keys are kept.
+     */
+    public void invalidateAll() {
+        try {
+            // the entries stay in the backend until they expire, but are not served anymore
+            backend.put(namespace + INVALIDATED_ALL_KEY, now(), CacheBackend.FOREVER, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The cache backend that stores the archives.
+     */
+    public CacheBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * The number of entries in the backend, including expired archives that were not removed yet,
+     * the recent invalidations, and the entries of the other caches that share the backend. This
+     * is -1 if the backend could not be reached.
+     */
+    public int size() {
+        try {
+            return backend.size();
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            return -1;
+        }
+    }
+
+    /**
+     * The number of lookups that returned a cached archive.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of lookups that did not find a cached archive.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of entries removed because the backend was full, or -1 if the backend could not
+     * be reached.
+     */
+    public long getEvictionCount() {
+        try {
+            return backend.getEvictionCount();
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+            return -1;
+        }
+    }
+
+    /**
+     * The number of backend calls that failed and of cached values that could not be decoded.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    private static byte[] now() {
+        return ByteBuffer.allocate(8).putLong(System.currentTimeMillis()).array();
+    }
+
+    private static long timestamp(byte[] value) {
+        return value != null && value.length == 8 ? ByteBuffer.wrap(value).getLong() : Long.MIN_VALUE;
+    }
+
+    private static boolean isFinal(Status status) {
+        return status == Status.DELETED || status == Status.FAILED || status == Status.EXPIRED;
+    }
+
+    private long timeToLive(Archive archive) {
+        Status status = archive.getStatus();
+        if (status == Status.AVAILABLE && archive.getSize() == 0) {
+            // the final size is not known yet
+            status = Status.STOPPED;
+        }
+        Long timeToLive = timeToLiveNanos.get(status);
+        return timeToLive == null ? 0 : timeToLive;
+    }
+}
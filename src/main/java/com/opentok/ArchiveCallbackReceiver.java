@@ -0,0 +1,375 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Receives the archive status callbacks that OpenTok sends to the callback URL you set at the
+ * <a href="https://dashboard.tokbox.com">OpenTok dashboard</a>.
+ * <p>
+ * The receiver is an embeddable HTTP endpoint built on the JDK's NIO-based HTTP server. Each
+ * callback is parsed into an {@link Archive} object. Repeated deliveries of the same archive
+ * status are dropped, and accepted archives are handed to a bounded queue that your application
+ * consumes by calling {@link #take()}, {@link #poll(long, TimeUnit)}, or {@link #drainTo(Collection, int)}.
+ * <p>
+ * When the queue is full, the receiver waits up to the configured offer timeout and then answers
+ * the callback with an HTTP 503 response, so that the delivery is retried later instead of being
+ * lost.
+ * <p>
+ * <pre>
+ * ArchiveCallbackReceiver receiver = new ArchiveCallbackReceiver.Builder()
+ *   .port(8081)
+ *   .path("/archive-callback")
+ *   .build();
+ * receiver.start();
+ *
+ * while (running) {
+ *     Archive archive = receiver.take();
+ *     // react to archive.getStatus()
+ * }
+ * receiver.stop();
+ * </pre>
+ */
+public class ArchiveCallbackReceiver {
+
+    private final InetSocketAddress address;
+    private final String path;
+    private final int threads;
+    private final int maxBodySize;
+    private final long offerTimeoutMillis;
+    private final BlockingQueue<Archive> queue;
+    private final Map<String, Boolean> delivered;
+
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private ArchiveCallbackReceiver(Builder builder) {
+        this.address = builder.address;
+        this.path = builder.path;
+        this.threads = builder.threads;
+        this.maxBodySize = builder.maxBodySize;
+        this.offerTimeoutMillis = builder.offerTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<Archive>(builder.queueCapacity);
+        final int deduplicationCapacity = builder.deduplicationCapacity;
+        this.delivered = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > deduplicationCapacity;
+            }
+        });
+    }
+
+    /**
+     * Use this class to create an ArchiveCallbackReceiver object.
+     *
+     * @see ArchiveCallbackReceiver
+     */
+    public static class Builder {
+        private InetSocketAddress address = new InetSocketAddress(0);
+        private String path = "/";
+        private int threads = 4;
+        private int queueCapacity = 1000;
+        private int deduplicationCapacity = 10000;
+        private int maxBodySize = 64 * 1024;
+        private long offerTimeoutMillis = 0;
+
+        /**
+         * Call this method to listen on the given port of all local interfaces. The default
+         * is 0, which picks an ephemeral port (see {@link ArchiveCallbackReceiver#getAddress()}).
+         *
+         * @param port The port number.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the port setting.
+         */
+        public Builder port(int port) {
+            this.address = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * Call this method to listen on a specific local address.
+         *
+         * @param address The socket address to bind.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the address setting.
+         */
+        public Builder address(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Call this method to set the request path that callbacks are posted to. The default is "/".
+         *
+         * @param path The request path.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the path setting.
+         */
+        public Builder path(String path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Call this method to set the number of threads that handle incoming callbacks.
+         *
+         * @param threads The number of handler threads.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the threads setting.
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Call this method to set the number of archives that can wait in the queue before
+         * callbacks are answered with HTTP 503.
+         *
+         * @param queueCapacity The queue capacity.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the queue capacity setting.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Call this method to set how many (archive ID, status) pairs are remembered for
+         * detecting repeated deliveries.
+         *
+         * @param deduplicationCapacity The number of remembered deliveries.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the deduplication capacity setting.
+         */
+        public Builder deduplicationCapacity(int deduplicationCapacity) {
+            this.deduplicationCapacity = deduplicationCapacity;
+            return this;
+        }
+
+        /**
+         * Call this method to set the largest callback body, in bytes, that is accepted.
+         *
+         * @param maxBodySize The maximum body size.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the maximum body size setting.
+         */
+        public Builder maxBodySize(int maxBodySize) {
+            this.maxBodySize = maxBodySize;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long a callback waits for room in a full queue before it is
+         * answered with HTTP 503. The default is 0 (answer immediately).
+         *
+         * @param timeout The time to wait.
+         * @param unit The unit of the <code>timeout</code> parameter.
+         *
+         * @return The ArchiveCallbackReceiver.Builder object with the offer timeout setting.
+         */
+        public Builder offerTimeout(long timeout, TimeUnit unit) {
+            this.offerTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Builds the ArchiveCallbackReceiver object.
+         *
+         * @return The ArchiveCallbackReceiver object.
+         */
+        public ArchiveCallbackReceiver build() {
+            if (threads < 1 || queueCapacity < 1 || deduplicationCapacity < 0 || maxBodySize < 1) {
+                throw new IllegalArgumentException("threads, queueCapacity and maxBodySize must be positive");
+            }
+            return new ArchiveCallbackReceiver(this);
+        }
+    }
+
+    /**
+     * Starts listening for callbacks.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The receiver is already started.");
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "opentok-archive-callback-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server = HttpServer.create(address, 0);
+        server.createContext(path, new CallbackHandler());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops listening for callbacks. Archives already in the queue can still be consumed.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * The address the receiver is listening on, including the actual port when an ephemeral
+     * port was requested. Returns null if the receiver is not started.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Removes the next archive from the queue, waiting until one is available.
+     */
+    public Archive take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Removes the next archive from the queue, waiting up to the given time for one to be
+     * available. Returns null if the time elapses first.
+     */
+    public Archive poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Moves up to <code>maxArchives</code> queued archives into the given collection, without
+     * waiting, and returns the number moved.
+     */
+    public int drainTo(Collection<? super Archive> archives, int maxArchives) {
+        return queue.drainTo(archives, maxArchives);
+    }
+
+    /**
+     * The number of archives waiting in the queue.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * The number of callbacks that were accepted into the queue.
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * The number of callbacks that were dropped as repeated deliveries.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * The number of callbacks that were answered with HTTP 503 because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private int accept(byte[] body) throws InterruptedException {
+        Archive archive;
+        try {
+            archive = ArchiveJson.readArchive(body);
+        } catch (IOException e) {
+            return 400;
+        }
+        if (archive == null || archive.getId() == null || archive.getStatus() == null) {
+            return 400;
+        }
+
+        String key = archive.getId() + ":" + archive.getStatus();
+        if (delivered.put(key, Boolean.TRUE) != null) {
+            duplicateCount.incrementAndGet();
+            return 200;
+        }
+        if (!queue.offer(archive, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            // forget the delivery, so that the retried callback is accepted
+            delivered.remove(key);
+            rejectedCount.incrementAndGet();
+            return 503;
+        }
+        acceptedCount.incrementAndGet();
+        return 200;
+    }
+
+    private class CallbackHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int statusCode;
+            try {
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    statusCode = 405;
+                } else {
+                    byte[] body = readBody(exchange.getRequestBody());
+                    statusCode = body == null ? 413 : accept(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                statusCode = 503;
+            }
+            if (statusCode == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+        }
+
+        private byte[] readBody(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxBodySize) {
+                    return null;
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
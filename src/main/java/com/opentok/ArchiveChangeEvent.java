@@ -0,0 +1,82 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+/**
+ * Describes a change that an {@link ArchiveChangeFeed} found between two listings of archives.
+ */
+public class ArchiveChangeEvent {
+
+    /**
+     * Defines values returned by the {@link ArchiveChangeEvent#getType} method.
+     */
+    public enum Type {
+        /**
+         * The archive appeared in the listing for the first time.
+         */
+        CREATED,
+        /**
+         * The status of the archive changed, for example from Status.STARTED to Status.STOPPED.
+         */
+        STATUS_CHANGED,
+        /**
+         * The size or the duration of the archive changed, but not its status.
+         */
+        UPDATED,
+        /**
+         * The archive was deleted. Either its status changed to Status.DELETED, or it is no
+         * longer listed although newer archives still are.
+         */
+        DELETED
+    }
+
+    private final Type type;
+    private final String archiveId;
+    private final Archive archive;
+    private final Archive.Status previousStatus;
+
+    ArchiveChangeEvent(Type type, String archiveId, Archive archive, Archive.Status previousStatus) {
+        this.type = type;
+        this.archiveId = archiveId;
+        this.archive = archive;
+        this.previousStatus = previousStatus;
+    }
+
+    /**
+     * The type of the change, as defined by the {@link ArchiveChangeEvent.Type} enum.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The archive ID.
+     */
+    public String getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * The archive as it appears in the latest listing, or null if the archive is no longer listed.
+     */
+    public Archive getArchive() {
+        return archive;
+    }
+
+    /**
+     * The status of the archive in the previous listing, or null for Type.CREATED events.
+     */
+    public Archive.Status getPreviousStatus() {
+        return previousStatus;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + archiveId + (previousStatus != null ? " (was " + previousStatus + ")" : "");
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.Archive.Status;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Polls the newest archives of your API key and reports what changed since the previous poll:
+ * archives that were created, that changed status, whose size or duration changed, and that were
+ * deleted. Register an {@link ArchiveChangeListener} to react to each change instead of scanning
+ * full listings yourself.
+ * <p>
+ * Each poll lists the newest {@link Builder#pages(int)} pages of {@link Builder#pageSize(int)}
+ * archives. The feed only remembers a 64-bit fingerprint of the status, size, and duration of
+ * each listed archive, so comparing a listing costs one hash lookup per archive and only the
+ * changed archives are reported. The first poll records the baseline and reports nothing.
+ * <p>
+ * An archive that is no longer listed is reported as deleted only if newer archives are still
+ * listed. An archive that just moved past the end of the polled pages is forgotten silently.
+ * <p>
+ * <pre>
+ * ArchiveChangeFeed feed = new ArchiveChangeFeed.Builder(opentok)
+ *   .interval(5, TimeUnit.SECONDS)
+ *   .build();
+ * feed.addListener(new ArchiveChangeListener() {
+ *   public void onArchiveChange(ArchiveChangeEvent event) {
+ *     System.out.println(event);
+ *   }
+ * });
+ * feed.start();
+ * </pre>
+ */
+public class ArchiveChangeFeed {
+
+    private static final int NO_STATUS = 0xF;
+
+    private final OpenTok opentok;
+    private final int pageSize;
+    private final int pages;
+    private final long intervalNanos;
+    private final ScheduledExecutorService sharedExecutor;
+    private final List<ArchiveChangeListener> listeners = new CopyOnWriteArrayList<ArchiveChangeListener>();
+    private final AtomicLong failedPollCount = new AtomicLong();
+
+    private final Map<String, Fingerprint> fingerprints = new HashMap<String, Fingerprint>();
+    private long pollCount;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduled;
+
+    private ArchiveChangeFeed(Builder builder) {
+        this.opentok = builder.opentok;
+        this.pageSize = builder.pageSize;
+        this.pages = builder.pages;
+        this.intervalNanos = builder.intervalNanos;
+        this.sharedExecutor = builder.executor;
+    }
+
+    /**
+     * Use this class to create an ArchiveChangeFeed object.
+     *
+     * @see ArchiveChangeFeed
+     */
+    public static class Builder {
+        private final OpenTok opentok;
+        private int pageSize = 100;
+        private int pages = 1;
+        private long intervalNanos = TimeUnit.SECONDS.toNanos(5);
+        private ScheduledExecutorService executor;
+
+        /**
+         * Creates a Builder for an ArchiveChangeFeed object.
+         *
+         * @param opentok The OpenTok object used to list archives.
+         */
+        public Builder(OpenTok opentok) {
+            this.opentok = opentok;
+        }
+
+        /**
+         * Call this method to set the number of archives requested per page. The default is 100,
+         * and the maximum is 1000.
+         *
+         * @param pageSize The number of archives per page.
+         *
+         * @return The ArchiveChangeFeed.Builder object with the page size setting.
+         */
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Call this method to set the number of pages, starting with the newest archives, listed
+         * on each poll. The default is 1.
+         *
+         * @param pages The number of pages.
+         *
+         * @return The ArchiveChangeFeed.Builder object with the pages setting.
+         */
+        public Builder pages(int pages) {
+            this.pages = pages;
+            return this;
+        }
+
+        /**
+         * Call this method to set the delay between the end of one poll and the start of the
+         * next. The default is 5 seconds.
+         *
+         * @param duration The delay between polls.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The ArchiveChangeFeed.Builder object with the interval setting.
+         */
+        public Builder interval(long duration, TimeUnit unit) {
+            this.intervalNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to poll on your own executor. The executor is not shut down when the
+         * feed is stopped. By default, the feed polls on its own daemon thread.
+         *
+         * @param executor The executor for polls.
+         *
+         * @return The ArchiveChangeFeed.Builder object with the executor setting.
+         */
+        public Builder executor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the ArchiveChangeFeed object.
+         *
+         * @return The ArchiveChangeFeed object.
+         */
+        public ArchiveChangeFeed build() {
+            if (opentok == null) {
+                throw new IllegalArgumentException("opentok must not be null");
+            }
+            if (pageSize < 1 || pageSize > 1000) {
+                throw new IllegalArgumentException("pageSize must be between 1 and 1000");
+            }
+            if (pages < 1) {
+                throw new IllegalArgumentException("pages must be positive");
+            }
+            if (intervalNanos <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            return new ArchiveChangeFeed(this);
+        }
+    }
+
+    /**
+     * Registers a listener for the changes found by the following polls.
+     */
+    public void addListener(ArchiveChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #addListener(ArchiveChangeListener)}.
+     */
+    public void removeListener(ArchiveChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling in the background. A poll that fails is skipped, and the next poll compares
+     * its listing with the last successful one.
+     */
+    public synchronized void start() {
+        if (scheduled != null) {
+            return;
+        }
+        executor = sharedExecutor != null ? sharedExecutor : defaultExecutor();
+        scheduled = executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (OpenTokException e) {
+                    failedPollCount.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failedPollCount.incrementAndGet();
+                }
+            }
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops polling. A poll that is running completes first.
+     */
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (executor != null && executor != sharedExecutor) {
+            executor.shutdown();
+        }
+        executor = null;
+    }
+
+    /**
+     * Lists the newest archives once, compares the listing with the previous one, and notifies
+     * the listeners of the changes. You can call this method instead of {@link #start()} to poll
+     * on your own schedule.
+     *
+     * @return The changes, in the order they were passed to the listeners.
+     */
+    public List<ArchiveChangeEvent> poll() throws OpenTokException {
+        List<ArchiveChangeEvent> events;
+        synchronized (fingerprints) {
+            List<Archive> listing = list();
+            events = diff(listing);
+        }
+        for (ArchiveChangeEvent event : events) {
+            for (ArchiveChangeListener listener : listeners) {
+                try {
+                    listener.onArchiveChange(event);
+                } catch (RuntimeException e) {
+                    // one failing listener does not keep the others from being notified
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * The number of background polls that failed.
+     */
+    public long getFailedPollCount() {
+        return failedPollCount.get();
+    }
+
+    private List<Archive> list() throws OpenTokException {
+        List<Archive> listing = new ArrayList<Archive>();
+        for (int page = 0; page < pages; page++) {
+            ArchiveList archives = opentok.listArchives(page * pageSize, pageSize);
+            listing.addAll(archives);
+            if (archives.size() < pageSize) {
+                break;
+            }
+        }
+        return listing;
+    }
+
+    private List<ArchiveChangeEvent> diff(List<Archive> listing) {
+        long poll = ++pollCount;
+        boolean baseline = poll == 1;
+        List<ArchiveChangeEvent> events = new ArrayList<ArchiveChangeEvent>();
+        long oldestListed = Long.MAX_VALUE;
+
+        for (Archive archive : listing) {
+            String archiveId = archive.getId();
+            if (archiveId == null) {
+                continue;
+            }
+            oldestListed = Math.min(oldestListed, archive.getCreatedAt());
+            long fingerprint = fingerprint(archive);
+            Fingerprint previous = fingerprints.get(archiveId);
+            if (previous == null) {
+                fingerprints.put(archiveId, new Fingerprint(fingerprint, archive.getCreatedAt(), poll));
+                if (!baseline) {
+                    events.add(new ArchiveChangeEvent(ArchiveChangeEvent.Type.CREATED, archiveId, archive, null));
+                }
+                continue;
+            }
+            if (previous.lastSeen == poll) {
+                // listed twice because newer archives shifted the pages while they were fetched
+                continue;
+            }
+            previous.lastSeen = poll;
+            if (previous.value != fingerprint) {
+                events.add(change(archiveId, archive, previous.value, fingerprint));
+                previous.value = fingerprint;
+            }
+        }
+
+        // when the pages are full, older archives exist that are simply not listed
+        boolean truncated = listing.size() >= pages * pageSize;
+        Iterator<Map.Entry<String, Fingerprint>> entries = fingerprints.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Fingerprint> entry = entries.next();
+            Fingerprint previous = entry.getValue();
+            if (previous.lastSeen == poll) {
+                continue;
+            }
+            entries.remove();
+            Status previousStatus = status(previous.value);
+            if (!baseline && previousStatus != Status.DELETED
+                    && (!truncated || previous.createdAt > oldestListed)) {
+                events.add(new ArchiveChangeEvent(ArchiveChangeEvent.Type.DELETED, entry.getKey(), null,
+                        previousStatus));
+            }
+        }
+        return events;
+    }
+
+    private static ArchiveChangeEvent change(String archiveId, Archive archive, long previous, long current) {
+        Status previousStatus = status(previous);
+        Status status = status(current);
+        ArchiveChangeEvent.Type type;
+        if (status == previousStatus) {
+            type = ArchiveChangeEvent.Type.UPDATED;
+        } else if (status == Status.DELETED) {
+            type = ArchiveChangeEvent.Type.DELETED;
+        } else {
+            type = ArchiveChangeEvent.Type.STATUS_CHANGED;
+        }
+        return new ArchiveChangeEvent(type, archiveId, archive, previousStatus);
+    }
+
+    /**
+     * Packs the status ordinal into the top 4 bits, the duration into the next 28 bits, and the
+     * size into the low 32 bits.
+     */
+    static long fingerprint(Archive archive) {
+        long status = archive.getStatus() == null ? NO_STATUS : archive.getStatus().ordinal();
+        return status << 60
+                | ((long) archive.getDuration() & 0x0FFFFFFFL) << 32
+                | ((long) archive.getSize() & 0xFFFFFFFFL);
+    }
+
+    private static Status status(long fingerprint) {
+        int ordinal = (int) (fingerprint >>> 60);
+        return ordinal == NO_STATUS ? null : Status.values()[ordinal];
+    }
+
+    private static ScheduledExecutorService defaultExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "opentok-archive-change-feed");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class Fingerprint {
+        long value;
+        final long createdAt;
+        long lastSeen;
+
+        Fingerprint(long value, long createdAt, long lastSeen) {
+            this.value = value;
+            this.createdAt = createdAt;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
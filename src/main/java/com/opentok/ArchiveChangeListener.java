@@ -0,0 +1,22 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+/**
+ * Receives the changes found by an {@link ArchiveChangeFeed}. The method is called on the thread
+ * that polls the feed, once per change, in the order of the listing.
+ */
+public interface ArchiveChangeListener {
+
+    /**
+     * Called for each change between two listings of archives.
+     *
+     * @param event The change.
+     */
+    void onArchiveChange(ArchiveChangeEvent event);
+}
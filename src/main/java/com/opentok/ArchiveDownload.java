@@ -0,0 +1,69 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.File;
+
+/**
+ * Describes an archive file downloaded with the {@link OpenTok#downloadArchive(Archive, File)} method.
+ */
+public class ArchiveDownload {
+
+    private final File file;
+    private final long size;
+    private final int segments;
+    private final long resumedBytes;
+    private final String checksum;
+
+    ArchiveDownload(File file, long size, int segments, long resumedBytes, String checksum) {
+        this.file = file;
+        this.size = size;
+        this.segments = segments;
+        this.resumedBytes = resumedBytes;
+        this.checksum = checksum;
+    }
+
+    /**
+     * The file the archive was written to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The size of the archive file, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of parts the file was downloaded in.
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * The number of bytes that were already present from an earlier, interrupted download.
+     */
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    /**
+     * The MD5 checksum of the file as a hexadecimal string, computed while the file was
+     * transferred. When the file was downloaded in a single part, this is the MD5 digest of the
+     * file. When it was downloaded in several parts, this is the MD5 digest of the concatenated
+     * MD5 digests of the parts, followed by a dash and the number of parts (the same form as an
+     * Amazon S3 multipart ETag).
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+}
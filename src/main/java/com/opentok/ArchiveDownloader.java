@@ -0,0 +1,469 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+
+/**
+ * Streams an archive file into a {@link FileChannel}, using parallel range requests when the
+ * server supports them. Progress is recorded in a <code>.progress</code> file next to the target,
+ * so that a failed download can be resumed by a later call.
+ */
+class ArchiveDownloader {
+
+    private final AsyncHttpClient client;
+    private final DownloadProperties properties;
+
+    ArchiveDownloader(AsyncHttpClient client, DownloadProperties properties) {
+        this.client = client;
+        this.properties = properties;
+    }
+
+    ArchiveDownload download(Archive archive, File target) throws OpenTokException {
+        String url = archive.getUrl();
+        File progressFile = new File(target.getPath() + ".progress");
+
+        Probe probe = probe(url);
+        List<Segment> segments = plan(archive.getId(), probe, target, progressFile);
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(target, "rw");
+            FileChannel channel = file.getChannel();
+            if (probe.size >= 0) {
+                file.setLength(probe.size);
+            } else {
+                file.setLength(0);
+            }
+
+            long resumedBytes = 0;
+            for (Segment segment : segments) {
+                if (segment.written > 0) {
+                    segment.digestExisting(channel);
+                    resumedBytes += segment.written;
+                }
+            }
+
+            Progress progress = new Progress(progressFile, archive.getId(), probe.size, segments);
+            transfer(url, channel, segments, progress);
+            channel.force(false);
+            progressFile.delete();
+
+            long size = probe.size >= 0 ? probe.size : segments.get(0).written;
+            return new ArchiveDownload(target, size, segments.size(), resumedBytes, checksum(segments));
+        } catch (IOException e) {
+            throw new RequestException("Could not download the OpenTok Archive. archiveId = " + archive.getId(), e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // nothing useful to do here
+                }
+            }
+        }
+    }
+
+    private void transfer(final String url, final FileChannel channel, List<Segment> segments,
+                          final Progress progress) throws OpenTokException {
+        List<Segment> pending = new ArrayList<Segment>();
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                pending.add(segment);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(properties.parallelism(), pending.size()));
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final Segment segment : pending) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            fetch(url, channel, segment);
+                        } finally {
+                            progress.save();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            OpenTokException failure = null;
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof OpenTokException ? (OpenTokException) e.getCause()
+                                : new RequestException("Could not download the OpenTok Archive.", e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while downloading the OpenTok Archive.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void fetch(String url, FileChannel channel, Segment segment) throws OpenTokException, InterruptedException {
+        int attempt = 0;
+        while (true) {
+            long before = segment.written;
+            // a large segment can take longer than the request timeout, the read timeout catches stalls
+            AsyncHttpClient.BoundRequestBuilder request = client.prepareGet(url).setRequestTimeout(-1);
+            if (segment.isRanged()) {
+                request.setHeader("Range", "bytes=" + (segment.start + segment.written) + "-" + (segment.end - 1));
+            }
+            try {
+                request.execute(new SegmentHandler(channel, segment)).get();
+                if (segment.end >= 0 && !segment.isComplete()) {
+                    throw new IOException("The response ended before the requested range was complete.");
+                }
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                boolean retryable = !(cause instanceof RequestException)
+                        || ((RequestException) cause).getStatusCode() >= 500;
+                // a single, unranged stream cannot continue where it stopped
+                if (!segment.isRanged() && segment.written > 0) {
+                    segment.reset();
+                }
+                if (segment.written > before) {
+                    attempt = 0;
+                }
+                if (!retryable || attempt++ >= properties.maxRetries()) {
+                    if (cause instanceof OpenTokException) {
+                        throw (OpenTokException) cause;
+                    }
+                    throw new RequestException("Could not download the OpenTok Archive.", cause);
+                }
+            }
+        }
+    }
+
+    private Probe probe(String url) throws OpenTokException {
+        final Probe probe = new Probe();
+        try {
+            client.prepareGet(url)
+                    .setRequestTimeout(-1)
+                    .setHeader("Range", "bytes=0-0")
+                    .execute(new AsyncHandler<Probe>() {
+                        public void onThrowable(Throwable t) {
+                        }
+
+                        public STATE onBodyPartReceived(HttpResponseBodyPart part) {
+                            return STATE.ABORT;
+                        }
+
+                        public STATE onStatusReceived(HttpResponseStatus status) {
+                            probe.statusCode = status.getStatusCode();
+                            return STATE.CONTINUE;
+                        }
+
+                        public STATE onHeadersReceived(HttpResponseHeaders headers) {
+                            String contentRange = headers.getHeaders().getFirstValue("Content-Range");
+                            String contentLength = headers.getHeaders().getFirstValue("Content-Length");
+                            if (probe.statusCode == 206 && contentRange != null && contentRange.indexOf('/') > 0) {
+                                String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+                                if (!"*".equals(total)) {
+                                    probe.size = Long.parseLong(total);
+                                    probe.ranged = true;
+                                }
+                            } else if (probe.statusCode == 200 && contentLength != null) {
+                                probe.size = Long.parseLong(contentLength.trim());
+                            }
+                            return STATE.ABORT;
+                        }
+
+                        public Probe onCompleted() {
+                            return probe;
+                        }
+                    }).get();
+        } catch (Exception e) {
+            throw new RequestException("Could not download the OpenTok Archive.", e);
+        }
+        if (probe.statusCode != 200 && probe.statusCode != 206) {
+            throw new RequestException("Could not download the OpenTok Archive. The download URL returned" +
+                    " response code: " + probe.statusCode, probe.statusCode);
+        }
+        return probe;
+    }
+
+    private List<Segment> plan(String archiveId, Probe probe, File target, File progressFile) {
+        List<Segment> segments = new ArrayList<Segment>();
+        if (!probe.ranged) {
+            segments.add(new Segment(0, probe.size, false));
+            return segments;
+        }
+        long segmentSize = Math.max(properties.segmentSize(), 1);
+        for (long start = 0; start < probe.size || segments.isEmpty(); start += segmentSize) {
+            segments.add(new Segment(start, Math.min(start + segmentSize, probe.size), true));
+        }
+        if (properties.resume() && target.exists()) {
+            Progress.restore(progressFile, archiveId, probe.size, segments);
+        }
+        return segments;
+    }
+
+    private static String checksum(List<Segment> segments) {
+        if (segments.size() == 1) {
+            return toHex(segments.get(0).digest.digest());
+        }
+        MessageDigest composite = newDigest();
+        for (Segment segment : segments) {
+            composite.update(segment.digest.digest());
+        }
+        return toHex(composite.digest()) + "-" + segments.size();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class Probe {
+        int statusCode;
+        long size = -1;
+        boolean ranged;
+    }
+
+    private static class Segment {
+        final long start;
+        final long end;
+        final boolean ranged;
+        volatile long written;
+        MessageDigest digest = newDigest();
+
+        Segment(long start, long end, boolean ranged) {
+            this.start = start;
+            this.end = end;
+            this.ranged = ranged;
+        }
+
+        boolean isRanged() {
+            return ranged;
+        }
+
+        boolean isComplete() {
+            return end >= 0 && start + written >= end;
+        }
+
+        void reset() {
+            written = 0;
+            digest = newDigest();
+        }
+
+        void digestExisting(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = start;
+            long remaining = written;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("The partial download is shorter than its recorded progress.");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private static class SegmentHandler implements AsyncHandler<Long> {
+        private final FileChannel channel;
+        private final Segment segment;
+        private final long offset;
+        private int statusCode;
+
+        SegmentHandler(FileChannel channel, Segment segment) {
+            this.channel = channel;
+            this.segment = segment;
+            this.offset = segment.start + segment.written;
+        }
+
+        public void onThrowable(Throwable t) {
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            if (statusCode != 0 || segment.start + segment.written != offset) {
+                // the transport replayed the request after a dropped connection; the body would start
+                // over, so fail this attempt and let the caller continue from the last byte received
+                throw new IOException("The connection was interrupted during the download.");
+            }
+            statusCode = status.getStatusCode();
+            boolean expected = segment.isRanged() ? statusCode == 206 : statusCode == 200;
+            if (!expected) {
+                throw new RequestException("Could not download the OpenTok Archive. The download URL returned" +
+                        " response code: " + statusCode, statusCode);
+            }
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            String contentRange = headers.getHeaders().getFirstValue("Content-Range");
+            if (segment.isRanged() && (contentRange == null || !contentRange.startsWith("bytes " + offset + "-"))) {
+                throw new IOException("The server returned an unexpected range: " + contentRange);
+            }
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart part) throws Exception {
+            ByteBuffer buffer = part.getBodyByteBuffer();
+            if (segment.end >= 0) {
+                long room = segment.end - segment.start - segment.written;
+                if (buffer.remaining() > room) {
+                    buffer.limit(buffer.position() + (int) room);
+                }
+            }
+            ByteBuffer digestView = buffer.duplicate();
+            long position = segment.start + segment.written;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            segment.digest.update(digestView);
+            segment.written = position - segment.start;
+            return STATE.CONTINUE;
+        }
+
+        public Long onCompleted() {
+            return segment.written;
+        }
+    }
+
+    /**
+     * The number of bytes written for each segment, persisted so that an interrupted download can
+     * continue where it stopped.
+     */
+    private static class Progress {
+        private final File file;
+        private final String archiveId;
+        private final long size;
+        private final List<Segment> segments;
+
+        Progress(File file, String archiveId, long size, List<Segment> segments) {
+            this.file = file;
+            this.archiveId = archiveId;
+            this.size = size;
+            this.segments = segments;
+        }
+
+        synchronized void save() {
+            if (segments.size() == 1 && !segments.get(0).isRanged()) {
+                return;
+            }
+            Properties properties = new Properties();
+            properties.setProperty("archiveId", String.valueOf(archiveId));
+            properties.setProperty("size", Long.toString(size));
+            properties.setProperty("segments", Integer.toString(segments.size()));
+            for (int i = 0; i < segments.size(); i++) {
+                properties.setProperty("segment." + i, Long.toString(segments.get(i).written));
+            }
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(file);
+                properties.store(out, "OpenTok archive download progress");
+            } catch (IOException e) {
+                // the download still works, it just cannot be resumed
+            } finally {
+                close(out);
+            }
+        }
+
+        static void restore(File file, String archiveId, long size, List<Segment> segments) {
+            if (!file.exists()) {
+                return;
+            }
+            Properties properties = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                properties.load(in);
+            } catch (IOException e) {
+                return;
+            } finally {
+                close(in);
+            }
+            if (!String.valueOf(archiveId).equals(properties.getProperty("archiveId"))
+                    || !Long.toString(size).equals(properties.getProperty("size"))
+                    || !Integer.toString(segments.size()).equals(properties.getProperty("segments"))) {
+                return;
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                try {
+                    long written = Long.parseLong(properties.getProperty("segment." + i, "0"));
+                    segment.written = Math.max(0, Math.min(written, segment.end - segment.start));
+                } catch (NumberFormatException e) {
+                    segment.written = 0;
+                }
+            }
+        }
+
+        private static void close(java.io.Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    // nothing useful to do here
+                }
+            }
+        }
+    }
+}
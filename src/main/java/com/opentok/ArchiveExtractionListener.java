@@ -0,0 +1,35 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.File;
+
+/**
+ * Receives the parts of an individual stream archive as the
+ * {@link OpenTok#extractArchive(Archive, File, ArchiveExtractionListener)} method extracts them
+ * from the download stream. The methods are called on the thread that called
+ * <code>extractArchive()</code>, in the order the entries appear in the ZIP file.
+ */
+public interface ArchiveExtractionListener {
+
+    /**
+     * Called as soon as the manifest of the archive has been read.
+     *
+     * @param manifest The manifest, describing the file recorded for each stream.
+     */
+    void onManifest(ArchiveManifest manifest);
+
+    /**
+     * Called when the file of one stream has been completely written.
+     *
+     * @param file The extracted file.
+     * @param metadata The manifest entry describing the stream, or null if the manifest
+     * comes after this file in the ZIP file (it is then passed to {@link #onManifest} later).
+     */
+    void onStreamFile(File file, ArchiveManifest.StreamFile metadata);
+}
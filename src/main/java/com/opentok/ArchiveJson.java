@@ -0,0 +1,306 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.opentok.Archive.Field;
+import com.opentok.util.Json;
+
+/**
+ * Reads and writes archives directly on the token stream, without the annotation introspection
+ * and reflective field access of Jackson databind. This is the default codec of the SDK.
+ * <p>
+ * When reading, only the requested fields are bound. The values of the other fields are skipped
+ * without being decoded, so a listing read for a few fields does not create the strings of the
+ * rest. A response this codec cannot map, such as a number sent as a string, is read again with
+ * the databind readers of {@link OpenTok}, which are more lenient.
+ */
+class ArchiveJson {
+
+    static final Set<Field> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(Field.class));
+
+    private static final Map<String, Field> fieldsByName = new HashMap<String, Field>();
+
+    static {
+        for (Field field : Field.values()) {
+            fieldsByName.put(field.getJsonName(), field);
+        }
+    }
+
+    /**
+     * The fields that are read, with the ID added, because callers key archives on it.
+     */
+    static Set<Field> projection(Set<Field> fields) {
+        Set<Field> projection = EnumSet.of(Field.ID);
+        if (fields != null) {
+            projection.addAll(fields);
+        }
+        return projection;
+    }
+
+    static Archive readArchive(String json) throws IOException {
+        return readArchive(json, ALL_FIELDS);
+    }
+
+    static Archive readArchive(byte[] json) throws IOException {
+        try {
+            return readArchive(Json.createParser(json), ALL_FIELDS);
+        } catch (JsonProcessingException e) {
+            return OpenTok.archiveReader.readValue(json);
+        }
+    }
+
+    static ArchiveList readArchiveList(String json) throws IOException {
+        return readArchiveList(json, ALL_FIELDS);
+    }
+
+    static Archive readArchive(String json, Set<Field> fields) throws IOException {
+        try {
+            return readArchive(Json.createParser(json), fields);
+        } catch (JsonProcessingException e) {
+            return project(OpenTok.archiveReader.<Archive>readValue(json), fields);
+        }
+    }
+
+    static ArchiveList readArchiveList(String json, Set<Field> fields) throws IOException {
+        try {
+            return readArchiveList(Json.createParser(json), fields);
+        } catch (JsonProcessingException e) {
+            ArchiveList archives = OpenTok.archiveListReader.readValue(json);
+            if (fields.containsAll(ALL_FIELDS)) {
+                return archives;
+            }
+            for (int i = 0; i < archives.size(); i++) {
+                archives.set(i, project(archives.get(i), fields));
+            }
+            return archives;
+        }
+    }
+
+    private static Archive readArchive(JsonParser parser, Set<Field> fields) throws IOException {
+        try {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            return readFields(parser, fields);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static ArchiveList readArchiveList(JsonParser parser, Set<Field> fields) throws IOException {
+        try {
+            ArchiveList archives = new ArchiveList();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("count".equals(name) && token != JsonToken.VALUE_NULL) {
+                    archives.setCount(parser.getIntValue());
+                } else if ("items".equals(name) && token != JsonToken.VALUE_NULL) {
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                        expect(parser, token, JsonToken.START_OBJECT);
+                        archives.add(readFields(parser, fields));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return archives;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Keeps only the requested fields of an archive read by databind, so that the result is the
+     * same as when this codec reads it.
+     */
+    private static Archive project(Archive archive, Set<Field> fields) {
+        if (fields.containsAll(ALL_FIELDS)) {
+            return archive;
+        }
+        Archive projected = new Archive();
+        for (Field field : fields) {
+            switch (field) {
+                case CREATED_AT:
+                    projected.createdAt = archive.createdAt;
+                    break;
+                case DURATION:
+                    projected.duration = archive.duration;
+                    break;
+                case ID:
+                    projected.id = archive.id;
+                    break;
+                case NAME:
+                    projected.name = archive.name;
+                    break;
+                case PARTNER_ID:
+                    projected.partnerId = archive.partnerId;
+                    break;
+                case REASON:
+                    projected.reason = archive.reason;
+                    break;
+                case SESSION_ID:
+                    projected.sessionId = archive.sessionId;
+                    break;
+                case SIZE:
+                    projected.size = archive.size;
+                    break;
+                case STATUS:
+                    projected.status = archive.status;
+                    break;
+                case URL:
+                    projected.url = archive.url;
+                    break;
+                case HAS_VIDEO:
+                    projected.hasVideo = archive.hasVideo;
+                    break;
+                case HAS_AUDIO:
+                    projected.hasAudio = archive.hasAudio;
+                    break;
+                case OUTPUT_MODE:
+                    projected.outputMode = archive.outputMode;
+                    break;
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * Reads the fields of the archive object whose START_OBJECT token is the current token.
+     */
+    private static Archive readFields(JsonParser parser, Set<Field> fields) throws IOException {
+        Archive archive = new Archive();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Field field = fieldsByName.get(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (field == null || !fields.contains(field)) {
+                parser.skipChildren();
+                continue;
+            }
+            boolean isNull = token == JsonToken.VALUE_NULL;
+            switch (field) {
+                case CREATED_AT:
+                    archive.createdAt = isNull ? 0 : parser.getLongValue();
+                    break;
+                case DURATION:
+                    archive.duration = isNull ? 0 : parser.getIntValue();
+                    break;
+                case ID:
+                    archive.id = isNull ? null : text(parser, token);
+                    break;
+                case NAME:
+                    archive.name = isNull ? null : text(parser, token);
+                    break;
+                case PARTNER_ID:
+                    archive.partnerId = isNull ? 0 : parser.getIntValue();
+                    break;
+                case REASON:
+                    archive.reason = isNull ? null : text(parser, token);
+                    break;
+                case SESSION_ID:
+                    archive.sessionId = isNull ? null : text(parser, token);
+                    break;
+                case SIZE:
+                    archive.size = isNull ? 0 : parser.getIntValue();
+                    break;
+                case STATUS:
+                    archive.status = isNull ? null : parseEnum(parser, Archive.Status.class);
+                    break;
+                case URL:
+                    archive.url = isNull ? null : text(parser, token);
+                    break;
+                case HAS_VIDEO:
+                    archive.hasVideo = !isNull && parser.getBooleanValue();
+                    break;
+                case HAS_AUDIO:
+                    archive.hasAudio = !isNull && parser.getBooleanValue();
+                    break;
+                case OUTPUT_MODE:
+                    archive.outputMode = isNull ? null : parseEnum(parser, Archive.OutputMode.class);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * Writes the properties of an archive in the order of the databind serializer. The values are
+     * read with the getters, so views that do not use the fields of Archive are written correctly.
+     */
+    static void writeArchive(JsonGenerator generator, Archive archive) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("createdAt", archive.getCreatedAt());
+        generator.writeNumberField("duration", archive.getDuration());
+        generator.writeStringField("id", archive.getId());
+        generator.writeStringField("name", archive.getName());
+        generator.writeNumberField("partnerId", archive.getPartnerId());
+        generator.writeStringField("reason", archive.getReason());
+        generator.writeStringField("sessionId", archive.getSessionId());
+        generator.writeNumberField("size", archive.getSize());
+        writeEnumField(generator, "status", archive.getStatus());
+        generator.writeStringField("url", archive.getUrl());
+        generator.writeBooleanField("hasVideo", archive.hasVideo());
+        generator.writeBooleanField("hasAudio", archive.hasAudio());
+        writeEnumField(generator, "outputMode", archive.getOutputMode());
+        generator.writeEndObject();
+    }
+
+    static String toJson(final Archive archive) throws IOException {
+        return Json.toString(new Json.Writer() {
+            public void writeTo(JsonGenerator generator) throws IOException {
+                writeArchive(generator, archive);
+            }
+        });
+    }
+
+    private static void writeEnumField(JsonGenerator generator, String name, Enum<?> value) throws IOException {
+        if (value == null) {
+            generator.writeNullField(name);
+        } else {
+            // the enums of Archive serialize as their lowercase toString() value
+            generator.writeStringField(name, value.toString());
+        }
+    }
+
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.VALUE_STRING);
+        return parser.getText();
+    }
+
+    private static <E extends Enum<E>> E parseEnum(JsonParser parser, Class<E> type) throws IOException {
+        String text = text(parser, parser.getCurrentToken());
+        try {
+            return Enum.valueOf(type, text.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("Unknown " + type.getSimpleName() + " value: " + text,
+                    parser.getCurrentLocation());
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException("Expected " + expected + " but found " + actual,
+                    parser.getCurrentLocation());
+        }
+    }
+}
@@ -27,12 +27,19 @@ public class ArchiveList extends ArrayList<Archive> {
         return totalCount;
     }
 
+    ArchiveList copy() {
+        ArchiveList copy = new ArchiveList();
+        copy.addAll(this);
+        copy.totalCount = this.totalCount;
+        return copy;
+    }
+
     private void setItems(List<Archive> archives) {
         this.clear();
         this.addAll(archives);
     }
 
-    private void setCount(int count) {
+    void setCount(int count) {
         this.totalCount = count;
     }
 }
@@ -0,0 +1,421 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.CacheBackend;
+import com.opentok.util.InMemoryCacheBackend;
+
+/**
+ * Caches the pages returned by the {@link OpenTok#listArchives(int, int)} method and serves them
+ * with stale-while-revalidate semantics.
+ * <p>
+ * A page younger than the freshness window is returned as is. An older page is still returned
+ * right away, and a single background request refreshes it for the callers that follow. Only
+ * pages older than the maximum age are fetched while the caller waits. Concurrent callers that
+ * miss the same page share one request, so the OpenTok API sees at most one request per page
+ * and freshness window no matter how many viewers there are.
+ * <p>
+ * All pages are dropped when archives are started, stopped, or deleted with the same OpenTok
+ * object, because any of those calls can change the contents of every page.
+ * <p>
+ * The pages are stored, encoded with {@link ArchiveSerializer}, in a {@link CacheBackend}. Set a
+ * shared backend with {@link Builder#backend(CacheBackend)} to let several servers serve each
+ * other's pages. Requests are then shared within each server, and a page dropped by one server
+ * is dropped for all of them. The keys include the API URL and the API key of the OpenTok object,
+ * so the pages and the invalidations of one project never reach another project that shares the
+ * backend.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .archiveListCache(new ArchiveListCache.Builder()
+ *     .freshFor(10, TimeUnit.SECONDS)
+ *     .build())
+ *   .build();
+ * </pre>
+ * <p>
+ * The {@link #invalidateAll()} method applies to the pages of the first OpenTok object built with
+ * this ArchiveListCache. When other OpenTok objects, with other API keys, are built with it, use
+ * their {@link OpenTok#getArchiveListCache()}.
+ */
+public class ArchiveListCache {
+
+    /**
+     * Loads a page of archives from the OpenTok API.
+     */
+    interface Loader {
+        ArchiveList load(int offset, int count) throws OpenTokException;
+    }
+
+    private static final String PAGE_PREFIX = "opentok:archive-list:";
+    private static final String INVALIDATED_KEY = "opentok:archive-list-invalidated";
+
+    // "apiUrl:apiKey:" of the OpenTok object that uses the cache, set when it is built
+    private volatile String namespace = "";
+    private final long freshMillis;
+    private final long maxAgeMillis;
+    private final CacheBackend backend;
+    private final Executor executor;
+    // the refresh thread of the cache when no executor is set, null otherwise
+    private final RefreshThread refreshThread;
+    // keyed by the full keys, so they can be shared by the views of several API keys
+    private final SingleFlight<ArchiveList> loading;
+    private final ConcurrentHashMap<String, Boolean> refreshing;
+
+    private final AtomicLong hitCount;
+    private final AtomicLong staleHitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong revalidationCount;
+    private final AtomicLong errorCount;
+
+    private ArchiveListCache(Builder builder) {
+        this.freshMillis = TimeUnit.NANOSECONDS.toMillis(builder.freshNanos);
+        this.maxAgeMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(builder.maxAgeNanos, builder.freshNanos));
+        // one more entry for the invalidation time, which is read on every lookup
+        this.backend = builder.backend != null ? builder.backend : new InMemoryCacheBackend(builder.maximumPages + 1);
+        this.refreshThread = builder.executor != null ? null : new RefreshThread();
+        this.executor = builder.executor != null ? builder.executor : refreshThread;
+        this.loading = new SingleFlight<ArchiveList>();
+        this.refreshing = new ConcurrentHashMap<String, Boolean>();
+        this.hitCount = new AtomicLong();
+        this.staleHitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.revalidationCount = new AtomicLong();
+        this.errorCount = new AtomicLong();
+    }
+
+    private ArchiveListCache(ArchiveListCache parent, String namespace) {
+        this.namespace = namespace;
+        this.freshMillis = parent.freshMillis;
+        this.maxAgeMillis = parent.maxAgeMillis;
+        this.backend = parent.backend;
+        this.executor = parent.executor;
+        this.refreshThread = parent.refreshThread;
+        this.loading = parent.loading;
+        this.refreshing = parent.refreshing;
+        this.hitCount = parent.hitCount;
+        this.staleHitCount = parent.staleHitCount;
+        this.missCount = parent.missCount;
+        this.revalidationCount = parent.revalidationCount;
+        this.errorCount = parent.errorCount;
+    }
+
+    /**
+     * Returns the cache of the pages of one OpenTok object: this one if it is not used yet or is
+     * used for the same API key, or a view of it with the same backend, executor, and statistics.
+     */
+    ArchiveListCache bind(String apiUrl, int apiKey) {
+        String bound = apiUrl + ":" + apiKey + ":";
+        synchronized (this) {
+            if (namespace.length() == 0) {
+                namespace = bound;
+            }
+        }
+        if (refreshThread != null) {
+            refreshThread.retain();
+        }
+        return bound.equals(namespace) ? this : new ArchiveListCache(this, bound);
+    }
+
+    /**
+     * Called once by each OpenTok object that was bound to the cache, when it is closed. The
+     * refresh thread stops when the last of them is closed.
+     */
+    void release() {
+        if (refreshThread != null) {
+            refreshThread.release();
+        }
+    }
+
+    /**
+     * Use this class to create an ArchiveListCache object.
+     *
+     * @see ArchiveListCache
+     */
+    public static class Builder {
+        private long freshNanos = TimeUnit.SECONDS.toNanos(5);
+        private long maxAgeNanos = TimeUnit.MINUTES.toNanos(5);
+        private int maximumPages = 100;
+        private CacheBackend backend;
+        private Executor executor;
+
+        /**
+         * Call this method to set how long a page is served without being refreshed. The default
+         * is 5 seconds.
+         *
+         * @param duration The freshness window.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The ArchiveListCache.Builder object with the freshness setting.
+         */
+        public Builder freshFor(long duration, TimeUnit unit) {
+            this.freshNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to set the age after which a page is no longer served while it is
+         * refreshed, but fetched again while the caller waits. The default is 5 minutes.
+         *
+         * @param duration The maximum age.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The ArchiveListCache.Builder object with the maximum age setting.
+         */
+        public Builder maxAge(long duration, TimeUnit unit) {
+            this.maxAgeNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to set the maximum number of cached pages. The default is 100. This
+         * setting only applies to the default in-memory backend.
+         *
+         * @param maximumPages The maximum number of pages.
+         *
+         * @return The ArchiveListCache.Builder object with the maximum pages setting.
+         */
+        public Builder maximumPages(int maximumPages) {
+            this.maximumPages = maximumPages;
+            return this;
+        }
+
+        /**
+         * Call this method to store the pages in another backend, for example one shared by
+         * several servers. By default, an {@link InMemoryCacheBackend} is used. The age of a page
+         * is measured with the clock of each server, so the clocks of servers that share a backend
+         * should be synchronized.
+         *
+         * @param backend The cache backend.
+         *
+         * @return The ArchiveListCache.Builder object with the backend setting.
+         */
+        public Builder backend(CacheBackend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        /**
+         * Call this method to run background refreshes on your own executor. By default, a single
+         * daemon thread is used. It is started by the first refresh and stopped when the OpenTok
+         * objects built with the cache are closed.
+         *
+         * @param executor The executor for background refreshes.
+         *
+         * @return The ArchiveListCache.Builder object with the executor setting.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the ArchiveListCache object.
+         *
+         * @return The ArchiveListCache object.
+         */
+        public ArchiveListCache build() {
+            if (backend == null && maximumPages < 1) {
+                throw new IllegalArgumentException("maximumPages must be positive");
+            }
+            return new ArchiveListCache(this);
+        }
+    }
+
+    ArchiveList get(final int offset, final int count, final Loader loader) throws OpenTokException {
+        final String key = namespace + PAGE_PREFIX + offset + ":" + count;
+        String invalidatedKey = namespace + INVALIDATED_KEY;
+        ArchiveList page = null;
+        long fetchedAt = 0;
+        try {
+            Map<String, byte[]> values = backend.getAll(Arrays.asList(key, invalidatedKey));
+            byte[] value = values.get(key);
+            if (value != null && value.length >= 8) {
+                ByteBuffer buffer = ByteBuffer.wrap(value);
+                fetchedAt = buffer.getLong();
+                byte[] invalidated = values.get(invalidatedKey);
+                long invalidatedAt = invalidated != null && invalidated.length == 8
+                        ? ByteBuffer.wrap(invalidated).getLong() : Long.MIN_VALUE;
+                if (fetchedAt > invalidatedAt) {
+                    page = ArchiveSerializer.deserializeArchiveList(Arrays.copyOfRange(value, 8, value.length));
+                }
+            }
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        } catch (InvalidArgumentException e) {
+            errorCount.incrementAndGet();
+        }
+
+        if (page != null) {
+            long age = System.currentTimeMillis() - fetchedAt;
+            if (age < freshMillis) {
+                hitCount.incrementAndGet();
+                return page;
+            }
+            if (age < maxAgeMillis) {
+                staleHitCount.incrementAndGet();
+                revalidate(key, offset, count, loader);
+                return page;
+            }
+        }
+
+        missCount.incrementAndGet();
+        // callers that share a load each get their own copy of the list
+        return loading.execute(key, new Callable<ArchiveList>() {
+            public ArchiveList call() throws OpenTokException {
+                return fetch(key, offset, count, loader);
+            }
+        }).copy();
+    }
+
+    /**
+     * Loads a page and stores it. The page is stamped with the time the request started, so a
+     * page requested before an invalidation is never served after it.
+     */
+    private ArchiveList fetch(String key, int offset, int count, Loader loader) throws OpenTokException {
+        long startedAt = System.currentTimeMillis();
+        ArchiveList list = loader.load(offset, count);
+        byte[] encoded = ArchiveSerializer.serialize(list);
+        ByteBuffer value = ByteBuffer.allocate(8 + encoded.length);
+        value.putLong(startedAt).put(encoded);
+        try {
+            backend.put(key, value.array(), maxAgeMillis, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+        return list;
+    }
+
+    private void revalidate(final String key, final int offset, final int count, final Loader loader) {
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        fetch(key, offset, count, loader);
+                        revalidationCount.incrementAndGet();
+                    } catch (OpenTokException e) {
+                        // keep serving the stale page until it reaches its maximum age
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Removes all pages from the cache. With a shared backend, the pages are removed for every
+     * OpenTok object with the same API key, and the pages of other API keys are kept.
+     */
+    public void invalidateAll() {
+        try {
+            backend.put(namespace + INVALIDATED_KEY, ByteBuffer.allocate(8).putLong(System.currentTimeMillis()).array(),
+                    CacheBackend.FOREVER, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The cache backend that stores the pages.
+     */
+    public CacheBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * The number of pages returned while they were fresh.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of pages returned while they were being refreshed in the background.
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /**
+     * The number of lookups that had to wait for a page to be fetched.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of completed background refreshes.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * The number of backend calls that failed and of cached pages that could not be decoded.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * The default executor: a single daemon thread, started when it is first needed and shut down
+     * when no open OpenTok object uses the cache.
+     */
+    private static class RefreshThread implements Executor {
+        private ExecutorService executor;
+        private int users;
+
+        synchronized void retain() {
+            users++;
+        }
+
+        synchronized void release() {
+            if (--users == 0 && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+
+        public synchronized void execute(Runnable task) {
+            if (users == 0) {
+                throw new RejectedExecutionException("The OpenTok objects that use the cache are closed.");
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "opentok-archive-list-cache");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            executor.execute(task);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Represents the manifest included in the ZIP file of an archive recorded with the
+ * {@link Archive.OutputMode#INDIVIDUAL} output mode. The manifest describes the file recorded
+ * for each stream.
+ *
+ * @see OpenTok#extractArchive(Archive, java.io.File, ArchiveExtractionListener)
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class ArchiveManifest {
+
+    /**
+     * Describes the file recorded for one stream of an individual stream archive.
+     */
+    @JsonIgnoreProperties(ignoreUnknown=true)
+    public static class StreamFile {
+        @JsonProperty private String streamId;
+        @JsonProperty private String filename;
+        @JsonProperty private String connectionData;
+        @JsonProperty private long size;
+        @JsonProperty private long startTimeOffset;
+        @JsonProperty private long stopTimeOffset;
+
+        /**
+         * The stream ID of the recorded stream.
+         */
+        public String getStreamId() {
+            return streamId;
+        }
+
+        /**
+         * The name of the stream's file in the archive ZIP file.
+         */
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * The connection data of the client that published the stream.
+         */
+        public String getConnectionData() {
+            return connectionData;
+        }
+
+        /**
+         * The size of the stream's file, in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The time at which the stream started, in milliseconds, relative to the start of the archive.
+         */
+        public long getStartTimeOffset() {
+            return startTimeOffset;
+        }
+
+        /**
+         * The time at which the stream stopped, in milliseconds, relative to the start of the archive.
+         */
+        public long getStopTimeOffset() {
+            return stopTimeOffset;
+        }
+    }
+
+    @JsonProperty private String id;
+    @JsonProperty private String name;
+    @JsonProperty private String sessionId;
+    @JsonProperty private long createdAt;
+    @JsonProperty private List<StreamFile> files = new ArrayList<StreamFile>();
+
+    /**
+     * The archive ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The name of the archive.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The session ID of the OpenTok session associated with the archive.
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * The time at which the archive was created, in milliseconds since the Unix epoch.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * The files recorded for each stream.
+     */
+    public List<StreamFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the description of the file with the given name in the archive ZIP file, or null
+     * if the manifest does not list it.
+     */
+    public StreamFile getFile(String filename) {
+        for (StreamFile file : files) {
+            if (file.getFilename() != null && file.getFilename().equals(filename)) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
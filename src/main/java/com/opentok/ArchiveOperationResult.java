@@ -0,0 +1,115 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+
+/**
+ * The outcome of stopping or deleting one archive with the {@link OpenTok#stopArchives} or
+ * {@link OpenTok#deleteArchives} method.
+ */
+public class ArchiveOperationResult {
+
+    /**
+     * Defines values returned by the {@link ArchiveOperationResult#getErrorType} method.
+     */
+    public enum ErrorType {
+        /**
+         * The operation succeeded.
+         */
+        NONE,
+        /**
+         * The archive does not exist (HTTP 404).
+         */
+        NOT_FOUND,
+        /**
+         * The archive was not in a status that allows the operation (HTTP 409). A stopped archive
+         * was not being recorded, or a deleted archive was not "available", "uploaded", or
+         * "deleted".
+         */
+        CONFLICT,
+        /**
+         * The request was not authorized (HTTP 403).
+         */
+        UNAUTHORIZED,
+        /**
+         * The OpenTok server failed to process the request (HTTP 5xx). The operation can be retried.
+         */
+        SERVER_ERROR,
+        /**
+         * The request failed for another reason, including network errors.
+         */
+        OTHER
+    }
+
+    private final String archiveId;
+    private final Archive archive;
+    private final OpenTokException error;
+
+    ArchiveOperationResult(String archiveId, Archive archive, OpenTokException error) {
+        this.archiveId = archiveId;
+        this.archive = archive;
+        this.error = error;
+    }
+
+    /**
+     * The archive ID the operation was performed on.
+     */
+    public String getArchiveId() {
+        return archiveId;
+    }
+
+    /**
+     * The Archive object returned by a successful stop operation. This is null for delete
+     * operations and for failed operations.
+     */
+    public Archive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Whether the operation succeeded (<code>true</code>) or not (<code>false</code>).
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * The exception describing a failed operation, or null if the operation succeeded.
+     */
+    public OpenTokException getError() {
+        return error;
+    }
+
+    /**
+     * The classification of a failed operation, as defined by the
+     * {@link ArchiveOperationResult.ErrorType} enum.
+     */
+    public ErrorType getErrorType() {
+        if (error == null) {
+            return ErrorType.NONE;
+        }
+        int statusCode = error instanceof RequestException ? ((RequestException) error).getStatusCode() : 0;
+        if (statusCode == 404) {
+            return ErrorType.NOT_FOUND;
+        } else if (statusCode == 409) {
+            return ErrorType.CONFLICT;
+        } else if (statusCode == 403) {
+            return ErrorType.UNAUTHORIZED;
+        } else if (statusCode >= 500 && statusCode < 600) {
+            return ErrorType.SERVER_ERROR;
+        }
+        return ErrorType.OTHER;
+    }
+
+    @Override
+    public String toString() {
+        return archiveId + ": " + (error == null ? "success" : getErrorType() + " " + error.getMessage());
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import com.opentok.Archive.OutputMode;
+import com.opentok.Archive.Status;
+import com.opentok.exception.InvalidArgumentException;
+
+/**
+ * Encodes {@link Archive} and {@link ArchiveList} objects in a compact binary format, for
+ * example to store archive metadata in a cache shared by several servers. An encoded archive is
+ * typically 3 to 5 times smaller than its JSON representation and is decoded without parsing
+ * text or using reflection.
+ * <p>
+ * Each value starts with a magic byte, the format version, and the kind of value. The properties
+ * of an archive always follow in the same order. Integers are written as variable-length
+ * quantities, archive IDs in the UUID format as 16 bytes, and strings as UTF-8. Statuses and
+ * output modes are written as fixed codes that do not depend on the order of the enum constants.
+ * <p>
+ * A decoder accepts all format versions up to {@link #VERSION} and rejects newer ones.
+ */
+public final class ArchiveSerializer {
+
+    /**
+     * The version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0xA7;
+    private static final int KIND_ARCHIVE = 1;
+    private static final int KIND_ARCHIVE_LIST = 2;
+
+    // presence bits
+    private static final int HAS_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_REASON = 1 << 2;
+    private static final int HAS_SESSION_ID = 1 << 3;
+    private static final int HAS_URL = 1 << 4;
+    private static final int HAS_STATUS = 1 << 5;
+    private static final int HAS_OUTPUT_MODE = 1 << 6;
+    private static final int ID_IS_UUID = 1 << 7;
+
+    // track bits
+    private static final int VIDEO = 1;
+    private static final int AUDIO = 1 << 1;
+
+    // codes are positions in these arrays and must never be reordered
+    private static final Status[] STATUS_CODES = {
+            Status.AVAILABLE, Status.DELETED, Status.FAILED, Status.PAUSED,
+            Status.STARTED, Status.STOPPED, Status.UPLOADED, Status.EXPIRED
+    };
+    private static final OutputMode[] OUTPUT_MODE_CODES = {
+            OutputMode.COMPOSED, OutputMode.INDIVIDUAL
+    };
+
+    private ArchiveSerializer() {
+    }
+
+    /**
+     * Encodes an archive.
+     *
+     * @param archive The archive to encode.
+     *
+     * @return The encoded archive.
+     */
+    public static byte[] serialize(Archive archive) {
+        Output out = new Output(128);
+        out.writeHeader(KIND_ARCHIVE);
+        out.writeArchive(archive);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a list of archives, including its total count.
+     *
+     * @param archives The list to encode.
+     *
+     * @return The encoded list.
+     */
+    public static byte[] serialize(ArchiveList archives) {
+        Output out = new Output(16 + archives.size() * 96);
+        out.writeHeader(KIND_ARCHIVE_LIST);
+        out.writeVarInt(archives.getTotalCount());
+        out.writeVarInt(archives.size());
+        for (Archive archive : archives) {
+            out.writeArchive(archive);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an archive encoded with {@link #serialize(Archive)}.
+     *
+     * @param data The encoded archive.
+     *
+     * @return The archive.
+     *
+     * @throws InvalidArgumentException If the data is not an encoded archive, was written by a
+     * newer version of the format, or is truncated.
+     */
+    public static Archive deserializeArchive(byte[] data) throws InvalidArgumentException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            readHeader(in, KIND_ARCHIVE);
+            Archive archive = readArchive(in);
+            checkEnd(in);
+            return archive;
+        } catch (BufferUnderflowException e) {
+            throw new InvalidArgumentException("The encoded archive is truncated.");
+        }
+    }
+
+    /**
+     * Decodes a list of archives encoded with {@link #serialize(ArchiveList)}.
+     *
+     * @param data The encoded list.
+     *
+     * @return The list of archives.
+     *
+     * @throws InvalidArgumentException If the data is not an encoded list of archives, was
+     * written by a newer version of the format, or is truncated.
+     */
+    public static ArchiveList deserializeArchiveList(byte[] data) throws InvalidArgumentException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            readHeader(in, KIND_ARCHIVE_LIST);
+            ArchiveList archives = new ArchiveList();
+            archives.setCount(readVarInt(in));
+            int size = readVarInt(in);
+            if (size < 0 || size > in.remaining()) {
+                throw new InvalidArgumentException("The encoded archive list has an invalid size: " + size);
+            }
+            archives.ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                archives.add(readArchive(in));
+            }
+            checkEnd(in);
+            return archives;
+        } catch (BufferUnderflowException e) {
+            throw new InvalidArgumentException("The encoded archive list is truncated.");
+        }
+    }
+
+    private static void readHeader(ByteBuffer in, int kind) throws InvalidArgumentException {
+        if ((in.get() & 0xFF) != MAGIC) {
+            throw new InvalidArgumentException("The data was not encoded by ArchiveSerializer.");
+        }
+        int version = in.get() & 0xFF;
+        if (version < 1 || version > VERSION) {
+            throw new InvalidArgumentException("Unsupported ArchiveSerializer format version: " + version);
+        }
+        int actualKind = in.get() & 0xFF;
+        if (actualKind != kind) {
+            throw new InvalidArgumentException("The data does not encode " +
+                    (kind == KIND_ARCHIVE ? "an archive." : "an archive list."));
+        }
+    }
+
+    private static void checkEnd(ByteBuffer in) throws InvalidArgumentException {
+        if (in.hasRemaining()) {
+            throw new InvalidArgumentException("The encoded data has " + in.remaining() + " unexpected trailing bytes.");
+        }
+    }
+
+    private static Archive readArchive(ByteBuffer in) throws InvalidArgumentException {
+        int presence = in.get() & 0xFF;
+        int tracks = in.get() & 0xFF;
+        Archive archive = new Archive();
+        archive.createdAt = readVarLong(in);
+        archive.duration = readVarInt(in);
+        archive.partnerId = readVarInt(in);
+        archive.size = readVarInt(in);
+        archive.hasVideo = (tracks & VIDEO) != 0;
+        archive.hasAudio = (tracks & AUDIO) != 0;
+        archive.status = (presence & HAS_STATUS) != 0 ? code(STATUS_CODES, in.get()) : null;
+        archive.outputMode = (presence & HAS_OUTPUT_MODE) != 0 ? code(OUTPUT_MODE_CODES, in.get()) : null;
+        if ((presence & ID_IS_UUID) != 0) {
+            archive.id = new UUID(in.getLong(), in.getLong()).toString();
+        } else if ((presence & HAS_ID) != 0) {
+            archive.id = readString(in);
+        }
+        archive.name = (presence & HAS_NAME) != 0 ? readString(in) : null;
+        archive.reason = (presence & HAS_REASON) != 0 ? readString(in) : null;
+        archive.sessionId = (presence & HAS_SESSION_ID) != 0 ? readString(in) : null;
+        archive.url = (presence & HAS_URL) != 0 ? readString(in) : null;
+        return archive;
+    }
+
+    private static <T> T code(T[] codes, byte code) throws InvalidArgumentException {
+        if (code < 0 || code >= codes.length) {
+            throw new InvalidArgumentException("Unknown code in the encoded archive: " + code);
+        }
+        return codes[code];
+    }
+
+    private static String readString(ByteBuffer in) throws InvalidArgumentException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = utf8(in.array(), in.arrayOffset() + in.position(), length);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer in) throws InvalidArgumentException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(ByteBuffer in) throws InvalidArgumentException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new InvalidArgumentException("The encoded archive has an invalid number.");
+    }
+
+    private static int indexOf(Object[] codes, Object value) {
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No code for " + value);
+    }
+
+    /**
+     * Returns the ID as a UUID only if it is written exactly as UUID.toString() writes it, so
+     * that the decoded ID is equal to the original.
+     */
+    private static UUID uuid(String id) {
+        if (id.length() != 36 || id.charAt(8) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String utf8(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        void writeHeader(int kind) {
+            write(MAGIC);
+            write(VERSION);
+            write(kind);
+        }
+
+        void writeArchive(Archive archive) {
+            String id = archive.getId();
+            UUID uuid = id == null ? null : uuid(id);
+            int presence = (id != null ? HAS_ID : 0)
+                    | (uuid != null ? ID_IS_UUID : 0)
+                    | (archive.getName() != null ? HAS_NAME : 0)
+                    | (archive.getReason() != null ? HAS_REASON : 0)
+                    | (archive.getSessionId() != null ? HAS_SESSION_ID : 0)
+                    | (archive.getUrl() != null ? HAS_URL : 0)
+                    | (archive.getStatus() != null ? HAS_STATUS : 0)
+                    | (archive.getOutputMode() != null ? HAS_OUTPUT_MODE : 0);
+            write(presence);
+            write((archive.hasVideo() ? VIDEO : 0) | (archive.hasAudio() ? AUDIO : 0));
+            writeVarLong(archive.getCreatedAt());
+            writeVarInt(archive.getDuration());
+            writeVarInt(archive.getPartnerId());
+            writeVarInt(archive.getSize());
+            if (archive.getStatus() != null) {
+                write(indexOf(STATUS_CODES, archive.getStatus()));
+            }
+            if (archive.getOutputMode() != null) {
+                write(indexOf(OUTPUT_MODE_CODES, archive.getOutputMode()));
+            }
+            if (uuid != null) {
+                writeLong(uuid.getMostSignificantBits());
+                writeLong(uuid.getLeastSignificantBits());
+            } else if (id != null) {
+                writeString(id);
+            }
+            writeString(archive.getName());
+            writeString(archive.getReason());
+            writeString(archive.getSessionId());
+            writeString(archive.getUrl());
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                return;
+            }
+            byte[] bytes = utf8(value);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeVarInt(int value) {
+            // negative values are written as their unsigned 32-bit value
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+    }
+}
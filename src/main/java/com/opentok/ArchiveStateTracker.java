@@ -0,0 +1,110 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.Archive.Status;
+import com.opentok.exception.RequestException;
+
+/**
+ * Remembers the latest status seen for each archive, from the results of the calls made by an
+ * OpenTok object, and rejects stop and delete calls that the OpenTok API would certainly answer
+ * with HTTP 409.
+ * <p>
+ * The status of an archive only moves forward: an in-progress archive (started or paused) is
+ * stopped, then uploaded or available, then deleted or expired; a failed archive stays failed.
+ * A status seen earlier can be out of date, so only statuses that cannot move back to an allowed
+ * one are used to reject a call. An archive seen as stopped (or later) can never be stopped, and
+ * an archive seen as expired or failed can never be deleted. Deleting an archive that is already
+ * deleted is accepted by the OpenTok API, and an archive seen as started may be available by now,
+ * so neither deletion is rejected.
+ * <p>
+ * Updates are lock-free: a status replaces the recorded one with a compare-and-set, and only if
+ * it is not behind it in the lifecycle.
+ */
+class ArchiveStateTracker {
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<String, Status> statuses = new ConcurrentHashMap<String, Status>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    ArchiveStateTracker(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    void observe(Archive archive) {
+        if (archive != null) {
+            observe(archive.getId(), archive.getStatus());
+        }
+    }
+
+    void observe(String archiveId, Status status) {
+        if (archiveId == null || status == null) {
+            return;
+        }
+        while (true) {
+            Status recorded = statuses.get(archiveId);
+            if (recorded == null) {
+                // new archives are not tracked once the limit is reached, which only makes checks miss
+                if (statuses.size() >= maximumSize || statuses.putIfAbsent(archiveId, status) == null) {
+                    return;
+                }
+            } else if (stage(status) < stage(recorded) || recorded == status
+                    || statuses.replace(archiveId, recorded, status)) {
+                return;
+            }
+        }
+    }
+
+    void checkStop(String archiveId) throws RequestException {
+        Status status = statuses.get(archiveId);
+        if (status != null && stage(status) > stage(Status.STARTED)) {
+            throw rejected("Could not stop an OpenTok Archive. The archive is already " + status +
+                    ". archiveId = " + archiveId);
+        }
+    }
+
+    void checkDelete(String archiveId) throws RequestException {
+        Status status = statuses.get(archiveId);
+        if (status == Status.EXPIRED || status == Status.FAILED) {
+            throw rejected("Could not delete an OpenTok Archive. The archive is " + status +
+                    ". archiveId = " + archiveId);
+        }
+    }
+
+    Status getStatus(String archiveId) {
+        return statuses.get(archiveId);
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private RequestException rejected(String message) {
+        rejectedCount.incrementAndGet();
+        return new RequestException(message + " (rejected without a request)", 409);
+    }
+
+    private static int stage(Status status) {
+        switch (status) {
+            case STARTED:
+            case PAUSED:
+                return 0;
+            case STOPPED:
+                return 1;
+            case UPLOADED:
+            case AVAILABLE:
+                return 2;
+            default:
+                // DELETED, EXPIRED, FAILED
+                return 3;
+        }
+    }
+}
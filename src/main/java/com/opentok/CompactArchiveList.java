@@ -0,0 +1,427 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.opentok.Archive.OutputMode;
+import com.opentok.Archive.Status;
+
+/**
+ * A read-only list of archives that stores each archive property in a column of primitive
+ * values instead of keeping one {@link Archive} object per archive. Use it to hold large numbers
+ * of archives, for example for analytics over all the archives of an API key.
+ * <p>
+ * Archive IDs in the standard UUID format are stored as two <code>long</code> values. Session
+ * IDs, names, and reasons are stored once per distinct value. Without download URLs, an archive
+ * takes about 40 bytes instead of several hundred.
+ * <p>
+ * The {@link #get(int)} method returns a lightweight view of the archive at the given index. The
+ * view reads its values from the columns, so it is cheap to create and should not be kept.
+ * <p>
+ * <pre>
+ * CompactArchiveList.Builder builder = new CompactArchiveList.Builder();
+ * for (int offset = 0; ; offset += 1000) {
+ *   ArchiveList page = opentok.listArchives(offset, 1000);
+ *   builder.addAll(page).totalCount(page.getTotalCount());
+ *   if (page.size() &lt; 1000) break;
+ * }
+ * CompactArchiveList archives = builder.build();
+ * </pre>
+ */
+public class CompactArchiveList extends AbstractList<Archive> implements RandomAccess {
+
+    private static final byte NONE = -1;
+    private static final int NO_STRING = -1;
+    private static final Status[] STATUSES = Status.values();
+    private static final OutputMode[] OUTPUT_MODES = OutputMode.values();
+
+    private final int size;
+    private final int totalCount;
+    private final long[] idHigh;
+    private final long[] idLow;
+    private final Map<Integer, String> otherIds;
+    private final long[] createdAt;
+    private final int[] duration;
+    private final int[] archiveSize;
+    private final int[] partnerId;
+    private final byte[] status;
+    private final byte[] outputMode;
+    private final long[] flags;
+    private final int[] sessionId;
+    private final int[] name;
+    private final int[] reason;
+    private final String[] strings;
+    private final String[] url;
+
+    private CompactArchiveList(Builder builder) {
+        int n = builder.size;
+        this.size = n;
+        this.totalCount = builder.totalCount;
+        this.idHigh = Arrays.copyOf(builder.idHigh, n);
+        this.idLow = Arrays.copyOf(builder.idLow, n);
+        this.otherIds = new HashMap<Integer, String>(builder.otherIds);
+        this.createdAt = Arrays.copyOf(builder.createdAt, n);
+        this.duration = Arrays.copyOf(builder.duration, n);
+        this.archiveSize = Arrays.copyOf(builder.archiveSize, n);
+        this.partnerId = Arrays.copyOf(builder.partnerId, n);
+        this.status = Arrays.copyOf(builder.status, n);
+        this.outputMode = Arrays.copyOf(builder.outputMode, n);
+        this.flags = Arrays.copyOf(builder.flags, (n + 31) / 32);
+        this.sessionId = Arrays.copyOf(builder.sessionId, n);
+        this.name = Arrays.copyOf(builder.name, n);
+        this.reason = Arrays.copyOf(builder.reason, n);
+        this.strings = new String[builder.strings.size()];
+        for (Map.Entry<String, Integer> entry : builder.strings.entrySet()) {
+            strings[entry.getValue()] = entry.getKey();
+        }
+        this.url = Arrays.copyOf(builder.url, n);
+    }
+
+    /**
+     * Use this class to create a CompactArchiveList object.
+     *
+     * @see CompactArchiveList
+     */
+    public static class Builder {
+        private int size;
+        private int totalCount;
+        private long[] idHigh = new long[16];
+        private long[] idLow = new long[16];
+        private Map<Integer, String> otherIds = new HashMap<Integer, String>();
+        private long[] createdAt = new long[16];
+        private int[] duration = new int[16];
+        private int[] archiveSize = new int[16];
+        private int[] partnerId = new int[16];
+        private byte[] status = new byte[16];
+        private byte[] outputMode = new byte[16];
+        private long[] flags = new long[1];
+        private int[] sessionId = new int[16];
+        private int[] name = new int[16];
+        private int[] reason = new int[16];
+        private Map<String, Integer> strings = new HashMap<String, Integer>();
+        private String[] url = new String[16];
+
+        /**
+         * Call this method to add an archive to the end of the list.
+         *
+         * @param archive The archive to add.
+         *
+         * @return The CompactArchiveList.Builder object with the archive added.
+         */
+        public Builder add(Archive archive) {
+            if (size == createdAt.length) {
+                grow();
+            }
+            int i = size++;
+            String id = archive.getId();
+            if (!parseUuid(id, i)) {
+                otherIds.put(i, id);
+            }
+            createdAt[i] = archive.getCreatedAt();
+            duration[i] = archive.getDuration();
+            archiveSize[i] = archive.getSize();
+            partnerId[i] = archive.getPartnerId();
+            status[i] = archive.getStatus() == null ? NONE : (byte) archive.getStatus().ordinal();
+            outputMode[i] = archive.getOutputMode() == null ? NONE : (byte) archive.getOutputMode().ordinal();
+            long bits = (archive.hasAudio() ? 1L : 0L) | (archive.hasVideo() ? 2L : 0L);
+            flags[i / 32] |= bits << ((i % 32) * 2);
+            sessionId[i] = intern(archive.getSessionId());
+            name[i] = intern(archive.getName());
+            reason[i] = intern(archive.getReason());
+            url[i] = archive.getUrl();
+            return this;
+        }
+
+        /**
+         * Call this method to add archives to the end of the list.
+         *
+         * @param archives The archives to add.
+         *
+         * @return The CompactArchiveList.Builder object with the archives added.
+         */
+        public Builder addAll(Collection<? extends Archive> archives) {
+            for (Archive archive : archives) {
+                add(archive);
+            }
+            return this;
+        }
+
+        /**
+         * Call this method to set the value returned by {@link CompactArchiveList#getTotalCount()},
+         * usually the {@link ArchiveList#getTotalCount()} value of the listed pages.
+         *
+         * @param totalCount The total number of archives for the API key.
+         *
+         * @return The CompactArchiveList.Builder object with the total count setting.
+         */
+        public Builder totalCount(int totalCount) {
+            this.totalCount = totalCount;
+            return this;
+        }
+
+        /**
+         * Builds the CompactArchiveList object. The Builder can be used again afterwards, and
+         * later changes do not affect the lists that were already built.
+         *
+         * @return The CompactArchiveList object.
+         */
+        public CompactArchiveList build() {
+            return new CompactArchiveList(this);
+        }
+
+        private int intern(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            return index;
+        }
+
+        /**
+         * Stores an ID in the canonical lowercase UUID format as two longs. Any other ID is left
+         * to the caller, so that {@link CompactArchiveList#getId(int)} returns it unchanged.
+         */
+        private boolean parseUuid(String id, int i) {
+            if (id == null || id.length() != 36) {
+                return false;
+            }
+            long high = 0;
+            long low = 0;
+            int digits = 0;
+            for (int c = 0; c < 36; c++) {
+                char ch = id.charAt(c);
+                if (c == 8 || c == 13 || c == 18 || c == 23) {
+                    if (ch != '-') {
+                        return false;
+                    }
+                    continue;
+                }
+                int value = Character.digit(ch, 16);
+                if (value < 0 || Character.isUpperCase(ch)) {
+                    return false;
+                }
+                if (digits++ < 16) {
+                    high = high << 4 | value;
+                } else {
+                    low = low << 4 | value;
+                }
+            }
+            idHigh[i] = high;
+            idLow[i] = low;
+            return true;
+        }
+
+        private void grow() {
+            int capacity = createdAt.length * 2;
+            idHigh = Arrays.copyOf(idHigh, capacity);
+            idLow = Arrays.copyOf(idLow, capacity);
+            createdAt = Arrays.copyOf(createdAt, capacity);
+            duration = Arrays.copyOf(duration, capacity);
+            archiveSize = Arrays.copyOf(archiveSize, capacity);
+            partnerId = Arrays.copyOf(partnerId, capacity);
+            status = Arrays.copyOf(status, capacity);
+            outputMode = Arrays.copyOf(outputMode, capacity);
+            flags = Arrays.copyOf(flags, (capacity + 31) / 32);
+            sessionId = Arrays.copyOf(sessionId, capacity);
+            name = Arrays.copyOf(name, capacity);
+            reason = Arrays.copyOf(reason, capacity);
+            url = Arrays.copyOf(url, capacity);
+        }
+    }
+
+    /**
+     * Creates a CompactArchiveList object with the archives and total count of an ArchiveList.
+     *
+     * @param archives The archives to copy.
+     *
+     * @return The CompactArchiveList object.
+     */
+    public static CompactArchiveList copyOf(ArchiveList archives) {
+        return new Builder().addAll(archives).totalCount(archives.getTotalCount()).build();
+    }
+
+    /**
+     * Returns a view of the archive at the given index. The view is read-only and reads its
+     * values from this list.
+     */
+    @Override
+    public Archive get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new View(this, index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The total number of Archives for the API Key.
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * The archive ID of the archive at the given index. Use the getters that take an index to
+     * scan the list without creating views.
+     */
+    public String getId(int index) {
+        if (!otherIds.isEmpty() && otherIds.containsKey(index)) {
+            return otherIds.get(index);
+        }
+        return uuid(idHigh[index], idLow[index]);
+    }
+
+    /**
+     * The creation time of the archive at the given index.
+     */
+    public long getCreatedAt(int index) {
+        return createdAt[index];
+    }
+
+    /**
+     * The duration of the archive at the given index.
+     */
+    public int getDuration(int index) {
+        return duration[index];
+    }
+
+    /**
+     * The size of the archive at the given index.
+     */
+    public int getSize(int index) {
+        return archiveSize[index];
+    }
+
+    /**
+     * The status of the archive at the given index.
+     */
+    public Status getStatus(int index) {
+        return status[index] == NONE ? null : STATUSES[status[index]];
+    }
+
+    /**
+     * The session ID of the archive at the given index.
+     */
+    public String getSessionId(int index) {
+        return string(sessionId[index]);
+    }
+
+    private String string(int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    private boolean flag(int index, int bit) {
+        return (flags[index / 32] >>> ((index % 32) * 2) & bit) != 0;
+    }
+
+    private static String uuid(long high, long low) {
+        char[] chars = new char[36];
+        int c = 35;
+        for (int digit = 0; digit < 32; digit++) {
+            if (c == 8 || c == 13 || c == 18 || c == 23) {
+                chars[c--] = '-';
+            }
+            long value = digit < 16 ? low >>> (digit * 4) : high >>> ((digit - 16) * 4);
+            chars[c--] = Character.forDigit((int) (value & 0xF), 16);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * An archive whose values are read from the columns of a CompactArchiveList.
+     */
+    private static class View extends Archive {
+        private final CompactArchiveList list;
+        private final int index;
+
+        View(CompactArchiveList list, int index) {
+            this.list = list;
+            this.index = index;
+        }
+
+        @Override
+        public long getCreatedAt() {
+            return list.createdAt[index];
+        }
+
+        @Override
+        public int getDuration() {
+            return list.duration[index];
+        }
+
+        @Override
+        public String getId() {
+            return list.getId(index);
+        }
+
+        @Override
+        public String getName() {
+            return list.string(list.name[index]);
+        }
+
+        @Override
+        public int getPartnerId() {
+            return list.partnerId[index];
+        }
+
+        @Override
+        public String getReason() {
+            return list.string(list.reason[index]);
+        }
+
+        @Override
+        public String getSessionId() {
+            return list.string(list.sessionId[index]);
+        }
+
+        @Override
+        public int getSize() {
+            return list.archiveSize[index];
+        }
+
+        @Override
+        public Status getStatus() {
+            return list.getStatus(index);
+        }
+
+        @Override
+        public String getUrl() {
+            return list.url[index];
+        }
+
+        @Override
+        public boolean hasVideo() {
+            return list.flag(index, 2);
+        }
+
+        @Override
+        public boolean hasAudio() {
+            return list.flag(index, 1);
+        }
+
+        @Override
+        public OutputMode getOutputMode() {
+            byte ordinal = list.outputMode[index];
+            return ordinal == NONE ? null : OUTPUT_MODES[ordinal];
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Looks up the API secret of an API key for an {@link OpenTokRegistry}, for example in a database
+ * or a secret store. It is called the first time a key is requested, and again after the OpenTok
+ * object of the key has been evicted.
+ */
+public interface CredentialProvider {
+
+    /**
+     * Returns the API secret of an API key.
+     *
+     * @param apiKey The API key.
+     *
+     * @return The API secret, or null if the API key is not known.
+     */
+    String getApiSecret(int apiKey) throws OpenTokException;
+}
@@ -0,0 +1,135 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+/**
+ * Defines values for the <code>properties</code> parameter of the
+ * {@link OpenTok#downloadArchive(Archive, java.io.File, DownloadProperties)} method.
+ *
+ * @see OpenTok#downloadArchive(Archive, java.io.File, DownloadProperties)
+ */
+public class DownloadProperties {
+
+    private final int parallelism;
+    private final long segmentSize;
+    private final int maxRetries;
+    private final boolean resume;
+
+    private DownloadProperties(Builder builder) {
+        this.parallelism = builder.parallelism;
+        this.segmentSize = builder.segmentSize;
+        this.maxRetries = builder.maxRetries;
+        this.resume = builder.resume;
+    }
+
+    /**
+     * Use this class to create a DownloadProperties object.
+     *
+     * @see DownloadProperties
+     */
+    public static class Builder {
+        private int parallelism = 4;
+        private long segmentSize = 8 * 1024 * 1024;
+        private int maxRetries = 3;
+        private boolean resume = true;
+
+        /**
+         * Call this method to set the maximum number of range requests that download parts of the
+         * archive file at the same time. The default is 4.
+         *
+         * @param parallelism The number of concurrent range requests.
+         *
+         * @return The DownloadProperties.Builder object with the parallelism setting.
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Call this method to set the size, in bytes, of each part of the archive file that is
+         * downloaded with its own range request. Files that are not larger than this size are
+         * downloaded with a single request. The default is 8 MB.
+         *
+         * @param segmentSize The segment size in bytes.
+         *
+         * @return The DownloadProperties.Builder object with the segment size setting.
+         */
+        public Builder segmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Call this method to set how many times a part that fails with a network error or a
+         * server error is requested again, continuing from the last byte received. The default is 3.
+         *
+         * @param maxRetries The number of retries for each part.
+         *
+         * @return The DownloadProperties.Builder object with the retry setting.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Call this method to choose whether a download that previously failed continues where
+         * it stopped (<code>true</code>) or starts again (<code>false</code>). The default is
+         * <code>true</code>.
+         *
+         * @param resume Whether to resume partial downloads.
+         *
+         * @return The DownloadProperties.Builder object with the resume setting.
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Builds the DownloadProperties object.
+         *
+         * @return The DownloadProperties object.
+         */
+        public DownloadProperties build() {
+            if (parallelism < 1 || segmentSize < 1 || maxRetries < 0) {
+                throw new IllegalArgumentException("parallelism and segmentSize must be positive");
+            }
+            return new DownloadProperties(this);
+        }
+    }
+
+    /**
+     * The maximum number of concurrent range requests.
+     */
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The size, in bytes, of each downloaded part.
+     */
+    public long segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * The number of retries for each part.
+     */
+    public int maxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Whether partial downloads are resumed.
+     */
+    public boolean resume() {
+        return resume;
+    }
+}
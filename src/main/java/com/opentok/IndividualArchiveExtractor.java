@@ -0,0 +1,431 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.ListenableFuture;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+import com.opentok.util.Json;
+
+/**
+ * Unpacks the ZIP file of an individual stream archive while it is being downloaded. Each entry
+ * is written to its own file as its bytes arrive.
+ * <p>
+ * The I/O thread of the transport hands the download to the calling thread, which extracts it,
+ * through a pipe that never makes the I/O thread wait, so that a slow disk or listener does not
+ * hold up the other requests of a shared transport. The pipe keeps up to
+ * {@link #MAX_BUFFERED_BYTES} in memory. When the extraction falls further behind, the excess is
+ * written to temporary segment files in the target directory, each deleted as soon as it is
+ * extracted, so that the ZIP file is never stored whole.
+ */
+class IndividualArchiveExtractor {
+
+    static final ObjectReader manifestReader = Json.reader(ArchiveManifest.class);
+
+    // how far the download can get ahead of the extraction in memory
+    static final int MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+    // the size of the segment files the download spills to beyond that
+    static final long SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final AsyncHttpClient client;
+
+    IndividualArchiveExtractor(AsyncHttpClient client) {
+        this.client = client;
+    }
+
+    ArchiveManifest extract(Archive archive, File directory, ArchiveExtractionListener listener)
+            throws OpenTokException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RequestException("Could not create the directory " + directory);
+        }
+        Pipe pipe = new Pipe(directory);
+        ListenableFuture<Integer> future = null;
+        try {
+            // the transfer can take longer than the request timeout, the read timeout catches stalls
+            future = client.prepareGet(archive.getUrl()).setRequestTimeout(-1).execute(pipe);
+            pipe.watch(future);
+
+            int statusCode = pipe.awaitStatus();
+            if (statusCode != 200) {
+                throw new RequestException("Could not download the OpenTok Archive. The download URL returned" +
+                        " response code: " + statusCode, statusCode);
+            }
+            return unzip(pipe.reader(), directory, listener);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while extracting the OpenTok Archive.", e);
+        } catch (IOException e) {
+            throw new RequestException("Could not extract the OpenTok Archive. archiveId = " + archive.getId(), e);
+        } finally {
+            if (future != null && !future.isDone()) {
+                future.cancel(true);
+            }
+            pipe.close();
+        }
+    }
+
+    private ArchiveManifest unzip(InputStream body, File directory, ArchiveExtractionListener listener)
+            throws IOException {
+        ZipInputStream zip = new ZipInputStream(body);
+        ArchiveManifest manifest = null;
+        byte[] buffer = new byte[64 * 1024];
+        Set<String> names = new HashSet<String>();
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = baseName(entry.getName());
+            if (!names.add(name)) {
+                // entries in different folders would otherwise overwrite each other
+                throw new IOException("The archive contains two entries named " + name);
+            }
+            if (name.endsWith(".json") && manifest == null) {
+                manifest = manifestReader.readValue(readEntry(zip, buffer));
+                if (listener != null) {
+                    listener.onManifest(manifest);
+                }
+                continue;
+            }
+
+            File file = new File(directory, name);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                FileChannel channel = out.getChannel();
+                int read;
+                while ((read = zip.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (listener != null) {
+                listener.onStreamFile(file, manifest == null ? null : manifest.getFile(name));
+            }
+        }
+        return manifest;
+    }
+
+    private static byte[] readEntry(ZipInputStream zip, byte[] buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+        while ((read = zip.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Entry names are reduced to their last path element, so that an entry can never be written
+     * outside the target directory.
+     */
+    private static String baseName(String entryName) throws IOException {
+        String name = entryName.substring(Math.max(entryName.lastIndexOf('/'), entryName.lastIndexOf('\\')) + 1);
+        if (name.length() == 0 || name.equals(".") || name.equals("..")) {
+            throw new IOException("The archive contains an invalid entry name: " + entryName);
+        }
+        return name;
+    }
+
+    /**
+     * Receives the download on the I/O thread and passes it to the extracting thread: in memory up
+     * to the limit, and through segment files beyond it.
+     */
+    private static class Pipe implements AsyncHandler<Integer> {
+        private final File directory;
+        // guarded by this; each chunk is a byte[] or a Segment, in the order of the download
+        private final ArrayDeque<Object> chunks = new ArrayDeque<Object>();
+        private long bufferedBytes;
+        private int statusCode;
+        private boolean done;
+        private boolean closed;
+        private Throwable error;
+        // used by the extracting thread only: how much of the first chunk is read
+        private int headOffset;
+
+        Pipe(File directory) {
+            this.directory = directory;
+        }
+
+        public synchronized STATE onStatusReceived(HttpResponseStatus status) {
+            statusCode = status.getStatusCode();
+            notifyAll();
+            return statusCode == 200 ? STATE.CONTINUE : STATE.ABORT;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) {
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart part) throws IOException {
+            ByteBuffer buffer = part.getBodyByteBuffer();
+            int length = buffer.remaining();
+            if (length == 0) {
+                return STATE.CONTINUE;
+            }
+            Segment segment;
+            synchronized (this) {
+                if (closed) {
+                    return STATE.ABORT;
+                }
+                if (bufferedBytes + length <= MAX_BUFFERED_BYTES) {
+                    byte[] data = new byte[length];
+                    buffer.get(data);
+                    chunks.add(data);
+                    bufferedBytes += length;
+                    notifyAll();
+                    return STATE.CONTINUE;
+                }
+                Object last = chunks.peekLast();
+                segment = last instanceof Segment && ((Segment) last).size < SEGMENT_BYTES ? (Segment) last : null;
+            }
+            if (segment == null) {
+                // only this thread adds chunks, so the new segment is still the last one when it is added
+                segment = new Segment(File.createTempFile("archive", ".zip.part", directory));
+                synchronized (this) {
+                    if (closed) {
+                        segment.delete();
+                        return STATE.ABORT;
+                    }
+                    chunks.add(segment);
+                }
+            }
+            segment.write(buffer);
+            synchronized (this) {
+                segment.size += length;
+                notifyAll();
+            }
+            return STATE.CONTINUE;
+        }
+
+        public synchronized Integer onCompleted() {
+            done = true;
+            notifyAll();
+            return statusCode;
+        }
+
+        public synchronized void onThrowable(Throwable t) {
+            error = t;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Ends the download when its future completes without calling this handler, like a
+         * request the client rejected before sending it.
+         */
+        void watch(final ListenableFuture<Integer> future) {
+            future.addListener(new Runnable() {
+                public void run() {
+                    synchronized (Pipe.this) {
+                        if (done) {
+                            return;
+                        }
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            error = e.getCause();
+                        } catch (CancellationException e) {
+                            error = e;
+                        } catch (InterruptedException e) {
+                            error = e;
+                        }
+                        done = true;
+                        Pipe.this.notifyAll();
+                    }
+                }
+            }, SAME_THREAD);
+        }
+
+        synchronized int awaitStatus() throws InterruptedException, IOException, RequestException {
+            while (statusCode == 0 && !done) {
+                wait();
+            }
+            if (statusCode == 0) {
+                if (error instanceof RequestException) {
+                    throw (RequestException) error;
+                }
+                throw new IOException("The download failed.", error);
+            }
+            return statusCode;
+        }
+
+        InputStream reader() {
+            return new Reader();
+        }
+
+        /**
+         * Reads the next bytes of the download, waiting for them if needed.
+         *
+         * @return The number of bytes read, or -1 at the end of the download.
+         */
+        int read(byte[] b, int off, int len) throws IOException {
+            Object head;
+            Segment segment = null;
+            long available = 0;
+            synchronized (this) {
+                while (true) {
+                    head = chunks.peekFirst();
+                    if (head instanceof byte[]) {
+                        break;
+                    }
+                    if (head != null) {
+                        segment = (Segment) head;
+                        available = segment.size - segment.read;
+                        if (available > 0) {
+                            break;
+                        }
+                        if (chunks.size() > 1 || done) {
+                            // the download went on past this segment, which is extracted
+                            chunks.removeFirst();
+                            segment.delete();
+                            continue;
+                        }
+                    } else if (done) {
+                        if (error != null) {
+                            throw new IOException("The download failed.", error);
+                        }
+                        return -1;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the download.", e);
+                    }
+                }
+            }
+            if (head instanceof byte[]) {
+                byte[] data = (byte[]) head;
+                int read = Math.min(len, data.length - headOffset);
+                System.arraycopy(data, headOffset, b, off, read);
+                headOffset += read;
+                if (headOffset == data.length) {
+                    headOffset = 0;
+                    synchronized (this) {
+                        chunks.removeFirst();
+                        bufferedBytes -= data.length;
+                    }
+                }
+                return read;
+            }
+            return segment.read(b, off, (int) Math.min(len, available));
+        }
+
+        /**
+         * Stops the download and deletes the segment files left.
+         */
+        synchronized void close() {
+            closed = true;
+            for (Object chunk : chunks) {
+                if (chunk instanceof Segment) {
+                    ((Segment) chunk).delete();
+                }
+            }
+            chunks.clear();
+            bufferedBytes = 0;
+        }
+
+        class Reader extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return Pipe.this.read(b, off, len);
+            }
+        }
+    }
+
+    /**
+     * A part of the download spilled to a file, written by the I/O thread and read by the
+     * extracting thread.
+     */
+    private static class Segment {
+        private final File file;
+        private final FileOutputStream out;
+        private RandomAccessFile in;
+        // guarded by the pipe
+        long size;
+        // used by the extracting thread only
+        long read;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.out = new FileOutputStream(file);
+        }
+
+        void write(ByteBuffer buffer) throws IOException {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        int read(byte[] b, int off, int len) throws IOException {
+            if (in == null) {
+                in = new RandomAccessFile(file, "r");
+            }
+            int count = in.getChannel().read(ByteBuffer.wrap(b, off, len), read);
+            if (count > 0) {
+                read += count;
+            }
+            return count;
+        }
+
+        void delete() {
+            try {
+                out.close();
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            file.delete();
+        }
+    }
+}
@@ -7,26 +7,50 @@
  */
 package com.opentok;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.opentok.exception.OpenTokException;
 import com.opentok.exception.InvalidArgumentException;
 import com.opentok.exception.RequestException;
+import com.opentok.util.AdaptiveLimiter;
+import com.opentok.util.Bulkhead;
 import com.opentok.util.Crypto;
+import com.opentok.util.DrainReport;
+import com.opentok.util.HedgePolicy;
 import com.opentok.util.HttpClient;
+import com.opentok.util.Json;
+import com.opentok.util.OpenTokTransport;
+import com.opentok.util.OperationClass;
+import com.opentok.util.PriorityScheduler;
+import com.opentok.util.RateLimits;
+import com.opentok.util.RequestPriority;
+import com.ning.http.client.ListenableFuture;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import org.xml.sax.InputSource;
 
@@ -39,16 +63,33 @@ import org.xml.sax.InputSource;
 * server) to create OpenTok sessions.
 * <p>
 * Be sure to include the entire OpenTok server SDK on your web server.
+* <p>
+* Call {@link #close()} when you no longer need the OpenTok object, to release its connections and
+* threads.
 */
-public class OpenTok {
+public class OpenTok implements Closeable {
+
+    /**
+     * The default number of concurrent requests made by the {@link #stopArchives(Collection)} and
+     * {@link #deleteArchives(Collection)} methods.
+     */
+    public static final int DEFAULT_BULK_CONCURRENCY = 8;
+
+    private static final int MAX_TRACKED_ARCHIVES = 100000;
 
     private int apiKey;
     private String apiSecret;
     protected HttpClient client;
-    static protected ObjectReader archiveReader = new ObjectMapper()
-            .reader(Archive.class);
-    static protected ObjectReader archiveListReader = new ObjectMapper()
-            .reader(ArchiveList.class);
+    private ArchiveCache archiveCache;
+    private ArchiveListCache archiveListCache;
+    // shared with the views of this object, so that the cache is released once
+    private final AtomicBoolean archiveListCacheReleased;
+    private final SingleFlight<Archive> archiveStarts;
+    private final SingleFlight<Archive> archiveStops;
+    private final ArchiveStateTracker archiveStates;
+    // the databind readers are the fallback of the streaming ArchiveJson codec
+    static protected ObjectReader archiveReader = Json.reader(Archive.class);
+    static protected ObjectReader archiveListReader = Json.reader(ArchiveList.class);
 
     /**
      * Creates an OpenTok object.
@@ -63,11 +104,468 @@ public class OpenTok {
     }
 
     public OpenTok(int apiKey, String apiSecret, String apiUrl) {
-        this.apiKey = apiKey;
-        this.apiSecret = apiSecret.trim();
-        this.client = new HttpClient.Builder(apiKey, apiSecret)
-                .apiUrl(apiUrl)
-                .build();
+        this(new Builder(apiKey, apiSecret).apiUrl(apiUrl));
+    }
+
+    private OpenTok(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.apiSecret = builder.apiSecret.trim();
+        HttpClient.Builder clientBuilder = new HttpClient.Builder(builder.apiKey, builder.apiSecret)
+                .apiUrl(builder.apiUrl)
+                .transport(builder.transport)
+                .requestTimeout(builder.requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (builder.connectTimeoutMillis >= 0) {
+            clientBuilder.connectTimeout(builder.connectTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (builder.readTimeoutMillis >= 0) {
+            clientBuilder.readTimeout(builder.readTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        for (Map.Entry<OperationClass, Bulkhead> entry : builder.bulkheads.entrySet()) {
+            clientBuilder.bulkhead(entry.getKey(), entry.getValue());
+        }
+        clientBuilder.rateLimits(builder.rateLimits);
+        clientBuilder.concurrencyLimiter(builder.concurrencyLimiter);
+        clientBuilder.requestScheduler(builder.requestScheduler);
+        clientBuilder.hedging(builder.hedging);
+        this.client = clientBuilder.build();
+        // the keys of the caches include the project, so that projects can share a backend
+        this.archiveCache = builder.archiveCache == null ? null
+                : builder.archiveCache.bind(builder.apiUrl, builder.apiKey);
+        this.archiveListCache = builder.archiveListCache == null ? null
+                : builder.archiveListCache.bind(builder.apiUrl, builder.apiKey);
+        this.archiveListCacheReleased = new AtomicBoolean();
+        this.archiveStarts = new SingleFlight<Archive>();
+        this.archiveStops = new SingleFlight<Archive>();
+        this.archiveStates = builder.archiveStateChecks ? new ArchiveStateTracker(MAX_TRACKED_ARCHIVES) : null;
+    }
+
+    private OpenTok(OpenTok parent, HttpClient client) {
+        this.apiKey = parent.apiKey;
+        this.apiSecret = parent.apiSecret;
+        this.client = client;
+        this.archiveCache = parent.archiveCache;
+        this.archiveListCache = parent.archiveListCache;
+        this.archiveListCacheReleased = parent.archiveListCacheReleased;
+        this.archiveStarts = parent.archiveStarts;
+        this.archiveStops = parent.archiveStops;
+        this.archiveStates = parent.archiveStates;
+    }
+
+    /**
+     * Use this class to create an OpenTok object with optional settings.
+     *
+     * @see OpenTok
+     */
+    public static class Builder {
+        private final int apiKey;
+        private final String apiSecret;
+        private String apiUrl = "https://api.opentok.com";
+        private ArchiveCache archiveCache;
+        private ArchiveListCache archiveListCache;
+        private boolean archiveStateChecks = true;
+        private OpenTokTransport transport;
+        private long connectTimeoutMillis = -1;
+        private long readTimeoutMillis = -1;
+        private long requestTimeoutMillis = -1;
+        private final Map<OperationClass, Bulkhead> bulkheads = new EnumMap<OperationClass, Bulkhead>(OperationClass.class);
+        private RateLimits rateLimits;
+        private AdaptiveLimiter concurrencyLimiter;
+        private PriorityScheduler requestScheduler;
+        private HedgePolicy hedging;
+
+        /**
+         * Creates a Builder for an OpenTok object.
+         *
+         * @param apiKey Your OpenTok API key.
+         * @param apiSecret Your OpenTok API secret.
+         */
+        public Builder(int apiKey, String apiSecret) {
+            this.apiKey = apiKey;
+            this.apiSecret = apiSecret;
+        }
+
+        /**
+         * Call this method to set the URL of the OpenTok API. The default is "https://api.opentok.com".
+         *
+         * @param apiUrl The OpenTok API URL.
+         *
+         * @return The OpenTok.Builder object with the API URL setting.
+         */
+        public Builder apiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+            return this;
+        }
+
+        /**
+         * Call this method to make the requests with a transport shared by several OpenTok
+         * objects, for example one for each API key that an application serves. They then use the
+         * same I/O threads and connection pool, and each OpenTok object still adds its own
+         * credentials to its requests. By default, each OpenTok object creates its own transport.
+         *
+         * @param transport The OpenTokTransport object to use.
+         *
+         * @return The OpenTok.Builder object with the transport setting.
+         */
+        public Builder transport(OpenTokTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Call this method to set the timeout for opening a connection to the OpenTok API. The
+         * default is 60 seconds. This is a setting of the transport: when you share one with
+         * {@link #transport(OpenTokTransport)}, set it on the {@link OpenTokTransport.Builder}
+         * instead.
+         *
+         * @param timeout The connect timeout.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTok.Builder object with the connect timeout setting.
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Call this method to set the longest time without receiving data from the OpenTok API,
+         * after which a request fails. The default is 60 seconds. This is a setting of the
+         * transport: when you share one with {@link #transport(OpenTokTransport)}, set it on the
+         * {@link OpenTokTransport.Builder} instead.
+         *
+         * @param timeout The read timeout.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTok.Builder object with the read timeout setting.
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Call this method to set the longest time each request can take, from sending it to
+         * receiving the whole response. A request that takes longer is aborted, and the call fails
+         * with a {@link RequestException}. The default is 60 seconds, or the request timeout of
+         * the shared transport. For a limit on a single call, see {@link OpenTok#withDeadline}.
+         * Archive downloads and extractions are not limited by it, since a large file can take
+         * longer; the read timeout aborts them when the transfer stalls.
+         *
+         * @param timeout The request timeout.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTok.Builder object with the request timeout setting.
+         */
+        public Builder requestTimeout(long timeout, TimeUnit unit) {
+            this.requestTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Call this method to limit the requests of one class of operations: session creation,
+         * archive reads, or archive changes. Each class then has its own share of the connections
+         * and its own queue, so that when one class is slow or saturated, the calls of the other
+         * classes are not delayed; only the calls of the saturated class wait, or fail with a
+         * {@link com.opentok.exception.RequestRejectedException}. By default, the requests are not
+         * limited. See {@link Bulkhead}.
+         *
+         * @param operationClass The class of operations to limit.
+         * @param bulkhead The Bulkhead object for the class.
+         *
+         * @return The OpenTok.Builder object with the bulkhead setting.
+         */
+        public Builder bulkhead(OperationClass operationClass, Bulkhead bulkhead) {
+            this.bulkheads.put(operationClass, bulkhead);
+            return this;
+        }
+
+        /**
+         * Call this method to keep the requests within budgets that match the rate limits of
+         * the OpenTok API, with separate budgets for interactive and background calls (see
+         * {@link OpenTok#withPriority(RequestPriority)}). Requests over their budget are delayed
+         * without blocking the calling thread. By default, the requests are not limited. See
+         * {@link RateLimits}.
+         *
+         * @param rateLimits The RateLimits object to use.
+         *
+         * @return The OpenTok.Builder object with the rate limit setting.
+         */
+        public Builder rateLimits(RateLimits rateLimits) {
+            this.rateLimits = rateLimits;
+            return this;
+        }
+
+        /**
+         * Call this method to adapt the number of requests in progress to the latency of the
+         * OpenTok API. When the API slows down, the limit is lowered, and the calls over it fail
+         * right away with a {@link com.opentok.exception.ConcurrencyLimitException} instead of
+         * waiting on the API. By default, the requests are not limited. See
+         * {@link AdaptiveLimiter}.
+         *
+         * @param concurrencyLimiter The AdaptiveLimiter object to use.
+         *
+         * @return The OpenTok.Builder object with the concurrency limiter setting.
+         */
+        public Builder concurrencyLimiter(AdaptiveLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Call this method to send the interactive calls first when all the connections are in
+         * use, so that background jobs do not slow them down. Background calls are still sent
+         * once they have waited for the maximum age of the scheduler. By default, the requests
+         * are sent in the order they are made. See {@link PriorityScheduler}.
+         *
+         * @param requestScheduler The PriorityScheduler object to use.
+         *
+         * @return The OpenTok.Builder object with the scheduler setting.
+         */
+        public Builder requestScheduler(PriorityScheduler requestScheduler) {
+            this.requestScheduler = requestScheduler;
+            return this;
+        }
+
+        /**
+         * Call this method to cut the tail latency of the {@link OpenTok#getArchive(String)}
+         * method: a lookup that is slower than most recent ones is sent a second time, and the
+         * first response is used. A budget caps the extra requests. By default, lookups are not
+         * hedged. See {@link HedgePolicy}.
+         *
+         * @param hedging The HedgePolicy object to use.
+         *
+         * @return The OpenTok.Builder object with the hedging setting.
+         */
+        public Builder hedging(HedgePolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Call this method to cache the archives returned by the {@link OpenTok#getArchive(String)}
+         * method. By default, archives are not cached.
+         *
+         * @param archiveCache The ArchiveCache object to use.
+         *
+         * @return The OpenTok.Builder object with the archive cache setting.
+         */
+        public Builder archiveCache(ArchiveCache archiveCache) {
+            this.archiveCache = archiveCache;
+            return this;
+        }
+
+        /**
+         * Call this method to cache the pages returned by the {@link OpenTok#listArchives(int, int)}
+         * method. By default, pages are not cached.
+         *
+         * @param archiveListCache The ArchiveListCache object to use.
+         *
+         * @return The OpenTok.Builder object with the archive list cache setting.
+         */
+        public Builder archiveListCache(ArchiveListCache archiveListCache) {
+            this.archiveListCache = archiveListCache;
+            return this;
+        }
+
+        /**
+         * Call this method to turn off the local archive status checks. By default, the OpenTok
+         * object remembers the status of each archive returned by its calls, and the
+         * {@link OpenTok#stopArchive(String)}, {@link OpenTok#deleteArchive(String)},
+         * {@link OpenTok#stopArchives(Collection)}, and {@link OpenTok#deleteArchives(Collection)}
+         * methods fail without making a request when that status shows the call cannot succeed:
+         * stopping an archive that is already stopped (or later), or deleting an archive that has
+         * expired or failed. The error is a {@link RequestException} with the
+         * status code 409, as the OpenTok API would return. Turn the checks off if archives are
+         * also changed by other means and you prefer the OpenTok API to decide each call.
+         *
+         * @param archiveStateChecks Whether to reject calls based on the known archive status.
+         *
+         * @return The OpenTok.Builder object with the archive status check setting.
+         */
+        public Builder archiveStateChecks(boolean archiveStateChecks) {
+            this.archiveStateChecks = archiveStateChecks;
+            return this;
+        }
+
+        /**
+         * Builds the OpenTok object.
+         *
+         * @return The OpenTok object.
+         */
+        public OpenTok build() {
+            return new OpenTok(this);
+        }
+    }
+
+    /**
+     * The archive cache set with {@link Builder#archiveCache(ArchiveCache)}, or null if archives
+     * are not cached. When the ArchiveCache object was first used by an OpenTok object with another
+     * API key, this is a view of it that reaches the archives of this OpenTok object.
+     */
+    public ArchiveCache getArchiveCache() {
+        return archiveCache;
+    }
+
+    /**
+     * The archive list cache set with {@link Builder#archiveListCache(ArchiveListCache)}, or null
+     * if archive lists are not cached. When the ArchiveListCache object was first used by an
+     * OpenTok object with another API key, this is a view of it that reaches the pages of this
+     * OpenTok object.
+     */
+    public ArchiveListCache getArchiveListCache() {
+        return archiveListCache;
+    }
+
+    /**
+     * Returns a view of this OpenTok object whose calls must complete within the timeout, counted
+     * from now. A request still in progress at the deadline is aborted, closing its connection,
+     * and the call fails with a {@link RequestException}. Requests that would start after the
+     * deadline are not sent. Create a view for each call, or for a group of calls that share the
+     * deadline:
+     * <p>
+     * <pre>
+     * Archive archive = opentok.withDeadline(2, TimeUnit.SECONDS).getArchive(archiveId);
+     * </pre>
+     * <p>
+     * The view shares its connections, caches, and lifecycle with this OpenTok object, so it does
+     * not need to be closed. A call that waits for an identical call in progress (see
+     * {@link #startArchive(String, ArchiveProperties)} and {@link #stopArchive(String)}) stops
+     * waiting at the deadline without cancelling that call.
+     *
+     * @param timeout The time left until the deadline.
+     * @param unit The unit of <code>timeout</code>.
+     *
+     * @return The OpenTok view.
+     */
+    public OpenTok withDeadline(long timeout, TimeUnit unit) {
+        return new OpenTok(this, client.withDeadline(timeout, unit));
+    }
+
+    /**
+     * Prepares this OpenTok object for its first calls, for example when an application starts:
+     * resolves the host of the OpenTok API and opens connections to it, which are kept in the
+     * connection pool. The first calls then do not wait for DNS, TCP, and TLS handshakes, and the
+     * TLS sessions of these connections can be resumed by the later ones. Call it with about as
+     * many connections as calls you expect at the same time soon after startup:
+     * <p>
+     * <pre>
+     * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret).build();
+     * opentok.warmUp(4);
+     * </pre>
+     * <p>
+     * Unused connections are closed after the idle timeout of the transport (see
+     * {@link OpenTokTransport.Builder#pooledConnectionIdleTimeout(long, TimeUnit)}).
+     *
+     * @param connections The number of connections to open.
+     *
+     * @return The number of connections opened, which can be fewer if some could not be.
+     *
+     * @throws RequestException If the host of the OpenTok API cannot be resolved.
+     */
+    public int warmUp(int connections) throws OpenTokException {
+        return client.warmUp(connections);
+    }
+
+    /**
+     * Returns a view of this OpenTok object whose calls all have a priority. By default, listing
+     * and deleting archives are background calls, and the other calls are interactive. The
+     * priority selects the budget of a call (see {@link Builder#rateLimits(RateLimits)}) and its
+     * queue when the connections are all in use (see {@link Builder#requestScheduler}). Make all
+     * the calls of background jobs through a view with the {@link RequestPriority#BACKGROUND}
+     * priority, so that they cannot delay the interactive calls:
+     * <p>
+     * <pre>
+     * OpenTok background = opentok.withPriority(RequestPriority.BACKGROUND);
+     * ArchiveList archives = background.listArchives(offset, 100);
+     * </pre>
+     * <p>
+     * The view keeps the deadline of this object, if it has one, and shares its connections,
+     * caches, and lifecycle.
+     *
+     * @param priority The priority of the calls.
+     *
+     * @return The OpenTok view.
+     */
+    public OpenTok withPriority(RequestPriority priority) {
+        return new OpenTok(this, client.withPriority(priority));
+    }
+
+    /**
+     * Closes this OpenTok object, waiting up to {@link HttpClient#DEFAULT_CLOSE_TIMEOUT_SECONDS}
+     * seconds for the requests in progress.
+     *
+     * @see #close(long, TimeUnit)
+     */
+    public void close() {
+        close(HttpClient.DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes this OpenTok object. Methods that make a request fail with a {@link RequestException}
+     * from then on. The requests already in progress are given until the timeout to complete, and
+     * the ones still in progress then are cancelled. Finally, the connections and threads are
+     * released, unless the transport is shared (see {@link Builder#transport(OpenTokTransport)}),
+     * in which case the transport stays open for the other OpenTok objects.
+     *
+     * @param timeout How long to wait for the requests in progress.
+     * @param unit The unit of <code>timeout</code>.
+     *
+     * @return How many requests completed and how many were cancelled.
+     */
+    public DrainReport close(long timeout, TimeUnit unit) {
+        DrainReport report = client.close(timeout, unit);
+        if (archiveListCache != null && archiveListCacheReleased.compareAndSet(false, true)) {
+            archiveListCache.release();
+        }
+        return report;
+    }
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return client.isClosed();
+    }
+
+    /**
+     * The number of requests in progress, for example to monitor how many are left to drain.
+     */
+    public int getActiveCount() {
+        return client.getActiveCount();
+    }
+
+    /**
+     * Returns the bulkhead that limits the requests of a class of operations, for example to
+     * monitor its queue depth, or null if the requests of the class are not limited.
+     *
+     * @param operationClass The class of operations.
+     */
+    public Bulkhead getBulkhead(OperationClass operationClass) {
+        return client.getBulkhead(operationClass);
+    }
+
+    /**
+     * Returns the adaptive concurrency limiter, for example to monitor its current limit, or null
+     * if the requests are not limited.
+     */
+    public AdaptiveLimiter getConcurrencyLimiter() {
+        return client.getConcurrencyLimiter();
+    }
+
+    /**
+     * Returns the scheduler that orders the requests by priority, for example to monitor its
+     * queues, or null if the requests are sent in the order they are made.
+     */
+    public PriorityScheduler getRequestScheduler() {
+        return client.getRequestScheduler();
+    }
+
+    /**
+     * Returns the hedging policy of archive lookups, for example to monitor how many were hedged,
+     * or null if they are not hedged.
+     */
+    public HedgePolicy getHedging() {
+        return client.getHedging();
     }
 
     /**
@@ -319,13 +817,57 @@ public class OpenTok {
      * @return The {@link Archive} object.
      */
     public Archive getArchive(String archiveId) throws OpenTokException {
+        if (archiveCache != null) {
+            Archive cached = archiveCache.get(archiveId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // an archive stopped or deleted while this request is in progress is not cached
+        long requestedAt = System.currentTimeMillis();
         String archive = this.client.getArchive(archiveId);
+        Archive result;
         try {
-            return archiveReader.readValue(archive);
+            result = ArchiveJson.readArchive(archive);
         } catch (Exception e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
         }
+        observe(result);
+        if (archiveCache != null) {
+            archiveCache.put(result, requestedAt);
+        }
+        return result;
+    }
 
+    /**
+     * Gets an {@link Archive} object for the given archive ID, reading only some of its
+     * properties. The other properties keep their default values (null, 0, or the default
+     * output and track settings), and their values are skipped without being decoded. The archive
+     * ID is always read.
+     * <p>
+     * If an {@link ArchiveCache} is set, a cached archive is returned with all its properties,
+     * and archives read with this method are not added to the cache.
+     *
+     * @param archiveId The archive ID.
+     * @param fields The properties to read.
+     * @return The {@link Archive} object.
+     */
+    public Archive getArchive(String archiveId, Set<Archive.Field> fields) throws OpenTokException {
+        if (archiveCache != null) {
+            Archive cached = archiveCache.get(archiveId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String archive = this.client.getArchive(archiveId);
+        Archive result;
+        try {
+            result = ArchiveJson.readArchive(archive, ArchiveJson.projection(fields));
+        } catch (IOException e) {
+            throw new RequestException("Exception mapping json: " + e.getMessage());
+        }
+        observe(result);
+        return result;
     }
 
     /**
@@ -352,20 +894,53 @@ public class OpenTok {
      * @return A List of {@link Archive} objects.
      */
     public ArchiveList listArchives(int offset, int count) throws OpenTokException {
+        if (archiveListCache != null) {
+            return archiveListCache.get(offset, count, new ArchiveListCache.Loader() {
+                public ArchiveList load(int offset, int count) throws OpenTokException {
+                    return loadArchives(offset, count);
+                }
+            });
+        }
+        return loadArchives(offset, count);
+    }
+
+    /**
+     * Returns a List of {@link Archive} objects, reading only some of the properties of each
+     * archive. Use this method to scan many archives when you only need a few properties, such as
+     * the ID, the status, and the session ID. The other properties keep their default values, and
+     * their values are skipped without being decoded. The archive ID is always read.
+     * <p>
+     * Pages read with this method are not cached by an {@link ArchiveListCache}.
+     *
+     * @param offset The index offset of the first archive. 0 is offset of the most recently started
+     * archive.
+     * @param count The number of archives to be returned. The maximum number of archives returned
+     * is 1000.
+     * @param fields The properties to read.
+     * @return A List of {@link Archive} objects.
+     */
+    public ArchiveList listArchives(int offset, int count, Set<Archive.Field> fields) throws OpenTokException {
         String archives = this.client.getArchives(offset, count);
+        ArchiveList result;
         try {
-            return archiveListReader.readValue(archives);
-
-        // if we only wanted Java 7 and above, we could DRY this into one catch clause
-        } catch (JsonMappingException e) {
-            throw new RequestException("Exception mapping json: " + e.getMessage());
-        } catch (JsonParseException e) {
-            throw new RequestException("Exception mapping json: " + e.getMessage());
-        } catch (JsonProcessingException e) {
+            result = ArchiveJson.readArchiveList(archives, ArchiveJson.projection(fields));
+        } catch (IOException e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
+        }
+        observe(result);
+        return result;
+    }
+
+    private ArchiveList loadArchives(int offset, int count) throws OpenTokException {
+        String archives = this.client.getArchives(offset, count);
+        ArchiveList result;
+        try {
+            result = ArchiveJson.readArchiveList(archives);
         } catch (IOException e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
         }
+        observe(result);
+        return result;
     }
 
     /**
@@ -389,18 +964,45 @@ public class OpenTok {
      * @param properties This ArchiveProperties object defines options for the archive.
      *
      * @return The Archive object. This object includes properties defining the archive, including the archive ID.
+     * If this OpenTok object is already starting an archive for the session with the same properties,
+     * the call waits for that request and returns its result instead of making another request.
      */
-    public Archive startArchive(String sessionId, ArchiveProperties properties) throws OpenTokException {
+    public Archive startArchive(final String sessionId, final ArchiveProperties properties) throws OpenTokException {
         if (sessionId == null || sessionId == "") {
             throw new InvalidArgumentException("Session not valid");
         }
+        return archiveStarts.execute(startKey(sessionId, properties), new Callable<Archive>() {
+            public Archive call() throws OpenTokException {
+                return requestStartArchive(sessionId, properties);
+            }
+        }, client.getRemainingNanos());
+    }
+
+    // Only calls asking for the same archive share a start; a call with other properties makes its own
+    // request, so it gets the API's answer for those properties rather than someone else's archive.
+    private static String startKey(String sessionId, ArchiveProperties properties) {
+        if (properties == null) {
+            return sessionId;
+        }
+        return sessionId + "\n" + new TreeMap<String, Collection<String>>(properties.toMap());
+    }
+
+    private Archive requestStartArchive(String sessionId, ArchiveProperties properties) throws OpenTokException {
         // TODO: do validation on sessionId and name
-        String archive = this.client.startArchive(sessionId, properties);
+        String archive;
         try {
-            return archiveReader.readValue(archive);
+            archive = this.client.startArchive(sessionId, properties);
+        } finally {
+            invalidateArchiveLists();
+        }
+        Archive result;
+        try {
+            result = ArchiveJson.readArchive(archive);
         } catch (Exception e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
         }
+        observe(result);
+        return result;
     }
 
     public Archive startArchive(String sessionId) throws OpenTokException {
@@ -419,16 +1021,37 @@ public class OpenTok {
      * session being archived.
      *
      * @param archiveId The archive ID of the archive you want to stop recording.
-     * @return The Archive object corresponding to the archive being stopped.
+     * @return The Archive object corresponding to the archive being stopped. If this OpenTok object
+     * is already stopping the archive, the call waits for that request and returns its result.
+     * @throws RequestException With the status code 409, without making a request, if this OpenTok
+     * object has seen the archive stopped already (see {@link Builder#archiveStateChecks(boolean)}).
      */
-    public Archive stopArchive(String archiveId) throws OpenTokException {
+    public Archive stopArchive(final String archiveId) throws OpenTokException {
+        if (archiveStates != null) {
+            archiveStates.checkStop(archiveId);
+        }
+        return archiveStops.execute(archiveId, new Callable<Archive>() {
+            public Archive call() throws OpenTokException {
+                return requestStopArchive(archiveId);
+            }
+        }, client.getRemainingNanos());
+    }
 
-        String archive = this.client.stopArchive(archiveId);
+    private Archive requestStopArchive(String archiveId) throws OpenTokException {
+        String archive;
         try {
-            return archiveReader.readValue(archive);
+            archive = this.client.stopArchive(archiveId);
+        } finally {
+            invalidateArchive(archiveId);
+        }
+        Archive result;
+        try {
+            result = ArchiveJson.readArchive(archive);
         } catch (Exception e) {
             throw new RequestException("Exception mapping json: " + e.getMessage());
         }
+        observe(result);
+        return result;
     }
     
     /**
@@ -439,8 +1062,321 @@ public class OpenTok {
      * removes the archive file, making it unavailable for download.
      *
      * @param archiveId The archive ID of the archive you want to delete.
+     * @throws RequestException With the status code 409, without making a request, if this OpenTok
+     * object has seen the archive expired or failed (see
+     * {@link Builder#archiveStateChecks(boolean)}).
      */
     public void deleteArchive(String archiveId) throws OpenTokException {
-        this.client.deleteArchive(archiveId);
+        if (archiveStates != null) {
+            archiveStates.checkDelete(archiveId);
+        }
+        try {
+            this.client.deleteArchive(archiveId);
+        } finally {
+            invalidateArchive(archiveId);
+        }
+        if (archiveStates != null) {
+            archiveStates.observe(archiveId, Archive.Status.DELETED);
+        }
+    }
+
+    private void observe(Archive archive) {
+        if (archiveStates != null) {
+            archiveStates.observe(archive);
+        }
+    }
+
+    private void observe(ArchiveList archives) {
+        if (archiveStates != null) {
+            for (Archive archive : archives) {
+                archiveStates.observe(archive);
+            }
+        }
+    }
+
+    private void invalidateArchive(String archiveId) {
+        if (archiveCache != null) {
+            archiveCache.invalidate(archiveId);
+        }
+        invalidateArchiveLists();
+    }
+
+    private void invalidateArchiveLists() {
+        if (archiveListCache != null) {
+            archiveListCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Downloads the file of an archive that has the status Status.AVAILABLE, using the default
+     * {@link DownloadProperties}.
+     *
+     * @param archive The archive to download. Its download URL (see {@link Archive#getUrl()}) must
+     * not have expired.
+     * @param file The file to write the archive to.
+     * @return An {@link ArchiveDownload} object describing the downloaded file.
+     *
+     * @see #downloadArchive(Archive, File, DownloadProperties)
+     */
+    public ArchiveDownload downloadArchive(Archive archive, File file) throws OpenTokException {
+        return downloadArchive(archive, file, new DownloadProperties.Builder().build());
+    }
+
+    /**
+     * Downloads the file of an archive that has the status Status.AVAILABLE.
+     * <p>
+     * The file is streamed to disk as it arrives, so it is never held in memory. Large files are
+     * split into parts that are requested in parallel with HTTP range requests, and a part that
+     * fails is requested again from the last byte received. If the download still fails, the
+     * progress is kept in a file named after <code>file</code> with a <code>.progress</code>
+     * suffix, and calling this method again with the same target continues the download. Because
+     * the download URL expires after 10 minutes, get a fresh Archive object by calling
+     * {@link #getArchive(String)} before resuming. An MD5 checksum is computed during the transfer
+     * (see {@link ArchiveDownload#getChecksum()}).
+     *
+     * @param archive The archive to download. Its download URL (see {@link Archive#getUrl()}) must
+     * not have expired.
+     * @param file The file to write the archive to.
+     * @param properties This DownloadProperties object defines options for the download.
+     * @return An {@link ArchiveDownload} object describing the downloaded file.
+     */
+    public ArchiveDownload downloadArchive(Archive archive, File file, DownloadProperties properties)
+            throws OpenTokException {
+        if (archive == null || archive.getUrl() == null) {
+            throw new InvalidArgumentException("The archive has no download URL. Only archives with the" +
+                    " status \"available\" can be downloaded.");
+        }
+        if (file == null) {
+            throw new InvalidArgumentException("file must not be null");
+        }
+        return new ArchiveDownloader(this.client, properties).download(archive, file);
+    }
+
+    /**
+     * Downloads an archive recorded with the {@link Archive.OutputMode#INDIVIDUAL} output mode and
+     * extracts the file of each stream into a directory, while the ZIP file is still being
+     * transferred.
+     * <p>
+     * Each entry of the ZIP file is written to its own file in <code>directory</code>. The download
+     * is buffered in memory, up to a few megabytes, so that a slow disk does not hold up the other
+     * requests of the transport. When the extraction falls further behind, the excess is written
+     * to temporary files in the same directory, each deleted as soon as it is extracted. Stream
+     * files with the same name in different folders of the ZIP file are rejected.
+     * The manifest is parsed as soon as its entry arrives and is
+     * passed to the listener, along with each completed stream file and its manifest entry.
+     *
+     * @param archive The archive to extract. It must have the status Status.AVAILABLE, and its
+     * download URL (see {@link Archive#getUrl()}) must not have expired.
+     * @param directory The directory to write the stream files to. It is created if it does not exist.
+     * @param listener Receives the manifest and the stream files as they are extracted. This can be null.
+     * @return The archive manifest, or null if the ZIP file does not include one.
+     */
+    public ArchiveManifest extractArchive(Archive archive, File directory, ArchiveExtractionListener listener)
+            throws OpenTokException {
+        if (archive == null || archive.getUrl() == null) {
+            throw new InvalidArgumentException("The archive has no download URL. Only archives with the" +
+                    " status \"available\" can be extracted.");
+        }
+        if (archive.getOutputMode() != Archive.OutputMode.INDIVIDUAL) {
+            throw new InvalidArgumentException("Only archives with the individual output mode can be extracted.");
+        }
+        if (directory == null) {
+            throw new InvalidArgumentException("directory must not be null");
+        }
+        return new IndividualArchiveExtractor(this.client).extract(archive, directory, listener);
+    }
+
+    /**
+     * Stops several OpenTok archives, making up to {@link #DEFAULT_BULK_CONCURRENCY} requests
+     * concurrently.
+     *
+     * @param archiveIds The archive IDs of the archives you want to stop recording.
+     * @return The outcome for each archive ID, in the order of the <code>archiveIds</code> collection.
+     *
+     * @see #stopArchives(Collection, int)
+     */
+    public Map<String, ArchiveOperationResult> stopArchives(Collection<String> archiveIds)
+            throws OpenTokException {
+        return stopArchives(archiveIds, DEFAULT_BULK_CONCURRENCY);
+    }
+
+    /**
+     * Stops several OpenTok archives, making up to <code>maxConcurrency</code> requests concurrently.
+     * <p>
+     * A failure to stop one archive does not affect the others. Check the
+     * {@link ArchiveOperationResult} for each archive ID to find out whether it was stopped. Its
+     * {@link ArchiveOperationResult#getErrorType()} method tells apart archives that do not exist,
+     * archives that are not being recorded, and server errors that can be retried.
+     *
+     * @param archiveIds The archive IDs of the archives you want to stop recording.
+     * @param maxConcurrency The maximum number of requests in progress at the same time.
+     * @return The outcome for each archive ID, in the order of the <code>archiveIds</code> collection.
+     */
+    public Map<String, ArchiveOperationResult> stopArchives(Collection<String> archiveIds, int maxConcurrency)
+            throws OpenTokException {
+        return runBulk(archiveIds, maxConcurrency, new BulkOperation() {
+            public void check(String archiveId) throws OpenTokException {
+                if (archiveStates != null) {
+                    archiveStates.checkStop(archiveId);
+                }
+            }
+
+            public ListenableFuture<String> execute(String archiveId) {
+                return client.stopArchiveAsync(archiveId);
+            }
+
+            public Archive map(String archiveId, String response) throws OpenTokException {
+                Archive archive;
+                try {
+                    archive = ArchiveJson.readArchive(response);
+                } catch (Exception e) {
+                    throw new RequestException("Exception mapping json: " + e.getMessage());
+                }
+                observe(archive);
+                return archive;
+            }
+        });
+    }
+
+    /**
+     * Deletes several OpenTok archives, making up to {@link #DEFAULT_BULK_CONCURRENCY} requests
+     * concurrently.
+     *
+     * @param archiveIds The archive IDs of the archives you want to delete.
+     * @return The outcome for each archive ID, in the order of the <code>archiveIds</code> collection.
+     *
+     * @see #deleteArchives(Collection, int)
+     */
+    public Map<String, ArchiveOperationResult> deleteArchives(Collection<String> archiveIds)
+            throws OpenTokException {
+        return deleteArchives(archiveIds, DEFAULT_BULK_CONCURRENCY);
+    }
+
+    /**
+     * Deletes several OpenTok archives, making up to <code>maxConcurrency</code> requests concurrently.
+     * <p>
+     * You can only delete an archive which has a status of "available" or "uploaded". A failure to
+     * delete one archive does not affect the others. Check the {@link ArchiveOperationResult} for
+     * each archive ID to find out whether it was deleted.
+     *
+     * @param archiveIds The archive IDs of the archives you want to delete.
+     * @param maxConcurrency The maximum number of requests in progress at the same time.
+     * @return The outcome for each archive ID, in the order of the <code>archiveIds</code> collection.
+     */
+    public Map<String, ArchiveOperationResult> deleteArchives(Collection<String> archiveIds, int maxConcurrency)
+            throws OpenTokException {
+        return runBulk(archiveIds, maxConcurrency, new BulkOperation() {
+            public void check(String archiveId) throws OpenTokException {
+                if (archiveStates != null) {
+                    archiveStates.checkDelete(archiveId);
+                }
+            }
+
+            public ListenableFuture<String> execute(String archiveId) {
+                return client.deleteArchiveAsync(archiveId);
+            }
+
+            public Archive map(String archiveId, String response) {
+                if (archiveStates != null) {
+                    archiveStates.observe(archiveId, Archive.Status.DELETED);
+                }
+                return null;
+            }
+        });
+    }
+
+    private interface BulkOperation {
+        /**
+         * Fails without a request if the operation cannot succeed.
+         */
+        void check(String archiveId) throws OpenTokException;
+
+        ListenableFuture<String> execute(String archiveId);
+
+        Archive map(String archiveId, String response) throws OpenTokException;
+    }
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Map<String, ArchiveOperationResult> runBulk(Collection<String> archiveIds, int maxConcurrency,
+                                                        final BulkOperation operation) throws OpenTokException {
+        if (archiveIds == null) {
+            throw new InvalidArgumentException("archiveIds must not be null");
+        }
+        if (maxConcurrency < 1) {
+            throw new InvalidArgumentException("maxConcurrency must be at least 1");
+        }
+        LinkedHashSet<String> ids = new LinkedHashSet<String>(archiveIds);
+        final Map<String, ArchiveOperationResult> results = new ConcurrentHashMap<String, ArchiveOperationResult>();
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        final CountDownLatch done = new CountDownLatch(ids.size());
+
+        try {
+            for (final String archiveId : ids) {
+                try {
+                    operation.check(archiveId);
+                } catch (OpenTokException e) {
+                    results.put(archiveId, new ArchiveOperationResult(archiveId, null, e));
+                    done.countDown();
+                    continue;
+                }
+                permits.acquire();
+                final ListenableFuture<String> future;
+                try {
+                    future = operation.execute(archiveId);
+                } catch (RuntimeException e) {
+                    // record the failure and go on, so that the other operations still complete
+                    results.put(archiveId, new ArchiveOperationResult(archiveId, null, new RequestException(
+                            "Could not start the archive operation. archiveId = " + archiveId, e)));
+                    permits.release();
+                    done.countDown();
+                    continue;
+                }
+                future.addListener(new Runnable() {
+                    public void run() {
+                        try {
+                            invalidateArchive(archiveId);
+                            results.put(archiveId, complete(archiveId, future, operation));
+                        } finally {
+                            permits.release();
+                            done.countDown();
+                        }
+                    }
+                }, SAME_THREAD);
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while waiting for archive operations to complete.", e);
+        }
+
+        Map<String, ArchiveOperationResult> ordered = new LinkedHashMap<String, ArchiveOperationResult>();
+        for (String archiveId : ids) {
+            ordered.put(archiveId, results.get(archiveId));
+        }
+        return ordered;
+    }
+
+    private static ArchiveOperationResult complete(String archiveId, ListenableFuture<String> future,
+                                                   BulkOperation operation) {
+        try {
+            return new ArchiveOperationResult(archiveId, operation.map(archiveId, future.get()), null);
+        } catch (OpenTokException e) {
+            return new ArchiveOperationResult(archiveId, null, e);
+        } catch (InterruptedException e) {
+            // the future has already completed, so this does not happen
+            return new ArchiveOperationResult(archiveId, null, new RequestException(e.getMessage(), e));
+        } catch (ExecutionException e) {
+            OpenTokException error = e.getCause() instanceof OpenTokException ? (OpenTokException) e.getCause()
+                    : new RequestException("Could not complete the archive operation. archiveId = " + archiveId, e);
+            return new ArchiveOperationResult(archiveId, null, error);
+        } catch (CancellationException e) {
+            return new ArchiveOperationResult(archiveId, null, new RequestException(
+                    "The archive operation was cancelled because the client was closed. archiveId = " + archiveId, e));
+        }
     }
 }
@@ -0,0 +1,472 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.OpenTokTransport;
+import com.opentok.util.RateLimits;
+
+/**
+ * Returns the OpenTok object for each API key of an application that serves many OpenTok
+ * projects. The OpenTok objects are created the first time their API key is requested, with the
+ * secret returned by a {@link CredentialProvider}, and they all share one
+ * {@link OpenTokTransport}. An OpenTok object that has not been requested for the idle timeout is
+ * evicted, and the next request for its API key creates a new one. The evicted object is closed in
+ * the background a moment later, so that a call made with it by a caller who requested it at the
+ * same time still goes through. Do not keep the OpenTok objects returned by the registry; request
+ * them again each time.
+ * <p>
+ * Looking up an OpenTok object that is already created does not take a lock, so it can be done on
+ * each request, for example to generate a token.
+ * <p>
+ * <pre>
+ * OpenTokRegistry registry = new OpenTokRegistry.Builder(new CredentialProvider() {
+ *     public String getApiSecret(int apiKey) {
+ *         return secrets.lookup(apiKey);
+ *     }
+ * }).idleTimeout(1, TimeUnit.HOURS).build();
+ *
+ * String token = registry.get(apiKey).generateToken(sessionId);
+ * </pre>
+ */
+public class OpenTokRegistry implements Closeable {
+
+    // how long an evicted OpenTok object still accepts calls before it is closed
+    private static final long EVICTION_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final CredentialProvider credentials;
+    private final String apiUrl;
+    private final OpenTokTransport transport;
+    private final boolean ownsTransport;
+    private final RateLimits rateLimits;
+    private final long idleTimeoutNanos;
+    private final long drainTimeoutNanos;
+    private final long touchResolutionNanos;
+    private final ScheduledExecutorService sharedExecutor;
+    private final ConcurrentHashMap<Integer, Tenant> tenants = new ConcurrentHashMap<Integer, Tenant>();
+    // the tenants removed from the map and not closed yet
+    private final Set<Tenant> retiring = Collections.newSetFromMap(new ConcurrentHashMap<Tenant, Boolean>());
+    private final AtomicLong creationCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduled;
+    private volatile boolean closed;
+
+    private OpenTokRegistry(Builder builder) {
+        this.credentials = builder.credentials;
+        this.apiUrl = builder.apiUrl;
+        this.ownsTransport = builder.transport == null;
+        this.transport = ownsTransport ? new OpenTokTransport.Builder().build() : builder.transport;
+        this.rateLimits = builder.rateLimits;
+        this.idleTimeoutNanos = builder.idleTimeoutNanos;
+        this.drainTimeoutNanos = builder.drainTimeoutNanos;
+        // the last use is recorded with this precision, so that hot keys do not write on each lookup
+        this.touchResolutionNanos = Math.min(TimeUnit.SECONDS.toNanos(1), idleTimeoutNanos / 16);
+        this.sharedExecutor = builder.executor;
+    }
+
+    /**
+     * Use this class to create an OpenTokRegistry object.
+     *
+     * @see OpenTokRegistry
+     */
+    public static class Builder {
+        private final CredentialProvider credentials;
+        private String apiUrl = "https://api.opentok.com";
+        private OpenTokTransport transport;
+        private RateLimits rateLimits;
+        private long idleTimeoutNanos = TimeUnit.MINUTES.toNanos(30);
+        private long drainTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+        private ScheduledExecutorService executor;
+
+        /**
+         * Creates a Builder for an OpenTokRegistry object.
+         *
+         * @param credentials Returns the API secret of each API key.
+         */
+        public Builder(CredentialProvider credentials) {
+            this.credentials = credentials;
+        }
+
+        /**
+         * Call this method to set the URL of the OpenTok API. The default is "https://api.opentok.com".
+         *
+         * @param apiUrl The OpenTok API URL.
+         *
+         * @return The OpenTokRegistry.Builder object with the API URL setting.
+         */
+        public Builder apiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+            return this;
+        }
+
+        /**
+         * Call this method to share a transport that you manage with the OpenTok objects. It is not
+         * closed when the registry is closed. By default, the registry creates its own transport.
+         *
+         * @param transport The OpenTokTransport object to use.
+         *
+         * @return The OpenTokRegistry.Builder object with the transport setting.
+         */
+        public Builder transport(OpenTokTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Call this method to limit the requests of each API key (see
+         * {@link OpenTok.Builder#rateLimits(RateLimits)}). Each OpenTok object has its own
+         * budgets, so that the calls of one API key do not delay the others.
+         *
+         * @param rateLimits The RateLimits object to use.
+         *
+         * @return The OpenTokRegistry.Builder object with the rate limit setting.
+         */
+        public Builder rateLimits(RateLimits rateLimits) {
+            this.rateLimits = rateLimits;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long an OpenTok object is kept after it was last requested.
+         * The default is 30 minutes.
+         *
+         * @param duration The idle timeout.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The OpenTokRegistry.Builder object with the idle timeout setting.
+         */
+        public Builder idleTimeout(long duration, TimeUnit unit) {
+            this.idleTimeoutNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to set how long an evicted OpenTok object is given to complete its
+         * requests in progress before they are cancelled (see {@link OpenTok#close(long, TimeUnit)}).
+         * The default is 10 seconds.
+         *
+         * @param duration The drain timeout.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The OpenTokRegistry.Builder object with the drain timeout setting.
+         */
+        public Builder drainTimeout(long duration, TimeUnit unit) {
+            this.drainTimeoutNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to look for idle OpenTok objects on your own executor. The executor is
+         * not shut down when the registry is closed. By default, the registry uses its own daemon
+         * thread.
+         *
+         * @param executor The executor for evictions.
+         *
+         * @return The OpenTokRegistry.Builder object with the executor setting.
+         */
+        public Builder executor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the OpenTokRegistry object and starts looking for idle OpenTok objects, every
+         * half of the idle timeout.
+         *
+         * @return The OpenTokRegistry object.
+         */
+        public OpenTokRegistry build() {
+            if (credentials == null) {
+                throw new IllegalArgumentException("credentials must not be null");
+            }
+            if (idleTimeoutNanos <= 0) {
+                throw new IllegalArgumentException("idleTimeout must be positive");
+            }
+            OpenTokRegistry registry = new OpenTokRegistry(this);
+            registry.start();
+            return registry;
+        }
+    }
+
+    /**
+     * Returns the OpenTok object for an API key, creating it if needed.
+     *
+     * @param apiKey The API key.
+     *
+     * @return The OpenTok object.
+     *
+     * @throws InvalidArgumentException If the credential provider does not know the API key.
+     */
+    public OpenTok get(int apiKey) throws OpenTokException {
+        while (true) {
+            Tenant tenant = tenants.get(apiKey);
+            if (tenant == null) {
+                if (closed) {
+                    throw new IllegalStateException("The OpenTokRegistry is closed.");
+                }
+                Tenant created = new Tenant(apiKey);
+                tenant = tenants.putIfAbsent(apiKey, created);
+                if (tenant == null) {
+                    tenant = created;
+                }
+            }
+            OpenTok opentok = tenant.get();
+            if (opentok != null) {
+                return opentok;
+            }
+            // the tenant was evicted while its OpenTok object was being created
+        }
+    }
+
+    /**
+     * Removes the OpenTok object of an API key, for example after its secret was changed, and
+     * closes it in the background. The next request for the API key creates a new one.
+     *
+     * @param apiKey The API key.
+     */
+    public void invalidate(int apiKey) {
+        Tenant tenant = tenants.remove(apiKey);
+        if (tenant != null) {
+            tenant.retire();
+            drainLater(Collections.singletonList(tenant));
+        }
+    }
+
+    /**
+     * Removes the OpenTok objects that have not been requested for the idle timeout, and closes
+     * them in the background. This is done periodically, and you can call this method to do it now.
+     *
+     * @return The number of OpenTok objects removed.
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        List<Tenant> evicted = new ArrayList<Tenant>();
+        for (Map.Entry<Integer, Tenant> entry : tenants.entrySet()) {
+            Tenant tenant = entry.getValue();
+            if (now - tenant.lastUsed > idleTimeoutNanos && tenants.remove(entry.getKey(), tenant)) {
+                // later lookups create a new tenant, but one made at the same time can still return
+                // this OpenTok object, which is why it is only closed after the grace period
+                tenant.retire();
+                evicted.add(tenant);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            evictionCount.addAndGet(evicted.size());
+            drainLater(evicted);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * The number of OpenTok objects currently kept.
+     */
+    public int size() {
+        return tenants.size();
+    }
+
+    /**
+     * The number of OpenTok objects created since the registry was built.
+     */
+    public long getCreationCount() {
+        return creationCount.get();
+    }
+
+    /**
+     * The number of OpenTok objects evicted because they were idle.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * The transport shared by the OpenTok objects.
+     */
+    public OpenTokTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Stops looking for idle OpenTok objects, removes and closes all of them, and closes the
+     * transport unless it was set with {@link Builder#transport(OpenTokTransport)}. The requests
+     * of all the OpenTok objects, including the evicted ones not closed yet, are given the drain
+     * timeout together.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (executor != sharedExecutor) {
+            executor.shutdown();
+        }
+        List<Tenant> closing = new ArrayList<Tenant>();
+        for (Integer apiKey : tenants.keySet()) {
+            Tenant tenant = tenants.remove(apiKey);
+            if (tenant != null) {
+                tenant.retire();
+                closing.add(tenant);
+            }
+        }
+        // including the evicted ones still in their grace period
+        closing.addAll(retiring);
+        drain(closing);
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
+
+    private synchronized void start() {
+        executor = sharedExecutor != null ? sharedExecutor : defaultExecutor();
+        long interval = idleTimeoutNanos / 2;
+        scheduled = executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdle();
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Closes retired tenants once the grace period has passed, on the eviction executor.
+     */
+    private void drainLater(final List<Tenant> closing) {
+        retiring.addAll(closing);
+        try {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    drain(closing);
+                }
+            }, EVICTION_GRACE_NANOS, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // the registry is closed
+            drain(closing);
+        }
+    }
+
+    /**
+     * Closes tenants, giving the requests of all of them until the same drain deadline, so that
+     * closing many tenants takes no longer than closing one.
+     */
+    private void drain(Collection<Tenant> closing) {
+        long deadline = System.nanoTime() + drainTimeoutNanos;
+        for (Tenant tenant : closing) {
+            tenant.close(Math.max(0, deadline - System.nanoTime()));
+            retiring.remove(tenant);
+        }
+    }
+
+    private static ScheduledExecutorService defaultExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "opentok-registry-eviction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private class Tenant {
+        final int apiKey;
+        volatile long lastUsed = System.nanoTime();
+        volatile OpenTok opentok;
+        volatile boolean closed;
+
+        Tenant(int apiKey) {
+            this.apiKey = apiKey;
+        }
+
+        OpenTok get() throws OpenTokException {
+            long now = System.nanoTime();
+            if (now - lastUsed > touchResolutionNanos) {
+                lastUsed = now;
+            }
+            if (closed) {
+                // the registry creates a new tenant
+                return null;
+            }
+            OpenTok current = opentok;
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                if (opentok == null) {
+                    opentok = create();
+                }
+                return opentok;
+            }
+        }
+
+        /**
+         * Makes lookups stop returning the OpenTok object of this tenant. It is not closed yet.
+         */
+        synchronized void retire() {
+            closed = true;
+        }
+
+        void close(long timeoutNanos) {
+            OpenTok current;
+            synchronized (this) {
+                closed = true;
+                current = opentok;
+            }
+            // outside the lock, so that lookups of the retired tenant do not wait for the drain
+            if (current != null) {
+                current.close(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private OpenTok create() throws OpenTokException {
+            String apiSecret;
+            try {
+                apiSecret = credentials.getApiSecret(apiKey);
+            } catch (OpenTokException e) {
+                // the next request asks the provider again
+                tenants.remove(apiKey, this);
+                throw e;
+            } catch (RuntimeException e) {
+                tenants.remove(apiKey, this);
+                throw e;
+            }
+            if (apiSecret == null) {
+                tenants.remove(apiKey, this);
+                throw new InvalidArgumentException("Unknown API key: " + apiKey);
+            }
+            creationCount.incrementAndGet();
+            return new OpenTok.Builder(apiKey, apiSecret)
+                    .apiUrl(apiUrl)
+                    .transport(transport)
+                    .rateLimits(rateLimits)
+                    .build();
+        }
+    }
+}
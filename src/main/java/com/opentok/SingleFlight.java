@@ -0,0 +1,83 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.RequestException;
+
+/**
+ * Runs at most one call per key at a time. A caller that asks for a key while a call for it is
+ * in flight waits for that call and receives its result, or its exception, instead of making
+ * another one.
+ */
+class SingleFlight<V> {
+
+    private final ConcurrentHashMap<String, FutureTask<V>> inFlight = new ConcurrentHashMap<String, FutureTask<V>>();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    V execute(String key, Callable<V> call) throws OpenTokException {
+        return execute(key, call, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #execute(String, Callable)}, but a caller that waits for another caller's call
+     * gives up after <code>timeoutNanos</code>, leaving that call running.
+     */
+    V execute(String key, Callable<V> call, long timeoutNanos) throws OpenTokException {
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            sharedCount.incrementAndGet();
+        }
+        try {
+            if (existing == task || timeoutNanos == Long.MAX_VALUE) {
+                return existing.get();
+            }
+            return existing.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new RequestException("The deadline expired while waiting for a request in progress.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while waiting for a request in progress.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OpenTokException) {
+                throw (OpenTokException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RequestException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * The number of callers that received the result of a call made for another caller.
+     */
+    long getSharedCount() {
+        return sharedCount.get();
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.exception;
+
+/**
+ * Defines an exception object thrown when the SDK sheds a request because the adaptive
+ * concurrency limit was reached: the OpenTok API is responding slower than usual, and more
+ * requests in progress would only make it slower. The request was not sent to the OpenTok server.
+ * Retry it later, or report the failure without waiting.
+ */
+public class ConcurrencyLimitException extends RequestRejectedException {
+
+    private static final long serialVersionUID = -6410275861927461703L;
+
+    /**
+     * Constructor. Do not use.
+     */
+    public ConcurrencyLimitException(String message) {
+        super(message);
+    }
+
+}
@@ -14,6 +14,8 @@ public class RequestException extends OpenTokException {
 
     private static final long serialVersionUID = -3852834447530956514L;
 
+    private int statusCode = 0;
+
     /**
      * Constructor. Do not use.
      */
@@ -21,6 +23,14 @@ public class RequestException extends OpenTokException {
         super(message);
     }
 
+    /**
+     * Constructor. Do not use.
+     */
+    public RequestException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
     /**
      * Constructor. Do not use.
      */
@@ -28,4 +38,12 @@ public class RequestException extends OpenTokException {
         super(message, cause);
     }
 
+    /**
+     * The HTTP status code of the failed response, or 0 if the request failed without a response
+     * from the OpenTok server (for example, because the connection could not be established).
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
 }
@@ -0,0 +1,26 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.exception;
+
+/**
+ * Defines an exception object thrown when the SDK refuses to send a request because a local limit
+ * was reached, for example because the bulkhead of its operation class is full. The request was
+ * not sent to the OpenTok server, so it can be retried safely.
+ */
+public class RequestRejectedException extends RequestException {
+
+    private static final long serialVersionUID = 2795386817328214417L;
+
+    /**
+     * Constructor. Do not use.
+     */
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,281 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.ConcurrencyLimitException;
+import com.opentok.exception.RequestException;
+
+/**
+ * Limits the number of requests to the OpenTok API in progress at the same time, and adapts the
+ * limit to the latency of the API, so that the SDK does not pile up requests on an API that is
+ * already slow. A request over the limit is not sent, and the call fails right away with a
+ * {@link ConcurrencyLimitException}.
+ * <p>
+ * The limit follows the AIMD algorithm (additive increase, multiplicative decrease). The limiter
+ * keeps the baseline latency, the lowest round-trip time seen recently. While the requests
+ * complete within the latency tolerance of the baseline and the limit is in use, it grows by
+ * about one for each round trip. When a request takes longer, times out, or is throttled by the
+ * OpenTok API (status code 429 or 5xx), the limit is multiplied by the backoff ratio, at most
+ * once for each round trip.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .concurrencyLimiter(new AdaptiveLimiter.Builder().initialLimit(10).maxLimit(100).build())
+ *   .build();
+ * </pre>
+ * <p>
+ * An AdaptiveLimiter object can be shared by several OpenTok objects that call the same OpenTok
+ * API, so that they adapt together.
+ */
+public class AdaptiveLimiter {
+
+    // how much each slower sample raises the baseline, so that it follows a lasting change
+    private static final int BASELINE_DRIFT = 256;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private volatile double limit;
+    // guarded by this
+    private long baselineNanos;
+    private long lastDecreaseNanos;
+
+    private AdaptiveLimiter(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.limit = builder.initialLimit;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Use this class to create an AdaptiveLimiter object.
+     */
+    public static class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private double latencyTolerance = 2.0;
+
+        /**
+         * Call this method to set the limit before any request completes. The default is 20.
+         *
+         * @param initialLimit The initial limit.
+         *
+         * @return The AdaptiveLimiter.Builder object with the initial limit setting.
+         */
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Call this method to set the lowest limit. The default is 1.
+         *
+         * @param minLimit The lowest limit.
+         *
+         * @return The AdaptiveLimiter.Builder object with the minimum limit setting.
+         */
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Call this method to set the highest limit. The default is 200.
+         *
+         * @param maxLimit The highest limit.
+         *
+         * @return The AdaptiveLimiter.Builder object with the maximum limit setting.
+         */
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Call this method to set how much the limit is reduced when the OpenTok API slows down.
+         * The default is 0.9.
+         *
+         * @param backoffRatio The ratio the limit is multiplied by, between 0 and 1.
+         *
+         * @return The AdaptiveLimiter.Builder object with the backoff setting.
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Call this method to set how much slower than the baseline a request can be before the
+         * limit is reduced. The default is 2, twice the baseline latency.
+         *
+         * @param latencyTolerance The tolerance, as a multiple of the baseline latency.
+         *
+         * @return The AdaptiveLimiter.Builder object with the tolerance setting.
+         */
+        public Builder latencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * Builds the AdaptiveLimiter object.
+         *
+         * @return The AdaptiveLimiter object.
+         */
+        public AdaptiveLimiter build() {
+            if (minLimit < 1 || maxLimit < minLimit) {
+                throw new IllegalArgumentException("The limits must satisfy 1 <= minLimit <= maxLimit");
+            }
+            if (initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+            }
+            if (!(backoffRatio > 0 && backoffRatio < 1)) {
+                throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+            }
+            if (!(latencyTolerance >= 1)) {
+                throw new IllegalArgumentException("latencyTolerance must be at least 1");
+            }
+            return new AdaptiveLimiter(this);
+        }
+    }
+
+    /**
+     * Sheds a request if the limit is reached, without taking a place, so that a request that would
+     * be shed does not spend anything else first, like a rate limit token.
+     */
+    void check() throws ConcurrencyLimitException {
+        int current = inFlight.get();
+        if (current >= (int) limit) {
+            throw shed(current);
+        }
+    }
+
+    /**
+     * Takes a place for a request, or sheds the request if the limit is reached.
+     */
+    void acquire() throws ConcurrencyLimitException {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                throw shed(current);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    private ConcurrencyLimitException shed(int current) {
+        rejectedCount.incrementAndGet();
+        return new ConcurrencyLimitException("The request was not sent because " + current +
+                " requests are in progress, the current concurrency limit.");
+    }
+
+    /**
+     * Releases the place of a completed request, and adapts the limit to its outcome.
+     *
+     * @param future The completed request, or null if it was not sent.
+     * @param sentNanos When the request was sent, from <code>System.nanoTime()</code>.
+     */
+    void release(Future<?> future, long sentNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        if (future == null || future.isCancelled() || !future.isDone()) {
+            // the latency of a cancelled request says nothing about the OpenTok API
+            return;
+        }
+        long now = System.nanoTime();
+        try {
+            future.get();
+            onSample(sentNanos, now, false, inFlightBefore);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RequestException) {
+                int statusCode = ((RequestException) cause).getStatusCode();
+                if (statusCode != 0) {
+                    onSample(sentNanos, now, statusCode == 429 || statusCode >= 500, inFlightBefore);
+                }
+            } else if (cause instanceof TimeoutException || cause instanceof IOException) {
+                onSample(sentNanos, now, true, inFlightBefore);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adapts the limit to the outcome of a request.
+     *
+     * @param sentNanos When the request was sent, from <code>System.nanoTime()</code>.
+     * @param completedNanos When it completed, on the same clock.
+     * @param dropped Whether the request timed out or was throttled.
+     * @param inFlight The number of requests in progress when it completed, itself included.
+     */
+    synchronized void onSample(long sentNanos, long completedNanos, boolean dropped, int inFlight) {
+        long rttNanos = completedNanos - sentNanos;
+        if (!dropped) {
+            if (baselineNanos == 0 || rttNanos < baselineNanos) {
+                baselineNanos = rttNanos;
+            } else {
+                baselineNanos += (rttNanos - baselineNanos) / BASELINE_DRIFT;
+            }
+        }
+        if (dropped || rttNanos > baselineNanos * latencyTolerance) {
+            // the requests sent before the last decrease saw the same overload, so they do not count again
+            if (sentNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = completedNanos;
+            }
+        } else if (inFlight * 2 >= limit) {
+            // about one more for each round trip, since a round trip brings back about limit samples
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * The current limit.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * The number of requests in progress.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * The number of requests shed since the limiter was created.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The baseline latency, in nanoseconds, or 0 before the first request completes.
+     */
+    public synchronized long getBaselineNanos() {
+        return baselineNanos;
+    }
+}
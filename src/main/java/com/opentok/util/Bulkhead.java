@@ -0,0 +1,230 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.RequestRejectedException;
+
+/**
+ * Limits the number of requests of one {@link OperationClass} in progress at the same time, so
+ * that slow requests of one class cannot take all the connections and delay the others. Since
+ * each request in progress holds one connection, the limit is also the share of the connection
+ * pool that the class can use.
+ * <p>
+ * A request takes its place when it is about to be sent, after any rate limit delay, so that it
+ * does not hold a place while it waits for something else. A request that finds the bulkhead
+ * full waits in its queue, without blocking the calling thread, up to the maximum wait. When the
+ * queue is full too, or the wait ends first, the request is not sent and the call fails with a
+ * {@link RequestRejectedException}.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .bulkhead(OperationClass.ARCHIVE_READ, new Bulkhead.Builder(8).maxQueued(100).build())
+ *   .bulkhead(OperationClass.SESSION, new Bulkhead.Builder(32).build())
+ *   .build();
+ * </pre>
+ * <p>
+ * A Bulkhead object can be shared by several OpenTok objects to limit their requests together.
+ */
+public class Bulkhead {
+
+    /**
+     * A request waiting for a place.
+     */
+    interface Task {
+        /**
+         * Sends the request.
+         *
+         * @return Whether the request took the place and holds it until it completes, rather than
+         * having been cancelled or timed out while it waited.
+         */
+        boolean run();
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    // guarded by this; queued requests go in the order they arrived
+    private final ArrayDeque<Task> waiting = new ArrayDeque<Task>();
+    private int active;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private Bulkhead(Builder builder) {
+        this.maxConcurrent = builder.maxConcurrent;
+        this.maxQueued = builder.maxQueued;
+        this.maxWaitNanos = builder.maxWaitNanos;
+    }
+
+    /**
+     * Use this class to create a Bulkhead object.
+     */
+    public static class Builder {
+        private final int maxConcurrent;
+        private int maxQueued = Integer.MAX_VALUE;
+        private long maxWaitNanos = TimeUnit.SECONDS.toNanos(30);
+
+        /**
+         * Creates a Builder for a Bulkhead object.
+         *
+         * @param maxConcurrent The maximum number of requests in progress at the same time.
+         */
+        public Builder(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        /**
+         * Call this method to limit the number of requests waiting for the bulkhead. By default,
+         * it is not limited. Use 0 to reject requests as soon as the bulkhead is full.
+         *
+         * @param maxQueued The maximum number of waiting requests.
+         *
+         * @return The Bulkhead.Builder object with the queue setting.
+         */
+        public Builder maxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long a request waits for the bulkhead before it is
+         * rejected. The default is 30 seconds. The deadline of the call (see
+         * {@link HttpClient#withDeadline(long, TimeUnit)}) also ends the wait.
+         *
+         * @param duration The maximum wait.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The Bulkhead.Builder object with the wait setting.
+         */
+        public Builder maxWait(long duration, TimeUnit unit) {
+            this.maxWaitNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Builds the Bulkhead object.
+         *
+         * @return The Bulkhead object.
+         */
+        public Bulkhead build() {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("maxConcurrent must be at least 1");
+            }
+            if (maxQueued < 0) {
+                throw new IllegalArgumentException("maxQueued must not be negative");
+            }
+            return new Bulkhead(this);
+        }
+    }
+
+    /**
+     * Takes a place for a request to send right away. It fails when all the places are taken, or
+     * when requests are already waiting, so that they are not overtaken.
+     */
+    synchronized boolean tryAcquire() {
+        if (active < maxConcurrent && waiting.isEmpty()) {
+            active++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queues a request. The task runs on the thread of the request that frees a place for it.
+     *
+     * @return Whether the request was queued (or run), rather than rejected because the queue is full.
+     */
+    boolean submit(Task task) {
+        synchronized (this) {
+            if (!(active < maxConcurrent && waiting.isEmpty())) {
+                if (waiting.size() >= maxQueued) {
+                    return false;
+                }
+                waiting.add(task);
+                return true;
+            }
+            active++;
+        }
+        if (!task.run()) {
+            release();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a request from the queue, when its wait ends.
+     *
+     * @return Whether the request was still waiting, rather than already given a place.
+     */
+    synchronized boolean remove(Task task) {
+        return waiting.remove(task);
+    }
+
+    /**
+     * Frees the place of a completed request, and hands it to the next waiting request.
+     */
+    void release() {
+        while (true) {
+            Task next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            // a request cancelled while it waited gives the place to the one after it
+            if (next.run()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The longest a request waits in the queue.
+     */
+    long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    RequestRejectedException rejected(OperationClass operationClass, String reason) {
+        rejectedCount.incrementAndGet();
+        return new RequestRejectedException("The request was not sent because the " + operationClass +
+                " bulkhead is full and " + reason + ".");
+    }
+
+    /**
+     * The maximum number of requests in progress at the same time.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * The number of requests in progress.
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    /**
+     * The number of requests waiting for a place.
+     */
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    /**
+     * The number of requests rejected since the bulkhead was created.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
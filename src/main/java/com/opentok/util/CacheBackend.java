@@ -0,0 +1,68 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the entries of the archive caches of the SDK. Implement this interface to share one
+ * warm cache between several OpenTok objects, for example between all the servers of a
+ * deployment. Values are opaque byte arrays, encoded with {@link com.opentok.ArchiveSerializer}.
+ * <p>
+ * Implementations must be thread-safe. The caches treat an IOException like a cache miss, so a
+ * backend that is unavailable only makes the SDK call the OpenTok API.
+ *
+ * @see InMemoryCacheBackend
+ * @see SocketCacheBackend
+ */
+public interface CacheBackend {
+
+    /**
+     * A time to live that never expires.
+     */
+    long FOREVER = Long.MAX_VALUE;
+
+    /**
+     * Returns the value stored for the key, or null if there is none or it has expired.
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Returns the values stored for the keys, without the keys that have no value. Backends
+     * that store the values remotely should fetch them in one round trip.
+     */
+    Map<String, byte[]> getAll(Collection<String> keys) throws IOException;
+
+    /**
+     * Stores a value for the key, replacing any value stored before.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @param timeToLive How long the value is kept, or {@link #FOREVER}.
+     * @param unit The unit of the <code>timeToLive</code> parameter.
+     */
+    void put(String key, byte[] value, long timeToLive, TimeUnit unit) throws IOException;
+
+    /**
+     * Removes the value stored for the key.
+     */
+    void invalidate(String key) throws IOException;
+
+    /**
+     * Returns the number of values stored, including expired values that were not removed yet.
+     */
+    int size() throws IOException;
+
+    /**
+     * Returns the number of values removed because the backend was full.
+     */
+    long getEvictionCount() throws IOException;
+}
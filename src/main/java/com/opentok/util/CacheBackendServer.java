@@ -0,0 +1,207 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reference server of the {@link SocketCacheBackend} protocol, which stores the entries in a
+ * {@link CacheBackend} of this process.
+ * <p>
+ * <b>This is not a production cache server.</b> It has no authentication, no persistence, and no
+ * limit on the number of connections, and it serves each connection with its own thread. It only
+ * listens on the loopback address and only starts when {@link #start(int)} is called. Use it in
+ * tests and on a development machine, and as the specification of the protocol for a server that
+ * fronts a real shared cache.
+ * <p>
+ * <pre>
+ * CacheBackendServer server = new CacheBackendServer(new InMemoryCacheBackend(10000));
+ * server.start(0);
+ * CacheBackend shared = new SocketCacheBackend("localhost", server.getPort());
+ * </pre>
+ */
+public class CacheBackendServer implements Closeable {
+
+    private final CacheBackend backend;
+    private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<Socket>());
+    private ServerSocket serverSocket;
+
+    /**
+     * Creates a CacheBackendServer object.
+     *
+     * @param backend The backend that stores the entries.
+     */
+    public CacheBackendServer(CacheBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Starts accepting connections on the loopback address.
+     *
+     * @param port The port to listen on, or 0 to use any free port.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("The server is already started.");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        final ServerSocket listening = serverSocket;
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept(listening);
+            }
+        }, "opentok-cache-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * The port the server listens on.
+     */
+    public synchronized int getPort() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("The server is not started.");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public synchronized void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+            serverSocket = null;
+        }
+        List<Socket> open;
+        synchronized (clients) {
+            open = new ArrayList<Socket>(clients);
+        }
+        for (Socket client : open) {
+            client.close();
+        }
+    }
+
+    private void accept(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            final Socket client;
+            try {
+                client = listening.accept();
+            } catch (IOException e) {
+                return;
+            }
+            clients.add(client);
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        serve(client);
+                    } finally {
+                        clients.remove(client);
+                        try {
+                            client.close();
+                        } catch (IOException e) {
+                            // the client is gone either way
+                        }
+                    }
+                }
+            }, "opentok-cache-server-client");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            while (true) {
+                int op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                handle(op, in, out);
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // the client disconnected or the server was closed
+        } catch (IOException e) {
+            // a broken request ends the connection
+        }
+    }
+
+    private void handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case SocketCacheBackend.GET: {
+                byte[] value = backend.get(in.readUTF());
+                out.writeByte(SocketCacheBackend.OK);
+                SocketCacheBackend.writeValue(out, value);
+                break;
+            }
+            case SocketCacheBackend.GET_ALL: {
+                int count = in.readInt();
+                List<String> keys = new ArrayList<String>(count);
+                for (int i = 0; i < count; i++) {
+                    keys.add(in.readUTF());
+                }
+                Map<String, byte[]> values = backend.getAll(keys);
+                out.writeByte(SocketCacheBackend.OK);
+                out.writeInt(values.size());
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    SocketCacheBackend.writeValue(out, entry.getValue());
+                }
+                break;
+            }
+            case SocketCacheBackend.PUT: {
+                String key = in.readUTF();
+                byte[] value = SocketCacheBackend.readValue(in);
+                long timeToLiveMillis = in.readLong();
+                backend.put(key, value, timeToLiveMillis, TimeUnit.MILLISECONDS);
+                out.writeByte(SocketCacheBackend.OK);
+                break;
+            }
+            case SocketCacheBackend.INVALIDATE: {
+                backend.invalidate(in.readUTF());
+                out.writeByte(SocketCacheBackend.OK);
+                break;
+            }
+            case SocketCacheBackend.STATS: {
+                int size = backend.size();
+                long evictionCount = backend.getEvictionCount();
+                out.writeByte(SocketCacheBackend.OK);
+                out.writeInt(size);
+                out.writeLong(evictionCount);
+                break;
+            }
+            default:
+                throw new IOException("Unknown cache operation: " + op);
+        }
+    }
+}
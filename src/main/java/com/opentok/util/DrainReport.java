@@ -0,0 +1,42 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+/**
+ * Describes how the requests in progress were handled when an OpenTok object (or its
+ * {@link HttpClient}) was closed.
+ */
+public class DrainReport {
+
+    private final int drainedCount;
+    private final int cancelledCount;
+
+    DrainReport(int drainedCount, int cancelledCount) {
+        this.drainedCount = drainedCount;
+        this.cancelledCount = cancelledCount;
+    }
+
+    /**
+     * The number of requests that completed before the deadline.
+     */
+    public int getDrainedCount() {
+        return drainedCount;
+    }
+
+    /**
+     * The number of requests still in progress at the deadline, which were cancelled.
+     */
+    public int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    @Override
+    public String toString() {
+        return "DrainReport{drained=" + drainedCount + ", cancelled=" + cancelledCount + "}";
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cuts the tail latency of archive lookups by hedging: when a request to get an archive has not
+ * completed after a percentile of the recent latencies, the same request is sent again, and the
+ * first of the two to succeed completes the call, while the other is cancelled. Since getting an
+ * archive does not change anything, sending it twice is safe.
+ * <p>
+ * The hedge budget caps the extra load: each lookup earns a fraction of a hedge, and a hedge is
+ * only sent when a whole one has been earned. With the default budget of 0.1, at most about one
+ * lookup in ten is hedged. A hedge is also skipped, rather than queued, when a bulkhead, a rate
+ * limit, or the request scheduler would make it wait.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .hedging(new HedgePolicy.Builder().percentile(0.95).budget(0.05).build())
+ *   .build();
+ * </pre>
+ */
+public class HedgePolicy {
+
+    // a hedge costs this many credits, so that fractions of a hedge can be earned
+    private static final int CREDITS_PER_HEDGE = 1000;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final int minSamples;
+    private final int creditsPerRequest;
+    private final int maxCredits;
+    private final AtomicLongArray samples;
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicInteger credits;
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private HedgePolicy(Builder builder) {
+        this.percentile = builder.percentile;
+        this.minDelayNanos = builder.minDelayNanos;
+        this.minSamples = builder.minSamples;
+        this.creditsPerRequest = (int) Math.round(builder.budget * CREDITS_PER_HEDGE);
+        this.maxCredits = builder.maxBurst * CREDITS_PER_HEDGE;
+        this.samples = new AtomicLongArray(builder.window);
+        this.credits = new AtomicInteger(maxCredits);
+    }
+
+    /**
+     * Use this class to create a HedgePolicy object.
+     */
+    public static class Builder {
+        private double percentile = 0.95;
+        private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        private int window = 128;
+        private int minSamples = 20;
+        private double budget = 0.1;
+        private int maxBurst = 10;
+
+        /**
+         * Call this method to set the percentile of the recent latencies after which a hedge is
+         * sent. The default is 0.95.
+         *
+         * @param percentile The percentile, between 0 and 1.
+         *
+         * @return The HedgePolicy.Builder object with the percentile setting.
+         */
+        public Builder percentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Call this method to set the shortest wait before a hedge is sent. The default is 10
+         * milliseconds.
+         *
+         * @param duration The minimum delay.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The HedgePolicy.Builder object with the minimum delay setting.
+         */
+        public Builder minDelay(long duration, TimeUnit unit) {
+            this.minDelayNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Call this method to set how many recent latencies the percentile is computed from, and
+         * how many are needed before the first hedge. The defaults are 128 and 20.
+         *
+         * @param window The number of latencies kept.
+         * @param minSamples The number of latencies needed to hedge.
+         *
+         * @return The HedgePolicy.Builder object with the window setting.
+         */
+        public Builder window(int window, int minSamples) {
+            this.window = window;
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Call this method to set the hedge budget, the largest fraction of lookups that are
+         * hedged, and how many hedges can be sent in a row when the budget was not used for a
+         * while. The defaults are 0.1 and 10.
+         *
+         * @param budget The fraction of a hedge each lookup earns, between 0 and 1.
+         * @param maxBurst The largest number of hedges that can be saved up.
+         *
+         * @return The HedgePolicy.Builder object with the budget setting.
+         */
+        public Builder budget(double budget, int maxBurst) {
+            this.budget = budget;
+            this.maxBurst = maxBurst;
+            return this;
+        }
+
+        /**
+         * Call this method to set the hedge budget, keeping the default burst of 10.
+         *
+         * @param budget The fraction of a hedge each lookup earns, between 0 and 1.
+         *
+         * @return The HedgePolicy.Builder object with the budget setting.
+         */
+        public Builder budget(double budget) {
+            return budget(budget, this.maxBurst);
+        }
+
+        /**
+         * Builds the HedgePolicy object.
+         *
+         * @return The HedgePolicy object.
+         */
+        public HedgePolicy build() {
+            if (!(percentile > 0 && percentile <= 1)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            if (window < 1 || minSamples < 1 || minSamples > window) {
+                throw new IllegalArgumentException("The window must satisfy 1 <= minSamples <= window");
+            }
+            if (!(budget >= 0 && budget <= 1) || maxBurst < 0) {
+                throw new IllegalArgumentException("budget must be between 0 and 1, and maxBurst not negative");
+            }
+            return new HedgePolicy(this);
+        }
+    }
+
+    /**
+     * How long to wait for a lookup before hedging it, or -1 if too few latencies are known.
+     */
+    long getHedgeDelayNanos() {
+        long count = sampleCount.get();
+        int size = (int) Math.min(count, samples.length());
+        if (size < minSamples) {
+            return -1;
+        }
+        long[] recent = new long[size];
+        for (int i = 0; i < size; i++) {
+            recent[i] = samples.get(i);
+        }
+        Arrays.sort(recent);
+        int index = (int) Math.min(size - 1, Math.max(0, Math.ceil(percentile * size) - 1));
+        return Math.max(minDelayNanos, recent[index]);
+    }
+
+    void recordLatency(long latencyNanos) {
+        long index = sampleCount.getAndIncrement();
+        samples.set((int) (index % samples.length()), latencyNanos);
+    }
+
+    /**
+     * Earns the share of a hedge of one lookup.
+     */
+    void onRequest() {
+        while (true) {
+            int current = credits.get();
+            int next = Math.min(maxCredits, current + creditsPerRequest);
+            if (next == current || credits.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spends a hedge from the budget, if one was earned.
+     */
+    boolean tryHedge() {
+        while (true) {
+            int current = credits.get();
+            if (current < CREDITS_PER_HEDGE) {
+                return false;
+            }
+            if (credits.compareAndSet(current, current - CREDITS_PER_HEDGE)) {
+                hedgedCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    void onHedgeWin() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    /**
+     * The number of hedges sent.
+     */
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * The number of hedges that completed before the request they hedged.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * The current wait before a lookup is hedged, in nanoseconds, or -1 if too few latencies are
+     * known yet.
+     */
+    public long getCurrentDelayNanos() {
+        return getHedgeDelayNanos();
+    }
+}
@@ -8,34 +8,691 @@
 package com.opentok.util;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.ning.http.client.*;
 import com.ning.http.client.filter.FilterContext;
 import com.ning.http.client.filter.FilterException;
 import com.ning.http.client.filter.RequestFilter;
+import com.ning.http.client.uri.Uri;
 import com.opentok.ArchiveProperties;
-import com.opentok.constants.Version;
+import com.opentok.exception.ConcurrencyLimitException;
 import com.opentok.exception.OpenTokException;
 import com.opentok.exception.RequestException;
+import com.opentok.exception.RequestRejectedException;
 
 public class HttpClient extends AsyncHttpClient {
     
     private final String apiUrl;
+    // null when the API URL is not set or cannot be parsed
+    private final Uri apiOrigin;
     private final int apiKey;
+    private final int requestTimeoutMillis;
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    // null when each call has its default priority
+    private final RequestPriority priority;
+    private final State state;
 
     private HttpClient(Builder builder) {
-        super(builder.config);
+        // the provider holds the threads and the connection pool, and the config only adds the credentials
+        super(builder.transport.getProvider(), builder.config);
         this.apiKey = builder.apiKey;
         this.apiUrl = builder.apiUrl;
+        this.apiOrigin = parseOrigin(builder.apiUrl);
+        this.requestTimeoutMillis = builder.requestTimeoutMillis;
+        this.hasDeadline = false;
+        this.deadlineNanos = 0;
+        this.priority = null;
+        this.state = new State(builder.transport, builder.ownsTransport, builder.bulkheads, builder.rateLimits,
+                builder.concurrencyLimiter, builder.requestScheduler, builder.hedging);
+    }
+
+    private HttpClient(HttpClient parent, boolean hasDeadline, long deadlineNanos, RequestPriority priority) {
+        super(parent.state.transport.getProvider(), parent.getConfig());
+        this.apiKey = parent.apiKey;
+        this.apiUrl = parent.apiUrl;
+        this.apiOrigin = parent.apiOrigin;
+        this.requestTimeoutMillis = parent.requestTimeoutMillis;
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+        this.priority = priority;
+        this.state = parent.state;
+    }
+
+    /**
+     * The lifecycle shared by a client and its deadline views.
+     */
+    private static class State {
+        final OpenTokTransport transport;
+        final boolean ownsTransport;
+        final Map<OperationClass, Bulkhead> bulkheads;
+        final RateLimits rateLimits;
+        final TokenBucket[] buckets;
+        final AdaptiveLimiter limiter;
+        final PriorityScheduler scheduler;
+        final HedgePolicy hedging;
+        // requests are counted before the closed flag is checked, so that close() cannot miss one
+        final AtomicInteger activeCount = new AtomicInteger();
+        final ConcurrentHashMap<Future<?>, Permit> inFlight = new ConcurrentHashMap<Future<?>, Permit>();
+        final Object drainLock = new Object();
+        volatile boolean closed;
+        // set before close() cancels the requests in flight; a request registered later cancels itself
+        volatile boolean cancelling;
+
+        State(OpenTokTransport transport, boolean ownsTransport, Map<OperationClass, Bulkhead> bulkheads,
+                RateLimits rateLimits, AdaptiveLimiter limiter, PriorityScheduler scheduler, HedgePolicy hedging) {
+            this.transport = transport;
+            this.ownsTransport = ownsTransport;
+            this.bulkheads = bulkheads;
+            this.rateLimits = rateLimits;
+            this.buckets = rateLimits != null ? rateLimits.createBuckets() : null;
+            this.limiter = limiter;
+            this.scheduler = scheduler;
+            this.hedging = hedging;
+        }
+    }
+
+    /**
+     * Returns a view of this client whose requests must complete within the timeout, counted from
+     * now. A request still in progress at the deadline is cancelled, and requests started after
+     * it fail without being sent. The view shares the connections and the lifecycle of this
+     * client: closing either closes both.
+     *
+     * @param timeout The time left until the deadline.
+     * @param unit The unit of <code>timeout</code>.
+     *
+     * @return The client view.
+     */
+    public HttpClient withDeadline(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (hasDeadline && deadlineNanos - deadline < 0) {
+            deadline = deadlineNanos;
+        }
+        return new HttpClient(this, true, deadline, priority);
+    }
+
+    /**
+     * Returns a view of this client whose requests all have a priority, instead of the default
+     * priority of each call (see {@link PriorityScheduler}). The priority selects the rate limits
+     * (see {@link Builder#rateLimits(RateLimits)}) and the queue of the scheduler. The view keeps
+     * the deadline of this client, and shares its connections and lifecycle.
+     *
+     * @param priority The priority of the requests.
+     *
+     * @return The client view.
+     */
+    public HttpClient withPriority(RequestPriority priority) {
+        return new HttpClient(this, hasDeadline, deadlineNanos, priority);
+    }
+
+    /**
+     * The time left until the deadline of this client, in nanoseconds, or Long.MAX_VALUE if it
+     * has none.
+     */
+    public long getRemainingNanos() {
+        return hasDeadline ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Resolves the host of the OpenTok API and opens connections to it, so that the first calls do
+     * not wait for DNS, TCP, and TLS handshakes. The connections stay in the pool of the transport
+     * until they are used, or closed after its idle timeout. Each connection is opened with a HEAD
+     * request to the API URL, without the credentials, and all of them are opened at the same time.
+     * Closing the client drains or cancels these requests like the others.
+     *
+     * @param connections The number of connections to open.
+     *
+     * @return The number of connections opened, which can be fewer if some requests failed.
+     *
+     * @throws RequestException If the host cannot be resolved, or the client is closed.
+     */
+    public int warmUp(int connections) throws RequestException {
+        if (isClosed()) {
+            throw new RequestException("The OpenTok client is closed.");
+        }
+        String host = URI.create(apiUrl).getHost();
+        try {
+            // the JVM caches the addresses for the next connections
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new RequestException("Could not resolve the OpenTok API host " + host + ".", e);
+        }
+        List<ListenableFuture<Response>> futures = new ArrayList<ListenableFuture<Response>>();
+        for (int i = 0; i < connections; i++) {
+            Request request = new RequestBuilder("HEAD").setUrl(apiUrl + "/").build();
+            state.activeCount.incrementAndGet();
+            if (state.closed) {
+                release(null, null);
+                break;
+            }
+            ListenableFuture<Response> future;
+            try {
+                // warm-up requests skip the limits, and any response leaves a connection in the pool
+                future = super.executeRequest(request, new WarmUpHandler());
+            } catch (RuntimeException e) {
+                release(null, null);
+                throw e;
+            }
+            // but close() drains and cancels them like the other requests
+            futures.add(track(future, new Permit()));
+        }
+        int opened = 0;
+        for (ListenableFuture<Response> future : futures) {
+            try {
+                if (hasDeadline) {
+                    future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } else {
+                    future.get();
+                }
+                opened++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RequestException("The warm-up was interrupted.", e);
+            } catch (ExecutionException e) {
+                // the connection could not be opened
+            } catch (CancellationException e) {
+                // the client was closed
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } finally {
+                if (future.isDone()) {
+                    complete(future);
+                }
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * The transport this client makes its requests with.
+     */
+    public OpenTokTransport getTransport() {
+        return state.transport;
+    }
+
+    /**
+     * Closes this client, waiting up to {@link #DEFAULT_CLOSE_TIMEOUT_SECONDS} seconds for the
+     * requests in progress.
+     *
+     * @see #close(long, TimeUnit)
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The number of seconds {@link #close()} waits for the requests in progress.
+     */
+    public static final int DEFAULT_CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Closes this client. New requests fail immediately with a {@link RequestException}. The
+     * requests in progress are given until the timeout to complete, and the ones still in progress
+     * then are cancelled. Finally, the transport is closed, unless it was shared with
+     * {@link Builder#transport(OpenTokTransport)}.
+     *
+     * @param timeout How long to wait for the requests in progress.
+     * @param unit The unit of <code>timeout</code>.
+     *
+     * @return How many requests completed and how many were cancelled. A client that was already
+     * closed reports no requests.
+     */
+    public DrainReport close(long timeout, TimeUnit unit) {
+        synchronized (state.drainLock) {
+            if (state.closed) {
+                return new DrainReport(0, 0);
+            }
+            state.closed = true;
+        }
+        int drained = 0;
+        int waiting = state.activeCount.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean interrupted = false;
+        synchronized (state.drainLock) {
+            int active = waiting;
+            while (active > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(state.drainLock, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+                active = state.activeCount.get();
+            }
+            drained = Math.max(0, waiting - state.activeCount.get());
+        }
+        int cancelled = 0;
+        state.cancelling = true;
+        for (Future<?> future : state.inFlight.keySet()) {
+            if (future.cancel(true)) {
+                cancelled++;
+            }
+        }
+        if (state.ownsTransport) {
+            state.transport.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new DrainReport(drained, cancelled);
+    }
+
+    @Override
+    public void closeAsynchronously() {
+        close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return state.closed || state.transport.isClosed();
+    }
+
+    /**
+     * The number of requests in progress.
+     */
+    public int getActiveCount() {
+        return state.activeCount.get();
+    }
+
+    /**
+     * The bulkhead of an operation class, or null if its requests are not limited.
+     */
+    public Bulkhead getBulkhead(OperationClass operationClass) {
+        return state.bulkheads.get(operationClass);
+    }
+
+    /**
+     * The adaptive concurrency limiter, or null if the requests are not limited.
+     */
+    public AdaptiveLimiter getConcurrencyLimiter() {
+        return state.limiter;
+    }
+
+    /**
+     * The scheduler that orders the requests by priority, or null if they are sent in the order
+     * they are made.
+     */
+    public PriorityScheduler getRequestScheduler() {
+        return state.scheduler;
+    }
+
+    /**
+     * The hedging policy of archive lookups, or null if they are not hedged.
+     */
+    public HedgePolicy getHedging() {
+        return state.hedging;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> executeRequest(Request request, AsyncHandler<T> handler) {
+        state.activeCount.incrementAndGet();
+        if (state.closed) {
+            release(null, null);
+            return new FailedFuture<T>(new RequestException("The OpenTok client is closed."));
+        }
+        OperationClass operationClass = OperationClass.of(request.getMethod(), request.getUrl());
+        RequestPriority callPriority = priority != null ? priority
+                : handler instanceof CallHandler ? ((CallHandler) handler).priority : RequestPriority.INTERACTIVE;
+        Permit permit = new Permit();
+        final ListenableFuture<T> future;
+        try {
+            future = schedule(request, handler, operationClass, callPriority, permit);
+        } catch (RuntimeException e) {
+            release(permit, null);
+            throw e;
+        }
+        return track(future, permit);
+    }
+
+    /**
+     * Registers a request counted in the active count, so that close() drains or cancels it.
+     */
+    private <T> ListenableFuture<T> track(final ListenableFuture<T> future, Permit permit) {
+        state.inFlight.put(future, permit);
+        future.addListener(new Runnable() {
+            public void run() {
+                complete(future);
+            }
+        }, SAME_THREAD);
+        // the request was counted before close() started, but registered after it cancelled the
+        // others: it must not go on with a transport that is being closed
+        if (state.cancelling && !future.isDone()) {
+            future.cancel(true);
+        }
+        return future;
+    }
+
+    /**
+     * The places a request in progress holds in the bulkhead of its operation class and in the
+     * concurrency limiter, if any.
+     */
+    private static class Permit {
+        // guarded by this; taken after the rate limit delay, so it can be later than the request is made
+        private Bulkhead bulkhead;
+        private boolean released;
+        // set when the request is sent, which can be later than it is made
+        volatile AdaptiveLimiter limiter;
+        volatile long sentNanos;
+
+        /**
+         * Records the bulkhead place the request took, unless the request has already ended, for
+         * example because it was cancelled while it waited.
+         */
+        synchronized boolean hold(Bulkhead bulkhead) {
+            if (released) {
+                return false;
+            }
+            this.bulkhead = bulkhead;
+            return true;
+        }
+
+        void release(Future<?> future) {
+            Bulkhead held;
+            synchronized (this) {
+                released = true;
+                held = bulkhead;
+                bulkhead = null;
+            }
+            if (held != null) {
+                held.release();
+            }
+            if (limiter != null) {
+                limiter.release(future, sentNanos);
+            }
+        }
+    }
+
+    private static boolean isHedge(AsyncHandler<?> handler) {
+        return handler instanceof CallHandler && ((CallHandler) handler).hedge;
+    }
+
+    private boolean isApiRequest(Request request) {
+        return apiOrigin != null && isSameOrigin(apiOrigin, request.getUri());
+    }
+
+    static Uri parseOrigin(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            return Uri.create(url);
+        } catch (IllegalArgumentException e) {
+            // requests to such a URL cannot be made either
+            return null;
+        }
+    }
+
+    /**
+     * Whether a URL has the same scheme, host, and port as the API URL. A URL that only starts with
+     * the API URL can be on another host, like "https://api.opentok.com.example.com" or
+     * "https://api.opentok.com@example.com".
+     */
+    static boolean isSameOrigin(Uri origin, Uri uri) {
+        return uri != null && origin.getScheme().equalsIgnoreCase(uri.getScheme())
+                && origin.getHost() != null && origin.getHost().equalsIgnoreCase(uri.getHost())
+                && port(origin) == port(uri);
+    }
+
+    private static int port(Uri uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) || "wss".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Sends the request now, or later when its rate limit allows it. The calling thread never
+     * waits for the rate limit.
+     */
+    private <T> ListenableFuture<T> schedule(final Request request, final AsyncHandler<T> handler,
+            final OperationClass operationClass, final RequestPriority priority, final Permit permit) {
+        // only the OpenTok API has rate limits, not the hosts that archive files are downloaded from
+        TokenBucket bucket = state.buckets != null && isApiRequest(request)
+                ? RateLimits.bucket(state.buckets, operationClass, priority) : null;
+        if (bucket == null) {
+            return admit(request, handler, operationClass, priority, permit);
+        }
+        if (state.limiter != null) {
+            // a request the limiter sheds must not spend a token; it is checked again when sent
+            try {
+                state.limiter.check();
+            } catch (ConcurrencyLimitException e) {
+                return new FailedFuture<T>(e);
+            }
+        }
+        long wait = bucket.reserve(isHedge(handler) ? 0
+                : Math.min(state.rateLimits.getMaxWaitNanos(), getRemainingNanos()));
+        if (wait < 0) {
+            return new FailedFuture<T>(new RequestRejectedException("The request was not sent because the " +
+                    operationClass + " rate limit of " + priority.name().toLowerCase() +
+                    " calls would delay it too long."));
+        }
+        if (wait == 0) {
+            return admit(request, handler, operationClass, priority, permit);
+        }
+        final DelayedFuture<T> delayed = new DelayedFuture<T>();
+        delayed.schedule(state.transport.getScheduler(), new Runnable() {
+            public void run() {
+                ListenableFuture<T> future;
+                try {
+                    future = admit(request, handler, operationClass, priority, permit);
+                } catch (RuntimeException e) {
+                    future = new FailedFuture<T>(e);
+                }
+                delayed.set(future);
+            }
+        }, wait);
+        return delayed;
+    }
+
+    /**
+     * Takes a place in the bulkhead of the operation class, if it has one, and passes the request
+     * on to the scheduler. A request that finds the bulkhead full waits in its queue, and the
+     * calling thread never waits for a place.
+     */
+    private <T> ListenableFuture<T> admit(final Request request, final AsyncHandler<T> handler,
+            final OperationClass operationClass, final RequestPriority priority, final Permit permit) {
+        final Bulkhead bulkhead = state.bulkheads.get(operationClass);
+        if (bulkhead == null) {
+            return enqueue(request, handler, priority, permit);
+        }
+        if (bulkhead.tryAcquire()) {
+            if (!permit.hold(bulkhead)) {
+                // the request was cancelled during its rate limit delay
+                bulkhead.release();
+                return new FailedFuture<T>(new CancellationException());
+            }
+            return enqueue(request, handler, priority, permit);
+        }
+        // a hedge is only worth sending right away
+        long wait = isHedge(handler) ? 0 : Math.min(bulkhead.getMaxWaitNanos(), getRemainingNanos());
+        if (wait <= 0) {
+            return new FailedFuture<T>(bulkhead.rejected(operationClass, "the request cannot wait"));
+        }
+        final DelayedFuture<T> queued = new DelayedFuture<T>();
+        final Bulkhead.Task task = new Bulkhead.Task() {
+            public boolean run() {
+                if (queued.isDone() || !permit.hold(bulkhead)) {
+                    return false;
+                }
+                ListenableFuture<T> future;
+                try {
+                    future = enqueue(request, handler, priority, permit);
+                } catch (RuntimeException e) {
+                    future = new FailedFuture<T>(e);
+                }
+                // the permit gives the place back when the request completes, even if it failed
+                queued.set(future);
+                return true;
+            }
+        };
+        if (!bulkhead.submit(task)) {
+            return new FailedFuture<T>(bulkhead.rejected(operationClass, "its queue is full"));
+        }
+        queued.schedule(state.transport.getScheduler(), new Runnable() {
+            public void run() {
+                if (bulkhead.remove(task)) {
+                    queued.set(new FailedFuture<T>(bulkhead.rejected(operationClass,
+                            "the wait for a free place timed out")));
+                }
+            }
+        }, wait);
+        return queued;
+    }
+
+    /**
+     * Sends the request now if the scheduler has a free place for it, or queues it by priority.
+     * The calling thread never waits for a place.
+     */
+    private <T> ListenableFuture<T> enqueue(final Request request, final AsyncHandler<T> handler,
+            RequestPriority priority, final Permit permit) {
+        final PriorityScheduler scheduler = state.scheduler;
+        if (scheduler == null || !isApiRequest(request)) {
+            return send(request, handler, permit);
+        }
+        if (scheduler.tryAcquire()) {
+            ListenableFuture<T> future;
+            try {
+                future = send(request, handler, permit);
+            } catch (RuntimeException e) {
+                scheduler.release();
+                throw e;
+            }
+            holdPlace(scheduler, future);
+            return future;
+        }
+        if (isHedge(handler)) {
+            return new FailedFuture<T>(new RequestRejectedException(
+                    "The hedge request was not sent because the request scheduler has no free place."));
+        }
+        final DelayedFuture<T> queued = new DelayedFuture<T>();
+        scheduler.submit(priority, new PriorityScheduler.Task() {
+            public boolean run() {
+                if (queued.isCancelled()) {
+                    return false;
+                }
+                ListenableFuture<T> future;
+                try {
+                    future = send(request, handler, permit);
+                } catch (RuntimeException e) {
+                    future = new FailedFuture<T>(e);
+                }
+                boolean sent = !(future instanceof FailedFuture);
+                if (sent) {
+                    future.addListener(new PlaceRelease(scheduler), SAME_THREAD);
+                }
+                queued.set(future);
+                return sent;
+            }
+        });
+        return queued;
+    }
+
+    private static void holdPlace(PriorityScheduler scheduler, ListenableFuture<?> future) {
+        if (future instanceof FailedFuture) {
+            // the request was not sent
+            scheduler.release();
+        } else {
+            future.addListener(new PlaceRelease(scheduler), SAME_THREAD);
+        }
+    }
+
+    /**
+     * Frees the scheduler place of a request once, though listeners can run more than once.
+     */
+    private static class PlaceRelease implements Runnable {
+        private final PriorityScheduler scheduler;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PlaceRelease(PriorityScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                scheduler.release();
+            }
+        }
+    }
+
+    private <T> ListenableFuture<T> send(Request request, AsyncHandler<T> handler, Permit permit) {
+        // a request that disables its own timeout, such as a download, keeps only the deadline
+        int timeoutMillis = request.getRequestTimeout() == -1 ? -1 : requestTimeoutMillis;
+        if (hasDeadline) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return new FailedFuture<T>(new RequestException("The deadline expired before the request was sent."));
+            }
+            // the transport aborts the request and closes its connection when this timeout expires
+            int untilDeadline = (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            timeoutMillis = timeoutMillis > 0 ? Math.min(timeoutMillis, untilDeadline) : untilDeadline;
+        }
+        if (timeoutMillis > 0) {
+            request = new RequestBuilder(request).setRequestTimeout(timeoutMillis).build();
+        }
+        if (state.limiter != null && isApiRequest(request)) {
+            try {
+                state.limiter.acquire();
+            } catch (ConcurrencyLimitException e) {
+                return new FailedFuture<T>(e);
+            }
+            permit.sentNanos = System.nanoTime();
+            permit.limiter = state.limiter;
+        }
+        return super.executeRequest(request, handler);
+    }
+
+    /**
+     * Ends a request in progress. It can be called more than once for a request, for example by a
+     * listener and by the caller waiting for the result, and only the first call counts.
+     */
+    private void complete(Future<?> future) {
+        Permit permit = state.inFlight.remove(future);
+        if (permit != null) {
+            release(permit, future);
+        }
+    }
+
+    /**
+     * Releases what a request held: its permit, if any, and its place in the active count.
+     */
+    private void release(Permit permit, Future<?> future) {
+        if (permit != null) {
+            permit.release(future);
+        }
+        state.activeCount.decrementAndGet();
+        if (state.closed) {
+            synchronized (state.drainLock) {
+                state.drainLock.notifyAll();
+            }
+        }
     }
 
     public String createSession(Map<String, List<String>> params) throws RequestException {
@@ -57,7 +714,7 @@ public class HttpClient extends AsyncHttpClient {
         BoundRequestBuilder builder = this.preparePost(this.apiUrl + "/session/create")
                                     .setFormParams(params);
 
-        return request(builder, handler, message);
+        return request(builder, handler, message, RequestPriority.INTERACTIVE);
     }
 
     public String getArchive(String archiveId) throws RequestException {
@@ -81,7 +738,11 @@ public class HttpClient extends AsyncHttpClient {
             }
         };
 
-        return request(this.prepareGet(url), handler, message);
+        BoundRequestBuilder builder = this.prepareGet(url);
+        if (state.hedging != null) {
+            return request(new HedgedCall(builder, handler, state.hedging).start(), message);
+        }
+        return request(builder, handler, message, RequestPriority.INTERACTIVE);
     }
 
     public String getArchives(int offset, int count) throws RequestException {
@@ -115,29 +776,30 @@ public class HttpClient extends AsyncHttpClient {
             }
         };
 
-        return request(this.prepareGet(url), handler, message);
+        return request(this.prepareGet(url), handler, message, RequestPriority.BACKGROUND);
     }
 
-    public String startArchive(String sessionId, ArchiveProperties properties)
+    public String startArchive(final String sessionId, final ArchiveProperties properties)
             throws OpenTokException {
         // TODO: maybe use a StringBuilder?
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive";
 
-        JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
-        ObjectNode requestJson = nodeFactory.objectNode();
-        requestJson.put("sessionId", sessionId);
-        requestJson.put("hasVideo", properties.hasVideo());
-        requestJson.put("hasAudio", properties.hasAudio());
-        requestJson.put("outputMode", properties.outputMode().toString());
-
-        if (properties.name() != null) {
-            requestJson.put("name", properties.name());
-        }
-
-        String requestBody;
+        byte[] requestBody;
         try {
-            requestBody = new ObjectMapper().writeValueAsString(requestJson);
-        } catch (JsonProcessingException e) {
+            requestBody = Json.toBytes(new Json.Writer() {
+                public void writeTo(JsonGenerator generator) throws IOException {
+                    generator.writeStartObject();
+                    generator.writeStringField("sessionId", sessionId);
+                    generator.writeBooleanField("hasVideo", properties.hasVideo());
+                    generator.writeBooleanField("hasAudio", properties.hasAudio());
+                    generator.writeStringField("outputMode", properties.outputMode().toString());
+                    if (properties.name() != null) {
+                        generator.writeStringField("name", properties.name());
+                    }
+                    generator.writeEndObject();
+                }
+            });
+        } catch (IOException e) {
             throw new OpenTokException("Could not start an OpenTok Archive. The JSON body encoding failed.", e);
         }
 
@@ -164,10 +826,14 @@ public class HttpClient extends AsyncHttpClient {
                                     .setBody(requestBody)
                                     .setHeader("Content-Type", "application/json");
 
-        return request(builder, handler, message);
+        return request(builder, handler, message, RequestPriority.INTERACTIVE);
     }
 
     public String stopArchive(String archiveId) throws RequestException {
+        return request(stopArchiveAsync(archiveId), "Could not stop an OpenTok Archive.");
+    }
+
+    public ListenableFuture<String> stopArchiveAsync(String archiveId) {
         // TODO: maybe use a StringBuilder?
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive/" + archiveId + "/stop";
 
@@ -190,13 +856,16 @@ public class HttpClient extends AsyncHttpClient {
             }
         };
 
-        return request(this.preparePost(url), handler, message);
+        return execute(this.preparePost(url), handler, RequestPriority.INTERACTIVE);
     }
 
     public String deleteArchive(String archiveId) throws RequestException {
+        return request(deleteArchiveAsync(archiveId), "Could not delete an OpenTok Archive. archiveId = " + archiveId);
+    }
+
+    public ListenableFuture<String> deleteArchiveAsync(String archiveId) {
         String url = this.apiUrl + "/v2/partner/" + this.apiKey + "/archive/" + archiveId;
         final String id = archiveId;
-        final String message = "Could not delete an OpenTok Archive. archiveId = " + id;
 
         RequestHandler handler = new RequestHandler() {
             @Override
@@ -214,29 +883,423 @@ public class HttpClient extends AsyncHttpClient {
             }
         };
 
-        return request(this.prepareDelete(url), handler, message);
+        return execute(this.prepareDelete(url), handler, RequestPriority.BACKGROUND);
     }
 
-    private String request(BoundRequestBuilder builder, RequestHandler handler, String errorMessage)
-            throws RequestException {
-        Future<Response> request = builder.execute();
+    private String request(BoundRequestBuilder builder, RequestHandler handler, String errorMessage,
+            RequestPriority priority) throws RequestException {
+        return request(execute(builder, handler, priority), errorMessage);
+    }
+
+    private String request(Future<String> request, String errorMessage) throws RequestException {
         try {
-            Response response = request.get();
-            return handler.handle(response);
+            if (hasDeadline) {
+                // the transport times the request out at the deadline, so this only guards against a lost future
+                long remaining = deadlineNanos - System.nanoTime();
+                return request.get(Math.max(0, remaining) + DEADLINE_GRACE_NANOS, TimeUnit.NANOSECONDS);
+            }
+            return request.get();
             // if we only wanted Java 7 and above, we could DRY this into one catch clause
         } catch (InterruptedException e) {
+            request.cancel(true);
             throw new RequestException(errorMessage, e);
+        } catch (TimeoutException e) {
+            request.cancel(true);
+            throw new RequestException(errorMessage + " The deadline expired.", e);
         } catch (ExecutionException e) {
+            if (e.getCause() instanceof RequestException) {
+                throw (RequestException) e.getCause();
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new RequestException(errorMessage + " The request timed out.", e.getCause());
+            }
             throw new RequestException(errorMessage, e);
-        } catch (IOException e) {
-            throw new RequestException(errorMessage, e);
+        } catch (CancellationException e) {
+            throw new RequestException(errorMessage + " The request was cancelled because the client was closed.", e);
+        } finally {
+            // the listeners of a future can run after get() returns, but the next call must find
+            // the bulkhead place of this one free
+            if (request.isDone()) {
+                complete(request);
+            }
         }
     }
 
+    private ListenableFuture<String> execute(BoundRequestBuilder builder, RequestHandler handler,
+            RequestPriority priority) {
+        return builder.execute(new CallHandler(handler, priority, false));
+    }
+
+    /**
+     * An idempotent call that is sent again if it has not completed by the hedge delay. The first
+     * attempt to succeed completes the call, and the other one is cancelled. The call fails only
+     * when every attempt sent has failed.
+     */
+    private class HedgedCall implements Runnable {
+        private final BoundRequestBuilder builder;
+        private final RequestHandler handler;
+        private final HedgePolicy policy;
+        private final DelayedFuture<String> result = new DelayedFuture<String>();
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private volatile ListenableFuture<String> first;
+        private volatile ListenableFuture<String> second;
+        private volatile Future<?> timer;
+
+        HedgedCall(BoundRequestBuilder builder, RequestHandler handler, HedgePolicy policy) {
+            this.builder = builder;
+            this.handler = handler;
+            this.policy = policy;
+        }
+
+        ListenableFuture<String> start() {
+            policy.onRequest();
+            long delay = policy.getHedgeDelayNanos();
+            first = builder.execute(new CallHandler(handler, RequestPriority.INTERACTIVE, false));
+            first.addListener(new Attempt(first, false), SAME_THREAD);
+            result.addListener(new Runnable() {
+                public void run() {
+                    if (result.isCancelled()) {
+                        settled.set(true);
+                        cancelAll();
+                    }
+                }
+            }, SAME_THREAD);
+            if (delay >= 0 && !settled.get()) {
+                try {
+                    timer = state.transport.getScheduler().schedule(this, delay, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the transport is closed, so the first attempt fails too
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Sends the hedge, at the hedge delay.
+         */
+        public void run() {
+            if (settled.get() || getRemainingNanos() <= 0 || !policy.tryHedge()) {
+                return;
+            }
+            pending.incrementAndGet();
+            ListenableFuture<String> hedge;
+            try {
+                hedge = builder.execute(new CallHandler(handler, RequestPriority.INTERACTIVE, true));
+            } catch (RuntimeException e) {
+                hedge = new FailedFuture<String>(e);
+            }
+            second = hedge;
+            hedge.addListener(new Attempt(hedge, true), SAME_THREAD);
+            if (settled.get()) {
+                // the call completed while the hedge was being sent
+                hedge.cancel(true);
+            }
+        }
+
+        private void complete(ListenableFuture<String> attempt, boolean hedge) {
+            boolean succeeded = succeeded(attempt);
+            int left = pending.decrementAndGet();
+            if ((succeeded || left == 0) && settled.compareAndSet(false, true)) {
+                if (succeeded) {
+                    policy.recordLatency(System.nanoTime() - startNanos);
+                    if (hedge) {
+                        policy.onHedgeWin();
+                    }
+                }
+                result.set(attempt);
+                cancelAll();
+            }
+        }
+
+        private void cancelAll() {
+            Future<?> scheduled = timer;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            cancel(first);
+            cancel(second);
+        }
+
+        private void cancel(ListenableFuture<String> attempt) {
+            // the transport marks even a completed request as cancelled, so the winner is left alone
+            if (attempt != null && !attempt.isDone()) {
+                attempt.cancel(true);
+            }
+        }
+
+        private boolean succeeded(ListenableFuture<String> attempt) {
+            if (!attempt.isDone() || attempt.isCancelled()) {
+                return false;
+            }
+            try {
+                attempt.get();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Completes the call once for an attempt, though listeners can run more than once.
+         */
+        private class Attempt implements Runnable {
+            private final ListenableFuture<String> attempt;
+            private final boolean hedge;
+            private final AtomicBoolean done = new AtomicBoolean();
+
+            Attempt(ListenableFuture<String> attempt, boolean hedge) {
+                this.attempt = attempt;
+                this.hedge = hedge;
+            }
+
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    complete(attempt, hedge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes a call with its RequestHandler, and carries the default priority of the call to
+     * {@link #executeRequest(Request, AsyncHandler)}.
+     */
+    private static class CallHandler extends AsyncCompletionHandler<String> {
+        final RequestHandler handler;
+        final RequestPriority priority;
+        final boolean hedge;
+
+        CallHandler(RequestHandler handler, RequestPriority priority, boolean hedge) {
+            this.handler = handler;
+            this.priority = priority;
+            this.hedge = hedge;
+        }
+
+        @Override
+        public String onCompleted(Response response) throws Exception {
+            return handler.handle(response);
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            // the failure is reported through the returned future
+        }
+    }
+
+    /**
+     * Handles a warm-up request, which is sent without the credentials: it only opens a connection.
+     */
+    private static class WarmUpHandler extends AsyncCompletionHandlerBase {
+    }
+
     private interface RequestHandler {
         String handle(Response response) throws IOException, RequestException;
     }
 
+    private static final long DEADLINE_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The future of a request that was not made.
+     */
+    private static class FailedFuture<V> implements ListenableFuture<V> {
+        private final Throwable error;
+
+        FailedFuture(Throwable error) {
+            this.error = error;
+        }
+
+        public void done() {
+        }
+
+        public void abort(Throwable t) {
+        }
+
+        public void touch() {
+        }
+
+        public ListenableFuture<V> addListener(Runnable listener, Executor executor) {
+            executor.execute(listener);
+            return this;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return true;
+        }
+
+        public V get() throws ExecutionException {
+            throw new ExecutionException(error);
+        }
+
+        public V get(long timeout, TimeUnit unit) throws ExecutionException {
+            throw new ExecutionException(error);
+        }
+    }
+
+    /**
+     * The future of a request that is sent after a delay. Until then, its listeners are kept here,
+     * and cancelling it cancels the delayed send.
+     */
+    private static class DelayedFuture<V> implements ListenableFuture<V> {
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+        private ListenableFuture<V> delegate;
+        private ScheduledFuture<?> timer;
+        private boolean cancelled;
+
+        void schedule(ScheduledExecutorService scheduler, Runnable send, long delayNanos) {
+            try {
+                ScheduledFuture<?> scheduled = scheduler.schedule(send, delayNanos, TimeUnit.NANOSECONDS);
+                synchronized (this) {
+                    timer = scheduled;
+                }
+            } catch (RejectedExecutionException e) {
+                set(new FailedFuture<V>(new RequestException("The OpenTok client is closed.")));
+            }
+        }
+
+        void set(ListenableFuture<V> future) {
+            List<Runnable> pending;
+            synchronized (this) {
+                if (cancelled || delegate != null) {
+                    future.cancel(true);
+                    return;
+                }
+                delegate = future;
+                if (timer != null) {
+                    // the wait ended early, for example when a bulkhead place was freed
+                    timer.cancel(false);
+                }
+                pending = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+            sent.countDown();
+            for (Runnable listener : pending) {
+                future.addListener(listener, SAME_THREAD);
+            }
+        }
+
+        private synchronized ListenableFuture<V> delegate() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return delegate;
+        }
+
+        public void done() {
+            ListenableFuture<V> current;
+            synchronized (this) {
+                current = delegate;
+            }
+            if (current != null) {
+                current.done();
+            }
+        }
+
+        public void abort(Throwable t) {
+            ListenableFuture<V> current;
+            synchronized (this) {
+                current = delegate;
+                if (current == null && timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            if (current != null) {
+                current.abort(t);
+            } else {
+                set(new FailedFuture<V>(t));
+            }
+        }
+
+        public void touch() {
+        }
+
+        public ListenableFuture<V> addListener(final Runnable listener, final Executor executor) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    executor.execute(listener);
+                }
+            };
+            ListenableFuture<V> current;
+            synchronized (this) {
+                current = delegate;
+                if (current == null && !cancelled) {
+                    listeners.add(task);
+                    return this;
+                }
+            }
+            if (current != null) {
+                current.addListener(listener, executor);
+            } else {
+                task.run();
+            }
+            return this;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            List<Runnable> pending;
+            ListenableFuture<V> current;
+            synchronized (this) {
+                current = delegate;
+                if (current == null) {
+                    if (cancelled) {
+                        return false;
+                    }
+                    cancelled = true;
+                    if (timer != null) {
+                        timer.cancel(false);
+                    }
+                }
+                pending = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+            if (current != null) {
+                return current.cancel(mayInterruptIfRunning);
+            }
+            sent.countDown();
+            for (Runnable listener : pending) {
+                listener.run();
+            }
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled || (delegate != null && delegate.isCancelled());
+        }
+
+        public synchronized boolean isDone() {
+            return cancelled || (delegate != null && delegate.isDone());
+        }
+
+        public V get() throws InterruptedException, ExecutionException {
+            sent.await();
+            return delegate().get();
+        }
+
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!sent.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return delegate().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
     private void handleError(Response response, String message) throws RequestException {
         handleError(response, message, null);
     }
@@ -245,19 +1308,19 @@ public class HttpClient extends AsyncHttpClient {
             throws RequestException {
         int statusCode = response.getStatusCode();
         if (errorMessages != null && errorMessages.containsKey(statusCode)) {
-            throw new RequestException(message + errorMessages.get(statusCode));
+            throw new RequestException(message + errorMessages.get(statusCode), statusCode);
         }
 
         switch (statusCode) {
             case 400:
-                throw new RequestException(message);
+                throw new RequestException(message, statusCode);
             case 403:
-                throw new RequestException(message + " The request was not authorized.");
+                throw new RequestException(message + " The request was not authorized.", statusCode);
             case 500:
-                throw new RequestException(message + " A server error occurred.");
+                throw new RequestException(message + " A server error occurred.", statusCode);
             default:
                 throw new RequestException(message + " The server response was invalid." +
-                        " response code: " + response.getStatusCode());
+                        " response code: " + response.getStatusCode(), statusCode);
         }
     }
 
@@ -265,6 +1328,16 @@ public class HttpClient extends AsyncHttpClient {
         private final int apiKey;
         private final String apiSecret;
         private String apiUrl;
+        private OpenTokTransport transport;
+        private boolean ownsTransport;
+        private int connectTimeoutMillis = -1;
+        private int readTimeoutMillis = -1;
+        private int requestTimeoutMillis = -1;
+        private final Map<OperationClass, Bulkhead> bulkheads = new EnumMap<OperationClass, Bulkhead>(OperationClass.class);
+        private RateLimits rateLimits;
+        private AdaptiveLimiter concurrencyLimiter;
+        private PriorityScheduler requestScheduler;
+        private HedgePolicy hedging;
         private AsyncHttpClientConfig config;
 
         public Builder(int apiKey, String apiSecret) {
@@ -277,10 +1350,106 @@ public class HttpClient extends AsyncHttpClient {
             return this;
         }
 
+        /**
+         * Makes the requests with a transport shared with other clients. By default, the client
+         * creates its own transport.
+         */
+        public Builder transport(OpenTokTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the timeout for opening a connection. It is a setting of the transport, so it
+         * cannot be combined with {@link #transport(OpenTokTransport)}.
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = OpenTokTransport.toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the longest time without receiving data on a connection. It is a setting of the
+         * transport, so it cannot be combined with {@link #transport(OpenTokTransport)}.
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = OpenTokTransport.toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the longest time a request can take, from sending it to receiving the whole
+         * response. It applies to each request, so it can be combined with a shared transport.
+         */
+        public Builder requestTimeout(long timeout, TimeUnit unit) {
+            this.requestTimeoutMillis = OpenTokTransport.toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Limits the requests of an operation class with a bulkhead. By default, they are not
+         * limited.
+         */
+        public Builder bulkhead(OperationClass operationClass, Bulkhead bulkhead) {
+            if (bulkhead == null) {
+                this.bulkheads.remove(operationClass);
+            } else {
+                this.bulkheads.put(operationClass, bulkhead);
+            }
+            return this;
+        }
+
+        /**
+         * Delays the requests that are over their budget. Each client has its own token buckets,
+         * even when it shares the RateLimits object. By default, the requests are not limited.
+         */
+        public Builder rateLimits(RateLimits rateLimits) {
+            this.rateLimits = rateLimits;
+            return this;
+        }
+
+        /**
+         * Sheds the requests to the OpenTok API over the limit of an adaptive limiter. By
+         * default, they are not limited.
+         */
+        public Builder concurrencyLimiter(AdaptiveLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Orders the requests to the OpenTok API by priority when the scheduler has no free
+         * place. By default, they are sent in the order they are made.
+         */
+        public Builder requestScheduler(PriorityScheduler requestScheduler) {
+            this.requestScheduler = requestScheduler;
+            return this;
+        }
+
+        /**
+         * Hedges the archive lookups of {@link HttpClient#getArchive(String)}. By default, they
+         * are not hedged.
+         */
+        public Builder hedging(HedgePolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
         public HttpClient build() {
+            this.ownsTransport = this.transport == null;
+            if (this.ownsTransport) {
+                this.transport = new OpenTokTransport.Builder()
+                        .connectTimeout(this.connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                        .readTimeout(this.readTimeoutMillis, TimeUnit.MILLISECONDS)
+                        .build();
+            } else if (this.connectTimeoutMillis >= 0 || this.readTimeoutMillis >= 0) {
+                throw new IllegalArgumentException("The connect and read timeouts of a shared transport" +
+                        " are set on its OpenTokTransport.Builder.");
+            }
+            // the transport's executor is passed so that the config does not create another one
             this.config = new AsyncHttpClientConfig.Builder()
-                    .setUserAgent("Opentok-Java-SDK/"+Version.VERSION)
-                    .addRequestFilter(new PartnerAuthRequestFilter(this.apiKey, this.apiSecret))
+                    .setExecutorService(this.transport.getConfig().executorService())
+                    .addRequestFilter(new PartnerAuthRequestFilter(this.apiKey, this.apiSecret, this.apiUrl))
                     .build();
             // NOTE: not thread-safe, config could be modified by another thread here?
             HttpClient client = new HttpClient(this);
@@ -293,13 +1462,25 @@ public class HttpClient extends AsyncHttpClient {
 
         private int apiKey;
         private String apiSecret;
+        private String apiUrl;
+        private Uri apiOrigin;
 
-        public PartnerAuthRequestFilter(int apiKey, String apiSecret) {
+        public PartnerAuthRequestFilter(int apiKey, String apiSecret, String apiUrl) {
             this.apiKey = apiKey;
             this.apiSecret = apiSecret;
+            this.apiUrl = apiUrl;
+            this.apiOrigin = parseOrigin(apiUrl);
         }
 
         public FilterContext filter(FilterContext ctx) throws FilterException {
+            // only the OpenTok API gets the credentials, never third-party hosts like archive download URLs
+            if (this.apiUrl != null && (this.apiOrigin == null
+                    || !isSameOrigin(this.apiOrigin, ctx.getRequest().getUri()))) {
+                return ctx;
+            }
+            if (ctx.getAsyncHandler() instanceof WarmUpHandler) {
+                return ctx;
+            }
             return new FilterContext.FilterContextBuilder(ctx)
                     .request(new RequestBuilder(ctx.getRequest())
                             .addHeader("X-TB-PARTNER-AUTH", this.apiKey+":"+this.apiSecret)
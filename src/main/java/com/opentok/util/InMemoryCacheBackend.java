@@ -0,0 +1,122 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CacheBackend} that keeps the entries in the memory of this process. It holds at most
+ * a maximum number of entries and evicts the least recently used one when it is full. This is
+ * the backend the archive caches use unless another one is set.
+ */
+public class InMemoryCacheBackend implements CacheBackend {
+
+    private final int maximumSize;
+    private final LinkedHashMap<String, CachedValue> entries;
+    private long evictionCount;
+
+    /**
+     * Creates an InMemoryCacheBackend object.
+     *
+     * @param maximumSize The maximum number of entries.
+     */
+    public InMemoryCacheBackend(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                if (size() > InMemoryCacheBackend.this.maximumSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized byte[] get(String key) {
+        CachedValue entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized Map<String, byte[]> getAll(Collection<String> keys) {
+        Map<String, byte[]> values = new HashMap<String, byte[]>();
+        for (String key : keys) {
+            byte[] value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    public synchronized void put(String key, byte[] value, long timeToLive, TimeUnit unit) {
+        if (timeToLive <= 0) {
+            entries.remove(key);
+            return;
+        }
+        long nanos = timeToLive == FOREVER ? FOREVER : unit.toNanos(timeToLive);
+        long expiresAt = nanos > FOREVER / 2 ? FOREVER : System.nanoTime() + nanos;
+        entries.put(key, new CachedValue(value, expiresAt));
+    }
+
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * The number of entries, including expired entries that were not removed yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The number of entries removed because the backend was full.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static class CachedValue {
+        final byte[] value;
+        final long expiresAt;
+
+        CachedValue(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != FOREVER && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * The JSON codec shared by the SDK. The factory and the mapper are thread-safe and created once,
+ * so requests and <code>toString()</code> calls do not pay for a new ObjectMapper each time. They
+ * are not exposed, since a change to their configuration would change how the SDK parses every
+ * response; only immutable readers and new parsers are handed out.
+ * <p>
+ * Documents are written by streaming through a {@link JsonGenerator} into a byte buffer that is
+ * reused by each thread, without building a tree first.
+ */
+public final class Json {
+
+    /**
+     * Writes a JSON document to a generator.
+     */
+    public interface Writer {
+        void writeTo(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Buffers that grew past this size are not kept for the next document.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory factory = mapper.getFactory();
+
+    private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    private Json() {
+    }
+
+    /**
+     * Creates a streaming parser for a document.
+     */
+    public static JsonParser createParser(String json) throws IOException {
+        return factory.createParser(json);
+    }
+
+    /**
+     * Creates a streaming parser for a UTF-8 document.
+     */
+    public static JsonParser createParser(byte[] json) throws IOException {
+        return factory.createParser(json);
+    }
+
+    /**
+     * Returns a reader that binds documents to a type. Readers are immutable and thread-safe.
+     */
+    public static ObjectReader reader(Class<?> type) {
+        return mapper.reader(type);
+    }
+
+    /**
+     * Writes a document and returns it as UTF-8 bytes.
+     */
+    public static byte[] toBytes(Writer writer) throws IOException {
+        Buffer buffer = acquire();
+        try {
+            write(buffer, writer);
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Writes a document and returns it as a String.
+     */
+    public static String toString(Writer writer) throws IOException {
+        Buffer buffer = acquire();
+        try {
+            write(buffer, writer);
+            return buffer.toUtf8String();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static void write(Buffer buffer, Writer writer) throws IOException {
+        JsonGenerator generator = factory.createGenerator(buffer, JsonEncoding.UTF8);
+        try {
+            writer.writeTo(generator);
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static Buffer acquire() {
+        Buffer buffer = buffers.get();
+        if (buffer.inUse) {
+            // a writer that writes another document, for example by calling toString()
+            return new Buffer();
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    private static void release(Buffer buffer) {
+        buffer.inUse = false;
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffer.shrink();
+        } else {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * The capacity of the buffer kept by the current thread.
+     */
+    static int retainedCapacity() {
+        return buffers.get().capacity();
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        boolean inUse;
+
+        Buffer() {
+            super(512);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        void shrink() {
+            buf = new byte[512];
+            count = 0;
+        }
+
+        String toUtf8String() {
+            try {
+                return new String(buf, 0, count, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.Closeable;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.AsyncHttpProvider;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
+import com.opentok.constants.Version;
+
+/**
+ * The I/O threads, timers, and connection pool used to make HTTP requests. By default, each
+ * OpenTok object creates its own transport. When one application uses many API keys, create one
+ * OpenTokTransport and share it between their OpenTok objects, so that they use the same threads
+ * and reuse the same connections to the OpenTok API. The credentials of each OpenTok object are
+ * still added to each of its requests.
+ * <p>
+ * <pre>
+ * OpenTokTransport transport = new OpenTokTransport.Builder().maxConnectionsPerHost(50).build();
+ * OpenTok first = new OpenTok.Builder(firstApiKey, firstApiSecret).transport(transport).build();
+ * OpenTok second = new OpenTok.Builder(secondApiKey, secondApiSecret).transport(transport).build();
+ * </pre>
+ * <p>
+ * A shared transport is not closed by the OpenTok objects that use it. Close it once none of them
+ * makes requests anymore.
+ * <p>
+ * All the TLS connections of a transport are made with one SSLContext, whose client session cache
+ * lets a new connection resume the TLS session of an earlier one instead of making a full
+ * handshake. Call {@link com.opentok.OpenTok#warmUp(int)} at startup to open connections before
+ * the first calls need them.
+ */
+public class OpenTokTransport implements Closeable {
+
+    private final AsyncHttpClientConfig config;
+    private final AsyncHttpProvider provider;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    private OpenTokTransport(Builder builder) {
+        AsyncHttpClientConfig.Builder config = new AsyncHttpClientConfig.Builder()
+                .setUserAgent("Opentok-Java-SDK/" + Version.VERSION)
+                .setMaxConnections(builder.maxConnections)
+                .setMaxConnectionsPerHost(builder.maxConnectionsPerHost)
+                .setPooledConnectionIdleTimeout(builder.pooledConnectionIdleTimeoutMillis)
+                .setAllowPoolingConnections(true)
+                .setAllowPoolingSslConnections(true)
+                .setSSLContext(builder.sslContext);
+        if (builder.hostnameVerifier != null) {
+            config.setHostnameVerifier(builder.hostnameVerifier);
+        }
+        // the client only applies these settings to the SSLContext it creates itself, never to a set one
+        if (builder.sslSessionCacheSize >= 0) {
+            builder.sslContext.getClientSessionContext().setSessionCacheSize(builder.sslSessionCacheSize);
+        }
+        if (builder.sslSessionTimeoutSeconds >= 0) {
+            builder.sslContext.getClientSessionContext().setSessionTimeout(builder.sslSessionTimeoutSeconds);
+        }
+        if (builder.connectTimeoutMillis >= 0) {
+            config.setConnectTimeout(builder.connectTimeoutMillis);
+        }
+        if (builder.readTimeoutMillis >= 0) {
+            config.setReadTimeout(builder.readTimeoutMillis);
+        }
+        if (builder.requestTimeoutMillis >= 0) {
+            config.setRequestTimeout(builder.requestTimeoutMillis);
+        }
+        this.config = config.build();
+        this.provider = new NettyAsyncHttpProvider(this.config);
+    }
+
+    /**
+     * Use this class to create an OpenTokTransport object with optional settings.
+     */
+    public static class Builder {
+        private int maxConnections = -1;
+        private int maxConnectionsPerHost = -1;
+        private int pooledConnectionIdleTimeoutMillis = 60 * 1000;
+        private int connectTimeoutMillis = -1;
+        private int readTimeoutMillis = -1;
+        private int requestTimeoutMillis = -1;
+        private SSLContext sslContext;
+        private HostnameVerifier hostnameVerifier;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeoutSeconds = -1;
+
+        /**
+         * Sets the maximum number of open connections. By default, it is not limited.
+         *
+         * @param maxConnections The maximum number of connections, or -1 for no limit.
+         *
+         * @return The OpenTokTransport.Builder object with the connection limit setting.
+         */
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of open connections to one host. By default, it is not limited.
+         *
+         * @param maxConnectionsPerHost The maximum number of connections, or -1 for no limit.
+         *
+         * @return The OpenTokTransport.Builder object with the connection limit setting.
+         */
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets how long an unused pooled connection is kept open. The default is 60 seconds.
+         *
+         * @param timeout The idle time.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTokTransport.Builder object with the idle timeout setting.
+         */
+        public Builder pooledConnectionIdleTimeout(long timeout, TimeUnit unit) {
+            this.pooledConnectionIdleTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the timeout for opening a connection. The default is 60 seconds.
+         *
+         * @param timeout The connect timeout, or -1 for the default.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTokTransport.Builder object with the connect timeout setting.
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the longest time without receiving data on a connection, after which the request
+         * fails. The default is 60 seconds.
+         *
+         * @param timeout The read timeout, or -1 for the default.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTokTransport.Builder object with the read timeout setting.
+         */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the longest time a request can take, from sending it to receiving the whole
+         * response. The request is then aborted and its connection closed. The default is 60
+         * seconds.
+         *
+         * @param timeout The request timeout, or -1 for the default.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTokTransport.Builder object with the request timeout setting.
+         */
+        public Builder requestTimeout(long timeout, TimeUnit unit) {
+            this.requestTimeoutMillis = toMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets the SSLContext of the TLS connections, for example to trust a private certificate
+         * authority. By default, the transport creates its own SSLContext, with the default key
+         * and trust managers of the JVM.
+         *
+         * @param sslContext The SSLContext to use.
+         *
+         * @return The OpenTokTransport.Builder object with the SSLContext setting.
+         */
+        public Builder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Sets how the name of the host is checked against its certificate. By default, the
+         * name must match the certificate.
+         *
+         * @param hostnameVerifier The HostnameVerifier to use.
+         *
+         * @return The OpenTokTransport.Builder object with the hostname verifier setting.
+         */
+        public Builder hostnameVerifier(HostnameVerifier hostnameVerifier) {
+            this.hostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
+        /**
+         * Sets how many TLS sessions are kept for resumption, and for how long. Note that this
+         * changes the client session cache of the SSLContext, which is the transport's own unless
+         * one is set with {@link #sslContext(SSLContext)}. By default, the cache of the SSLContext
+         * is left as it is.
+         *
+         * @param size The maximum number of sessions, or 0 for no limit.
+         * @param timeout How long a session can be resumed.
+         * @param unit The unit of <code>timeout</code>.
+         *
+         * @return The OpenTokTransport.Builder object with the session cache setting.
+         */
+        public Builder sslSessionCache(int size, long timeout, TimeUnit unit) {
+            this.sslSessionCacheSize = size;
+            this.sslSessionTimeoutSeconds = (int) Math.min(Integer.MAX_VALUE, unit.toSeconds(timeout));
+            return this;
+        }
+
+        /**
+         * Builds the OpenTokTransport object. Its threads are started when it makes its first
+         * request.
+         *
+         * @return The OpenTokTransport object.
+         */
+        public OpenTokTransport build() {
+            if (sslContext == null) {
+                try {
+                    // one SSLContext for all the connections, so that they share its session cache,
+                    // and not the default one of the JVM, whose cache the settings would change
+                    sslContext = SSLContext.getInstance("TLS");
+                    sslContext.init(null, null, null);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("No TLS SSLContext is available.", e);
+                } catch (KeyManagementException e) {
+                    throw new IllegalStateException("The TLS SSLContext could not be initialized.", e);
+                }
+            }
+            return new OpenTokTransport(this);
+        }
+    }
+
+    static int toMillis(long timeout, TimeUnit unit) {
+        return timeout < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+    }
+
+    AsyncHttpClientConfig getConfig() {
+        return config;
+    }
+
+    AsyncHttpProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * The thread that sends the requests delayed by a rate limit, started the first time one is.
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "opentok-delayed-requests");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            if (closed.get()) {
+                scheduler.shutdown();
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes the pooled connections and stops the threads. Requests in progress fail, and the
+     * OpenTok objects that use this transport cannot make requests anymore.
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                }
+            }
+            provider.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+/**
+ * The families of requests that can be given their own {@link Bulkhead}.
+ */
+public enum OperationClass {
+    /**
+     * Creating sessions.
+     */
+    SESSION,
+    /**
+     * Getting and listing archives, and downloading archive files.
+     */
+    ARCHIVE_READ,
+    /**
+     * Starting, stopping, and deleting archives.
+     */
+    ARCHIVE_WRITE;
+
+    static OperationClass of(String method, String url) {
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            return ARCHIVE_READ;
+        }
+        return url.endsWith("/session/create") ? SESSION : ARCHIVE_WRITE;
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which request to the OpenTok API gets the next connection when all of them are in use,
+ * so that the interactive calls keep a steady latency while background jobs use the same API key.
+ * Up to <code>maxConcurrent</code> requests are sent at once; the others wait in a queue for their
+ * {@link RequestPriority}, without blocking the calling thread.
+ * <p>
+ * When a request completes and both queues have requests waiting, up to
+ * <code>interactiveWeight</code> interactive requests are sent for each background one. A
+ * background request that has waited longer than the maximum age is sent next, whatever the
+ * weight, so that background jobs are never starved. Set a very large weight to always send the
+ * interactive requests first, within the maximum age.
+ * <p>
+ * The SDK gives each call a priority: listing and deleting archives are background calls, and
+ * the other calls are interactive. Use {@link com.opentok.OpenTok#withPriority(RequestPriority)}
+ * to change it.
+ * <p>
+ * <pre>
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .transport(new OpenTokTransport.Builder().maxConnectionsPerHost(20).build())
+ *   .requestScheduler(new PriorityScheduler.Builder(20).interactiveWeight(4).build())
+ *   .build();
+ * </pre>
+ * <p>
+ * Set <code>maxConcurrent</code> to the connection limit of the transport, so that the scheduler,
+ * and not the connection pool, decides which request waits. A PriorityScheduler object can be
+ * shared by the OpenTok objects that share a transport.
+ */
+public class PriorityScheduler {
+
+    /**
+     * A request waiting for a connection.
+     */
+    interface Task {
+        /**
+         * Sends the request.
+         *
+         * @return Whether the request was sent and holds its place until it completes, rather
+         * than failing or being cancelled before it was sent.
+         */
+        boolean run();
+    }
+
+    private static class Queued {
+        final Task task;
+        final long queuedNanos;
+
+        Queued(Task task, long queuedNanos) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int interactiveWeight;
+    private final long maxAgeNanos;
+    // guarded by this
+    private final ArrayDeque<Queued> interactive = new ArrayDeque<Queued>();
+    private final ArrayDeque<Queued> background = new ArrayDeque<Queued>();
+    private int active;
+    private int interactiveStreak;
+    private long agedCount;
+
+    private PriorityScheduler(Builder builder) {
+        this.maxConcurrent = builder.maxConcurrent;
+        this.interactiveWeight = builder.interactiveWeight;
+        this.maxAgeNanos = builder.maxAgeNanos;
+    }
+
+    /**
+     * Use this class to create a PriorityScheduler object.
+     */
+    public static class Builder {
+        private final int maxConcurrent;
+        private int interactiveWeight = 4;
+        private long maxAgeNanos = TimeUnit.SECONDS.toNanos(2);
+
+        /**
+         * Creates a Builder for a PriorityScheduler object.
+         *
+         * @param maxConcurrent The maximum number of requests sent at the same time.
+         */
+        public Builder(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        /**
+         * Call this method to set how many interactive requests are sent for each background one
+         * when both are waiting. The default is 4.
+         *
+         * @param interactiveWeight The number of interactive requests for each background one.
+         *
+         * @return The PriorityScheduler.Builder object with the weight setting.
+         */
+        public Builder interactiveWeight(int interactiveWeight) {
+            this.interactiveWeight = interactiveWeight;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long a background request can wait before it is sent
+         * ahead of the interactive ones. The default is 2 seconds.
+         *
+         * @param duration The maximum age.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The PriorityScheduler.Builder object with the maximum age setting.
+         */
+        public Builder maxAge(long duration, TimeUnit unit) {
+            this.maxAgeNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Builds the PriorityScheduler object.
+         *
+         * @return The PriorityScheduler object.
+         */
+        public PriorityScheduler build() {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("maxConcurrent must be at least 1");
+            }
+            if (interactiveWeight < 1) {
+                throw new IllegalArgumentException("interactiveWeight must be at least 1");
+            }
+            return new PriorityScheduler(this);
+        }
+    }
+
+    /**
+     * Takes a place for a request to send right away. It fails when all the places are taken, or
+     * when requests are already waiting, so that they are not overtaken.
+     */
+    synchronized boolean tryAcquire() {
+        if (active < maxConcurrent && interactive.isEmpty() && background.isEmpty()) {
+            active++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queues a request. The task runs on the thread of the request that frees a place for it.
+     */
+    void submit(RequestPriority priority, Task task) {
+        synchronized (this) {
+            if (!(active < maxConcurrent && interactive.isEmpty() && background.isEmpty())) {
+                Queued queued = new Queued(task, System.nanoTime());
+                (priority == RequestPriority.BACKGROUND ? background : interactive).add(queued);
+                return;
+            }
+            active++;
+        }
+        if (!task.run()) {
+            release();
+        }
+    }
+
+    /**
+     * Frees the place of a completed request, and hands it to the next waiting request.
+     */
+    void release() {
+        while (true) {
+            Task next;
+            synchronized (this) {
+                next = poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            // a request cancelled while it waited gives the place to the one after it
+            if (next.run()) {
+                return;
+            }
+        }
+    }
+
+    // guarded by this
+    private Task poll() {
+        Queued first = interactive.peek();
+        Queued waiting = background.peek();
+        if (first == null && waiting == null) {
+            return null;
+        }
+        if (waiting == null) {
+            return interactive.poll().task;
+        }
+        boolean aged = System.nanoTime() - waiting.queuedNanos > maxAgeNanos;
+        if (first == null || aged || interactiveStreak >= interactiveWeight) {
+            if (aged && first != null) {
+                agedCount++;
+            }
+            interactiveStreak = 0;
+            return background.poll().task;
+        }
+        interactiveStreak++;
+        return interactive.poll().task;
+    }
+
+    /**
+     * The maximum number of requests sent at the same time.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * The number of requests sent and not completed.
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    /**
+     * The number of requests of a priority waiting for a place.
+     */
+    public synchronized int getQueueDepth(RequestPriority priority) {
+        return priority == RequestPriority.BACKGROUND ? background.size() : interactive.size();
+    }
+
+    /**
+     * The number of background requests sent ahead of waiting interactive requests because they
+     * reached the maximum age.
+     */
+    public synchronized long getAgedCount() {
+        return agedCount;
+    }
+}
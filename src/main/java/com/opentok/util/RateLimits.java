@@ -0,0 +1,136 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.exception.RequestRejectedException;
+
+/**
+ * The request budgets of an OpenTok object, for each {@link OperationClass} and
+ * {@link RequestPriority}, so that the SDK stays within the rate limits of the OpenTok API. A
+ * request over its budget is not sent right away: it is scheduled for when the budget allows it,
+ * without blocking the calling thread while the request waits. A request that would wait longer
+ * than the maximum wait, or past the deadline of the call, fails with a
+ * {@link RequestRejectedException} instead.
+ * <p>
+ * Each budget is a token bucket: it allows <code>permitsPerSecond</code> requests per second on
+ * average, and bursts of up to <code>burst</code> requests. Interactive and background calls have
+ * separate budgets, so that a background job that uses all of its budget does not delay the
+ * interactive calls:
+ * <p>
+ * <pre>
+ * RateLimits limits = new RateLimits.Builder()
+ *   .limit(OperationClass.SESSION, RequestPriority.INTERACTIVE, 40, 20)
+ *   .limit(OperationClass.ARCHIVE_READ, RequestPriority.BACKGROUND, 5, 5)
+ *   .limit(OperationClass.ARCHIVE_WRITE, RequestPriority.BACKGROUND, 5, 5)
+ *   .build();
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret).rateLimits(limits).build();
+ * opentok.withPriority(RequestPriority.BACKGROUND).deleteArchives(expiredIds);
+ * </pre>
+ * <p>
+ * A RateLimits object only describes the budgets: each OpenTok object that uses it, one per API
+ * key, has its own token buckets. Only the requests to the OpenTok API are counted, not the
+ * downloads of archive files.
+ */
+public class RateLimits {
+
+    private static final int PRIORITIES = RequestPriority.values().length;
+
+    private final double[] permitsPerSecond;
+    private final int[] bursts;
+    private final long maxWaitNanos;
+
+    private RateLimits(Builder builder) {
+        this.permitsPerSecond = builder.permitsPerSecond.clone();
+        this.bursts = builder.bursts.clone();
+        this.maxWaitNanos = builder.maxWaitNanos;
+    }
+
+    /**
+     * Use this class to create a RateLimits object.
+     */
+    public static class Builder {
+        private final double[] permitsPerSecond = new double[OperationClass.values().length * PRIORITIES];
+        private final int[] bursts = new int[permitsPerSecond.length];
+        private long maxWaitNanos = TimeUnit.SECONDS.toNanos(30);
+
+        /**
+         * Call this method to limit the requests of a class of operations made with a priority.
+         * By default, they are not limited.
+         *
+         * @param operationClass The class of operations.
+         * @param priority The priority of the calls.
+         * @param permitsPerSecond The average number of requests per second.
+         * @param burst The number of requests that can be made at once after a quiet period.
+         *
+         * @return The RateLimits.Builder object with the limit setting.
+         */
+        public Builder limit(OperationClass operationClass, RequestPriority priority,
+                double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond must be positive");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst must be at least 1");
+            }
+            int index = index(operationClass, priority);
+            this.permitsPerSecond[index] = permitsPerSecond;
+            this.bursts[index] = burst;
+            return this;
+        }
+
+        /**
+         * Call this method to set how long a request can wait for its budget before it is
+         * rejected. The default is 30 seconds.
+         *
+         * @param duration The maximum wait.
+         * @param unit The unit of the <code>duration</code> parameter.
+         *
+         * @return The RateLimits.Builder object with the wait setting.
+         */
+        public Builder maxWait(long duration, TimeUnit unit) {
+            this.maxWaitNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Builds the RateLimits object.
+         *
+         * @return The RateLimits object.
+         */
+        public RateLimits build() {
+            return new RateLimits(this);
+        }
+    }
+
+    private static int index(OperationClass operationClass, RequestPriority priority) {
+        return operationClass.ordinal() * PRIORITIES + priority.ordinal();
+    }
+
+    /**
+     * Creates the token buckets of one client, with a null entry for each unlimited budget.
+     */
+    TokenBucket[] createBuckets() {
+        TokenBucket[] buckets = new TokenBucket[permitsPerSecond.length];
+        for (int i = 0; i < buckets.length; i++) {
+            if (bursts[i] > 0) {
+                buckets[i] = new TokenBucket(permitsPerSecond[i], bursts[i]);
+            }
+        }
+        return buckets;
+    }
+
+    static TokenBucket bucket(TokenBucket[] buckets, OperationClass operationClass, RequestPriority priority) {
+        return buckets[index(operationClass, priority)];
+    }
+
+    long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+/**
+ * Tells the SDK whether a call is made for a user waiting on it or by a background job, so that
+ * they can be given separate request budgets (see {@link RateLimits}), and so that the
+ * interactive calls go first when the connections are all in use (see {@link PriorityScheduler}).
+ * Listing and deleting archives are background calls by default, and the other calls are
+ * interactive.
+ */
+public enum RequestPriority {
+    /**
+     * Calls made while a user waits, like creating a session for a new conversation or starting
+     * an archive.
+     */
+    INTERACTIVE,
+    /**
+     * Calls made by jobs that can be slowed down, like listing all the archives or deleting old
+     * ones.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,244 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CacheBackend} that stores the entries in a cache server, so that several OpenTok
+ * objects, in one or several processes, share the same cache. The server speaks the protocol of
+ * {@link CacheBackendServer}, which is its reference implementation. Connections to the server
+ * are kept open and reused.
+ * <p>
+ * <pre>
+ * CacheBackend shared = new SocketCacheBackend("cache.internal", 7300);
+ * OpenTok opentok = new OpenTok.Builder(apiKey, apiSecret)
+ *   .archiveCache(new ArchiveCache.Builder().backend(shared).build())
+ *   .build();
+ * </pre>
+ */
+public class SocketCacheBackend implements CacheBackend, Closeable {
+
+    static final int GET = 1;
+    static final int GET_ALL = 2;
+    static final int PUT = 3;
+    static final int INVALIDATE = 4;
+    static final int STATS = 5;
+    static final int OK = 0;
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a SocketCacheBackend object that connects to the server with a timeout of 1 second.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     */
+    public SocketCacheBackend(String host, int port) {
+        this(host, port, 1000);
+    }
+
+    /**
+     * Creates a SocketCacheBackend object.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param timeoutMillis The timeout for connecting and for each response, in milliseconds.
+     */
+    public SocketCacheBackend(String host, int port, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public byte[] get(final String key) throws IOException {
+        return call(new Call<byte[]>() {
+            public byte[] run(DataOutputStream out, DataInputStream in) throws IOException {
+                out.writeByte(GET);
+                out.writeUTF(key);
+                out.flush();
+                checkStatus(in);
+                return readValue(in);
+            }
+        });
+    }
+
+    public Map<String, byte[]> getAll(final Collection<String> keys) throws IOException {
+        return call(new Call<Map<String, byte[]>>() {
+            public Map<String, byte[]> run(DataOutputStream out, DataInputStream in) throws IOException {
+                out.writeByte(GET_ALL);
+                out.writeInt(keys.size());
+                for (String key : keys) {
+                    out.writeUTF(key);
+                }
+                out.flush();
+                checkStatus(in);
+                int found = in.readInt();
+                Map<String, byte[]> values = new HashMap<String, byte[]>();
+                for (int i = 0; i < found; i++) {
+                    values.put(in.readUTF(), readValue(in));
+                }
+                return values;
+            }
+        });
+    }
+
+    public void put(final String key, final byte[] value, long timeToLive, TimeUnit unit) throws IOException {
+        final long timeToLiveMillis = timeToLive == FOREVER ? FOREVER : unit.toMillis(timeToLive);
+        call(new Call<Void>() {
+            public Void run(DataOutputStream out, DataInputStream in) throws IOException {
+                out.writeByte(PUT);
+                out.writeUTF(key);
+                writeValue(out, value);
+                out.writeLong(timeToLiveMillis);
+                out.flush();
+                checkStatus(in);
+                return null;
+            }
+        });
+    }
+
+    public void invalidate(final String key) throws IOException {
+        call(new Call<Void>() {
+            public Void run(DataOutputStream out, DataInputStream in) throws IOException {
+                out.writeByte(INVALIDATE);
+                out.writeUTF(key);
+                out.flush();
+                checkStatus(in);
+                return null;
+            }
+        });
+    }
+
+    public int size() throws IOException {
+        return stats()[0].intValue();
+    }
+
+    public long getEvictionCount() throws IOException {
+        return stats()[1];
+    }
+
+    private Long[] stats() throws IOException {
+        return call(new Call<Long[]>() {
+            public Long[] run(DataOutputStream out, DataInputStream in) throws IOException {
+                out.writeByte(STATS);
+                out.flush();
+                checkStatus(in);
+                return new Long[] { (long) in.readInt(), in.readLong() };
+            }
+        });
+    }
+
+    /**
+     * Closes the open connections to the server.
+     */
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private <T> T call(Call<T> call) throws IOException {
+        if (closed) {
+            throw new IOException("The SocketCacheBackend is closed.");
+        }
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = new Connection(host, port, timeoutMillis);
+        }
+        try {
+            T result = call.run(connection.out, connection.in);
+            if (closed) {
+                connection.close();
+            } else {
+                idle.offer(connection);
+            }
+            return result;
+        } catch (IOException e) {
+            // the stream may be in the middle of a message, so the connection cannot be reused
+            connection.close();
+            throw e;
+        }
+    }
+
+    static void checkStatus(DataInputStream in) throws IOException {
+        int status = in.readByte();
+        if (status != OK) {
+            throw new IOException("The cache server returned the error: " + in.readUTF());
+        }
+    }
+
+    static byte[] readValue(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    static void writeValue(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private interface Call<T> {
+        T run(DataOutputStream out, DataInputStream in) throws IOException;
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(String host, int port, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeoutMillis);
+                socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.Archive;
+import com.opentok.ArchiveCallbackReceiver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArchiveCallbackReceiverTest {
+
+    private ArchiveCallbackReceiver receiver;
+
+    @After
+    public void tearDown() {
+        if (receiver != null) {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void testBurstOfCallbacksIsDeduplicated() throws Exception {
+        receiver = new ArchiveCallbackReceiver.Builder()
+                .path("/callback")
+                .queueCapacity(1000)
+                .build();
+        receiver.start();
+        final URL url = callbackUrl("/callback");
+
+        // every archive is delivered three times, and goes through two statuses
+        List<Callable<Integer>> posts = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 200; i++) {
+            for (final String status : new String[] { "stopped", "available" }) {
+                final String body = payload("ARCHIVE" + i, status);
+                for (int delivery = 0; delivery < 3; delivery++) {
+                    posts.add(new Callable<Integer>() {
+                        public Integer call() throws IOException {
+                            return post(url, body);
+                        }
+                    });
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (Future<Integer> response : executor.invokeAll(posts)) {
+                assertEquals(Integer.valueOf(200), response.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(400, receiver.getAcceptedCount());
+        assertEquals(800, receiver.getDuplicateCount());
+        List<Archive> archives = new ArrayList<Archive>();
+        receiver.drainTo(archives, Integer.MAX_VALUE);
+        assertEquals(400, archives.size());
+        Set<String> keys = new HashSet<String>();
+        for (Archive archive : archives) {
+            assertEquals("SESSIONID", archive.getSessionId());
+            keys.add(archive.getId() + ":" + archive.getStatus());
+        }
+        assertEquals(400, keys.size());
+    }
+
+    @Test
+    public void testFullQueueRejectsAndAcceptsRetry() throws Exception {
+        receiver = new ArchiveCallbackReceiver.Builder()
+                .queueCapacity(1)
+                .offerTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        receiver.start();
+        URL url = callbackUrl("/");
+
+        assertEquals(200, post(url, payload("ARCHIVE1", "available")));
+        assertEquals(503, post(url, payload("ARCHIVE2", "available")));
+        assertEquals(1, receiver.getRejectedCount());
+
+        assertEquals("ARCHIVE1", receiver.poll(1, TimeUnit.SECONDS).getId());
+        assertEquals(200, post(url, payload("ARCHIVE2", "available")));
+        assertEquals("ARCHIVE2", receiver.poll(1, TimeUnit.SECONDS).getId());
+        assertEquals(0, receiver.getDuplicateCount());
+    }
+
+    @Test
+    public void testInvalidCallbackIsRejected() throws Exception {
+        receiver = new ArchiveCallbackReceiver.Builder().build();
+        receiver.start();
+
+        assertEquals(400, post(callbackUrl("/"), "{ not json"));
+        assertEquals(400, post(callbackUrl("/"), "{ \"event\" : \"archive\" }"));
+        assertEquals(0, receiver.getQueueSize());
+    }
+
+    private URL callbackUrl(String path) throws IOException {
+        return new URL("http://localhost:" + receiver.getAddress().getPort() + path);
+    }
+
+    private static String payload(String archiveId, String status) {
+        return "{\n" +
+                "  \"createdAt\" : 1395187836000,\n" +
+                "  \"duration\" : 62,\n" +
+                "  \"event\" : \"archive\",\n" +
+                "  \"id\" : \"" + archiveId + "\",\n" +
+                "  \"name\" : \"\",\n" +
+                "  \"partnerId\" : 123456,\n" +
+                "  \"reason\" : \"\",\n" +
+                "  \"sessionId\" : \"SESSIONID\",\n" +
+                "  \"size\" : 8347554,\n" +
+                "  \"status\" : \"" + status + "\",\n" +
+                "  \"url\" : null\n" +
+                "}";
+    }
+
+    private static int post(URL url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        int statusCode = connection.getResponseCode();
+        connection.disconnect();
+        return statusCode;
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opentok.Archive;
+import com.opentok.ArchiveDownload;
+import com.opentok.DownloadProperties;
+import com.opentok.OpenTok;
+import com.opentok.exception.OpenTokException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArchiveDownloadTest {
+
+    private static final int FILE_SIZE = 5 * 1024 * 1024 + 123;
+
+    private byte[] content;
+    private HttpServer server;
+    private FileServer handler;
+    private File target;
+    private OpenTok sdk;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        handler = new FileServer();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/archive.mp4", handler);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        target = File.createTempFile("archive", ".mp4");
+        target.delete();
+        sdk = new OpenTok(123456, "1234567890abcdef1234567890abcdef1234567890", "http://localhost:8080");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        target.delete();
+        new File(target.getPath() + ".progress").delete();
+    }
+
+    @Test
+    public void testParallelRangeDownload() throws Exception {
+        DownloadProperties properties = new DownloadProperties.Builder()
+                .segmentSize(1024 * 1024)
+                .parallelism(4)
+                .build();
+
+        ArchiveDownload download = sdk.downloadArchive(archive(), target, properties);
+
+        assertEquals(FILE_SIZE, download.getSize());
+        assertEquals(6, download.getSegments());
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertEquals(compositeMd5(content, 1024 * 1024), download.getChecksum());
+        assertFalse(new File(target.getPath() + ".progress").exists());
+        assertFalse(handler.sawAuthHeader);
+    }
+
+    @Test
+    public void testNoCredentialsForHostThatStartsLikeApiUrl() throws Exception {
+        // "http://localhost:45678/archive.mp4" starts with "http://localhost:4567", but is another host
+        String port = String.valueOf(server.getAddress().getPort());
+        OpenTok lookalike = new OpenTok(123456, "1234567890abcdef1234567890abcdef1234567890",
+                "http://localhost:" + port.substring(0, port.length() - 1));
+
+        lookalike.downloadArchive(archive(), target);
+
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertFalse(handler.sawAuthHeader);
+    }
+
+    @Test
+    public void testSingleStreamWithoutRangeSupport() throws Exception {
+        handler.rangeSupport = false;
+
+        ArchiveDownload download = sdk.downloadArchive(archive(), target);
+
+        assertEquals(1, download.getSegments());
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertEquals(md5(content, 0, content.length), download.getChecksum());
+    }
+
+    @Test
+    public void testRetryContinuesIncompleteSegment() throws Exception {
+        // the first range responses are cut short, so those segments need several requests
+        handler.shortResponses.set(4);
+        DownloadProperties properties = new DownloadProperties.Builder()
+                .segmentSize(2 * 1024 * 1024)
+                .maxRetries(1)
+                .build();
+
+        ArchiveDownload download = sdk.downloadArchive(archive(), target, properties);
+
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertEquals(compositeMd5(content, 2 * 1024 * 1024), download.getChecksum());
+    }
+
+    @Test
+    public void testFailedDownloadIsResumed() throws Exception {
+        handler.failRangesFrom = 3 * 1024 * 1024;
+        DownloadProperties properties = new DownloadProperties.Builder()
+                .segmentSize(1024 * 1024)
+                .maxRetries(0)
+                .build();
+
+        try {
+            sdk.downloadArchive(archive(), target, properties);
+            fail("Expected the download to fail");
+        } catch (OpenTokException e) {
+            // expected
+        }
+        assertTrue(new File(target.getPath() + ".progress").exists());
+
+        handler.failRangesFrom = Long.MAX_VALUE;
+        ArchiveDownload download = sdk.downloadArchive(archive(), target, properties);
+
+        assertEquals(3 * 1024 * 1024, download.getResumedBytes());
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertEquals(compositeMd5(content, 1024 * 1024), download.getChecksum());
+    }
+
+    @Test
+    public void testSlowDownloadOutlastsRequestTimeout() throws Exception {
+        handler.pauseMillis = 1000;
+        OpenTok slowSdk = new OpenTok.Builder(123456, "1234567890abcdef1234567890abcdef1234567890")
+                .apiUrl("http://localhost:8080")
+                .requestTimeout(300, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            ArchiveDownload download = slowSdk.downloadArchive(archive(), target);
+            assertTrue(Arrays.equals(content, readFile(target)));
+            assertEquals(download.getSegments(), handler.pauses.get());
+
+            // a single stream restarts from the beginning when it is aborted, so it must not be
+            handler.rangeSupport = false;
+            target.delete();
+            download = slowSdk.downloadArchive(archive(), target);
+            assertEquals(1, download.getSegments());
+            assertTrue(Arrays.equals(content, readFile(target)));
+        } finally {
+            slowSdk.close();
+        }
+    }
+
+    private Archive archive() throws IOException {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/archive.mp4?Signature=abc%2Fdef";
+        return new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\", \"size\" : " +
+                FILE_SIZE + ", \"url\" : \"" + url + "\" }", Archive.class);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static String md5(byte[] bytes, int offset, int length) throws Exception {
+        return toHex(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(bytes, offset, offset + length)));
+    }
+
+    private static String compositeMd5(byte[] bytes, int segmentSize) throws Exception {
+        MessageDigest composite = MessageDigest.getInstance("MD5");
+        int segments = 0;
+        for (int start = 0; start < bytes.length; start += segmentSize) {
+            int end = Math.min(start + segmentSize, bytes.length);
+            composite.update(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(bytes, start, end)));
+            segments++;
+        }
+        return toHex(composite.digest()) + "-" + segments;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A stand-in for the archive storage host, serving one file with optional range support.
+     */
+    private class FileServer implements HttpHandler {
+        volatile boolean rangeSupport = true;
+        volatile boolean sawAuthHeader = false;
+        volatile long failRangesFrom = Long.MAX_VALUE;
+        final AtomicInteger shortResponses = new AtomicInteger(0);
+        volatile long pauseMillis = 0;
+        final AtomicInteger pauses = new AtomicInteger(0);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            if (exchange.getRequestHeaders().getFirst("X-TB-PARTNER-AUTH") != null) {
+                sawAuthHeader = true;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0;
+            int end = content.length - 1;
+            if (rangeSupport && range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+                if (start >= failRangesFrom) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                if (end > start && shortResponses.getAndDecrement() > 0) {
+                    // answer with only the first half of the requested range
+                    end = start + (end - start) / 2;
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + content.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+            } else {
+                exchange.sendResponseHeaders(200, content.length);
+            }
+            OutputStream out = exchange.getResponseBody();
+            int half = (end - start + 1) / 2;
+            out.write(content, start, half);
+            if (pauseMillis > 0 && half > 0) {
+                // a slow transfer in the middle of the body, not a stall before the response
+                out.flush();
+                pauses.incrementAndGet();
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            out.write(content, start + half, end - start + 1 - half);
+            out.close();
+        }
+    }
+}
@@ -7,21 +7,65 @@
  */
 package com.opentok.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.Socket;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 
 import com.opentok.*;
 import com.opentok.Archive.OutputMode;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang.StringUtils;
 
 import com.opentok.constants.Version;
+import com.opentok.exception.ConcurrencyLimitException;
 import com.opentok.exception.OpenTokException;
 import com.opentok.exception.InvalidArgumentException;
+import com.opentok.exception.RequestException;
+import com.opentok.exception.RequestRejectedException;
+import com.opentok.util.AdaptiveLimiter;
+import com.opentok.util.Bulkhead;
+import com.opentok.util.CacheBackendServer;
+import com.opentok.util.DrainReport;
+import com.opentok.util.InMemoryCacheBackend;
+import com.opentok.util.OpenTokTransport;
+import com.opentok.util.HedgePolicy;
+import com.opentok.util.HttpClient;
+import com.opentok.util.OperationClass;
+import com.opentok.util.PriorityScheduler;
+import com.opentok.util.RateLimits;
+import com.opentok.util.RequestPriority;
+import com.opentok.util.SocketCacheBackend;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -30,8 +74,12 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 
 public class OpenTokTest {
 
@@ -407,6 +455,544 @@ public class OpenTokTest {
 
     // TODO: test get archive failure scenarios
 
+    @Test
+    public void testGetArchiveIsCachedByStatus() throws OpenTokException {
+        ArchiveCache cache = new ArchiveCache.Builder().build();
+        OpenTok cachingSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveCache(cache).build();
+        stubArchive("EXPIREDID", "expired");
+        stubArchive("STARTEDID", "started");
+
+        assertEquals(Archive.Status.EXPIRED, cachingSdk.getArchive("EXPIREDID").getStatus());
+        assertEquals(Archive.Status.EXPIRED, cachingSdk.getArchive("EXPIREDID").getStatus());
+        verify(1, getRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/EXPIREDID")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // a zero time to live turns caching off for that status
+        ArchiveCache noInProgress = new ArchiveCache.Builder()
+                .timeToLive(Archive.Status.STARTED, 0, TimeUnit.SECONDS)
+                .build();
+        OpenTok uncachedSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveCache(noInProgress).build();
+        uncachedSdk.getArchive("STARTEDID");
+        uncachedSdk.getArchive("STARTEDID");
+        verify(2, getRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/STARTEDID")));
+    }
+
+    @Test
+    public void testArchiveCacheInvalidatedByDelete() throws OpenTokException {
+        ArchiveCache cache = new ArchiveCache.Builder().maximumSize(1).build();
+        OpenTok cachingSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveCache(cache).build();
+        stubArchive("ARCHIVE1", "available");
+        stubArchive("ARCHIVE2", "available");
+        stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE2"))
+                .willReturn(aResponse().withStatus(204)));
+
+        cachingSdk.getArchive("ARCHIVE1");
+        cachingSdk.getArchive("ARCHIVE2");
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.size());
+
+        cachingSdk.deleteArchive("ARCHIVE2");
+        assertNull(cache.get("ARCHIVE2"));
+        cachingSdk.getArchive("ARCHIVE2");
+        verify(2, getRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVE2")));
+    }
+
+    @Test
+    public void testArchiveReadDuringDeleteIsNotCached() throws Exception {
+        ArchiveCache cache = new ArchiveCache.Builder().build();
+        final OpenTok cachingSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveCache(cache).build();
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\", \"size\" : 100 }")
+                        .withFixedDelay(300)));
+        stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))
+                .willReturn(aResponse().withStatus(204)));
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    cachingSdk.getArchive("ARCHIVEID");
+                } catch (OpenTokException e) {
+                    // the result is checked through the cache
+                }
+            }
+        });
+        reader.start();
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while (findAll(getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))).isEmpty()
+                && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        // the read is in progress when the archive is deleted, and completes after
+        cachingSdk.deleteArchive("ARCHIVEID");
+        reader.join();
+
+        assertNull(cache.get("ARCHIVEID"));
+        stubArchive("ARCHIVEID", "deleted");
+        assertEquals(Archive.Status.DELETED, cachingSdk.getArchive("ARCHIVEID").getStatus());
+        verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+    }
+
+    @Test
+    public void testCachesSharedThroughSocketBackend() throws Exception {
+        CacheBackendServer server = new CacheBackendServer(new InMemoryCacheBackend(100));
+        server.start(0);
+        SocketCacheBackend backend1 = new SocketCacheBackend("localhost", server.getPort());
+        SocketCacheBackend backend2 = new SocketCacheBackend("localhost", server.getPort());
+        try {
+            OpenTok node1 = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                    .archiveCache(new ArchiveCache.Builder().backend(backend1).build())
+                    .archiveListCache(new ArchiveListCache.Builder().backend(backend1).build())
+                    .build();
+            OpenTok node2 = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                    .archiveCache(new ArchiveCache.Builder().backend(backend2).build())
+                    .archiveListCache(new ArchiveListCache.Builder().backend(backend2).build())
+                    .build();
+            stubArchive("ARCHIVEID", "available");
+            stubArchiveList(2);
+            stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))
+                    .willReturn(aResponse().withStatus(204)));
+
+            assertEquals(Archive.Status.AVAILABLE, node1.getArchive("ARCHIVEID").getStatus());
+            assertEquals(Archive.Status.AVAILABLE, node2.getArchive("ARCHIVEID").getStatus());
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+            assertEquals(1, node2.getArchiveCache().getHitCount());
+
+            assertEquals(2, node1.listArchives(0, 10).getTotalCount());
+            assertEquals(2, node2.listArchives(0, 10).getTotalCount());
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10")));
+
+            // a delete on one node drops the entries for both
+            node1.deleteArchive("ARCHIVEID");
+            node2.getArchive("ARCHIVEID");
+            node2.listArchives(0, 10);
+            verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+            verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10")));
+        } finally {
+            backend1.close();
+            backend2.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testProjectsSharingBackendDoNotSeeEachOther() throws Exception {
+        int otherApiKey = apiKey + 1;
+        CacheBackendServer server = new CacheBackendServer(new InMemoryCacheBackend(100));
+        server.start(0);
+        SocketCacheBackend backend = new SocketCacheBackend("localhost", server.getPort());
+        try {
+            OpenTok first = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                    .archiveCache(new ArchiveCache.Builder().backend(backend).build())
+                    .archiveListCache(new ArchiveListCache.Builder().backend(backend).build())
+                    .build();
+            OpenTok second = new OpenTok.Builder(otherApiKey, apiSecret).apiUrl(apiUrl)
+                    .archiveCache(new ArchiveCache.Builder().backend(backend).build())
+                    .archiveListCache(new ArchiveListCache.Builder().backend(backend).build())
+                    .build();
+            stubArchive("ARCHIVEID", "available");
+            stubArchiveList(2);
+            stubFor(get(urlEqualTo("/v2/partner/"+otherApiKey+"/archive/ARCHIVEID"))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withHeader("Content-Type", "application/json")
+                            .withBody("{ \"id\" : \"ARCHIVEID\", \"status\" : \"started\" }")));
+            stubFor(get(urlEqualTo("/v2/partner/"+otherApiKey+"/archive?count=10"))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withHeader("Content-Type", "application/json")
+                            .withBody("{\"count\" : 5, \"items\" : []}")));
+            stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))
+                    .willReturn(aResponse().withStatus(204)));
+
+            assertEquals(Archive.Status.AVAILABLE, first.getArchive("ARCHIVEID").getStatus());
+            assertEquals(Archive.Status.STARTED, second.getArchive("ARCHIVEID").getStatus());
+            assertEquals(2, first.listArchives(0, 10).getTotalCount());
+            assertEquals(5, second.listArchives(0, 10).getTotalCount());
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+otherApiKey+"/archive/ARCHIVEID")));
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+otherApiKey+"/archive?count=10")));
+
+            // the invalidations of one project keep the entries of the other
+            first.deleteArchive("ARCHIVEID");
+            first.getArchiveCache().invalidateAll();
+            assertEquals(Archive.Status.STARTED, second.getArchive("ARCHIVEID").getStatus());
+            assertEquals(5, second.listArchives(0, 10).getTotalCount());
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+otherApiKey+"/archive/ARCHIVEID")));
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+otherApiKey+"/archive?count=10")));
+
+            second.getArchiveCache().invalidateAll();
+            second.getArchive("ARCHIVEID");
+            verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+otherApiKey+"/archive/ARCHIVEID")));
+            assertTrue(second.getArchiveCache().size() > 0);
+            assertEquals(0, second.getArchiveCache().getEvictionCount());
+        } finally {
+            backend.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testArchiveCacheSharedByProjects() throws OpenTokException {
+        ArchiveCache cache = new ArchiveCache.Builder().build();
+        OpenTok first = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveCache(cache).build();
+        OpenTok second = new OpenTok.Builder(apiKey + 1, apiSecret).apiUrl(apiUrl).archiveCache(cache).build();
+        stubArchive("ARCHIVEID", "expired");
+        stubFor(get(urlEqualTo("/v2/partner/"+(apiKey + 1)+"/archive/ARCHIVEID"))
+                .willReturn(aResponse().withStatus(404)));
+
+        first.getArchive("ARCHIVEID");
+        assertSame(cache, first.getArchiveCache());
+        assertNotNull(cache.get("ARCHIVEID"));
+        assertNull(second.getArchiveCache().get("ARCHIVEID"));
+        try {
+            second.getArchive("ARCHIVEID");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            // the archive of the first project is not returned
+        }
+    }
+
+    private void stubArchive(String archiveId, String status) {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\n" +
+                                "          \"createdAt\" : 1395187836000,\n" +
+                                "          \"duration\" : 62,\n" +
+                                "          \"id\" : \"" + archiveId + "\",\n" +
+                                "          \"name\" : \"\",\n" +
+                                "          \"partnerId\" : 123456,\n" +
+                                "          \"reason\" : \"\",\n" +
+                                "          \"sessionId\" : \"SESSIONID\",\n" +
+                                "          \"size\" : 8347554,\n" +
+                                "          \"status\" : \"" + status + "\",\n" +
+                                "          \"url\" : null\n" +
+                                "        }")));
+    }
+
+    @Test
+    public void testListArchivesServesStalePageWhileRevalidating() throws Exception {
+        ArchiveListCache cache = new ArchiveListCache.Builder()
+                .freshFor(200, TimeUnit.MILLISECONDS)
+                .build();
+        OpenTok cachingSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveListCache(cache).build();
+        stubArchiveList(2);
+
+        assertEquals(2, cachingSdk.listArchives(0, 10).getTotalCount());
+        assertEquals(2, cachingSdk.listArchives(0, 10).getTotalCount());
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10")));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        Thread.sleep(250);
+        stubArchiveList(3);
+        // the stale page is returned right away and refreshed in the background
+        assertEquals(2, cachingSdk.listArchives(0, 10).getTotalCount());
+        assertEquals(1, cache.getStaleHitCount());
+        for (int i = 0; i < 100 && cache.getRevalidationCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(3, cachingSdk.listArchives(0, 10).getTotalCount());
+        verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10")));
+    }
+
+    @Test
+    public void testClosingLastUserStopsArchiveListCacheThread() throws Exception {
+        Set<Thread> earlier = refreshThreads();
+        ArchiveListCache cache = new ArchiveListCache.Builder()
+                .freshFor(1, TimeUnit.MILLISECONDS)
+                .build();
+        OpenTok first = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveListCache(cache).build();
+        OpenTok second = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveListCache(cache).build();
+        stubArchiveList(2);
+
+        first.listArchives(0, 10);
+        Thread.sleep(10);
+        first.listArchives(0, 10);
+        for (int i = 0; i < 100 && cache.getRevalidationCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Set<Thread> started = refreshThreads();
+        started.removeAll(earlier);
+        assertEquals(1, started.size());
+        Thread refreshThread = started.iterator().next();
+
+        // a view does not release the cache twice, and the other OpenTok object still uses it
+        first.withDeadline(1, TimeUnit.SECONDS).close();
+        first.close();
+        refreshThread.join(200);
+        assertTrue(refreshThread.isAlive());
+
+        second.close();
+        refreshThread.join(5000);
+        assertFalse(refreshThread.isAlive());
+    }
+
+    private static Set<Thread> refreshThreads() {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("opentok-archive-list-cache")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void testListArchivesCacheInvalidatedByStop() throws OpenTokException {
+        ArchiveListCache cache = new ArchiveListCache.Builder().build();
+        OpenTok cachingSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).archiveListCache(cache).build();
+        stubArchiveList(2);
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID/stop"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"ARCHIVEID\", \"status\" : \"stopped\"}")));
+
+        cachingSdk.listArchives(0, 10);
+        cachingSdk.listArchives(0, 10);
+        cachingSdk.stopArchive("ARCHIVEID");
+        cachingSdk.listArchives(0, 10);
+        verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10")));
+    }
+
+    private void stubArchiveList(int count) {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count=10"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"count\" : " + count + ", \"items\" : []}")));
+    }
+
+    @Test
+    public void testArchiveChangeFeed() throws OpenTokException {
+        ArchiveChangeFeed feed = new ArchiveChangeFeed.Builder(sdk).pageSize(10).build();
+        final List<ArchiveChangeEvent> received = new ArrayList<ArchiveChangeEvent>();
+        feed.addListener(new ArchiveChangeListener() {
+            public void onArchiveChange(ArchiveChangeEvent event) {
+                received.add(event);
+            }
+        });
+
+        stubArchiveListItems(10, "{\"id\":\"A\",\"status\":\"started\",\"createdAt\":3}",
+                "{\"id\":\"B\",\"status\":\"available\",\"size\":100,\"createdAt\":2}",
+                "{\"id\":\"C\",\"status\":\"available\",\"size\":100,\"createdAt\":1}");
+        assertTrue(feed.poll().isEmpty());
+
+        stubArchiveListItems(10, "{\"id\":\"D\",\"status\":\"started\",\"createdAt\":4}",
+                "{\"id\":\"A\",\"status\":\"stopped\",\"duration\":20,\"createdAt\":3}",
+                "{\"id\":\"C\",\"status\":\"available\",\"size\":100,\"createdAt\":1}");
+        List<ArchiveChangeEvent> events = feed.poll();
+        assertEquals(events, received);
+        assertEquals(3, events.size());
+        assertEquals(ArchiveChangeEvent.Type.CREATED, events.get(0).getType());
+        assertEquals("D", events.get(0).getArchiveId());
+        assertEquals(ArchiveChangeEvent.Type.STATUS_CHANGED, events.get(1).getType());
+        assertEquals(Archive.Status.STARTED, events.get(1).getPreviousStatus());
+        assertEquals(Archive.Status.STOPPED, events.get(1).getArchive().getStatus());
+        assertEquals(ArchiveChangeEvent.Type.DELETED, events.get(2).getType());
+        assertEquals("B", events.get(2).getArchiveId());
+        assertNull(events.get(2).getArchive());
+
+        stubArchiveListItems(10, "{\"id\":\"D\",\"status\":\"started\",\"duration\":5,\"createdAt\":4}",
+                "{\"id\":\"A\",\"status\":\"stopped\",\"duration\":20,\"createdAt\":3}",
+                "{\"id\":\"C\",\"status\":\"available\",\"size\":100,\"createdAt\":1}");
+        events = feed.poll();
+        assertEquals(1, events.size());
+        assertEquals(ArchiveChangeEvent.Type.UPDATED, events.get(0).getType());
+        assertEquals(Archive.Status.STARTED, events.get(0).getPreviousStatus());
+    }
+
+    @Test
+    public void testArchiveChangeFeedIgnoresArchivesPushedOutOfWindow() throws OpenTokException {
+        ArchiveChangeFeed feed = new ArchiveChangeFeed.Builder(sdk).pageSize(2).build();
+
+        stubArchiveListItems(2, "{\"id\":\"A\",\"status\":\"available\",\"createdAt\":2}",
+                "{\"id\":\"B\",\"status\":\"available\",\"createdAt\":1}");
+        feed.poll();
+        stubArchiveListItems(2, "{\"id\":\"C\",\"status\":\"started\",\"createdAt\":3}",
+                "{\"id\":\"A\",\"status\":\"available\",\"createdAt\":2}");
+        List<ArchiveChangeEvent> events = feed.poll();
+        assertEquals(1, events.size());
+        assertEquals(ArchiveChangeEvent.Type.CREATED, events.get(0).getType());
+        assertEquals("C", events.get(0).getArchiveId());
+    }
+
+    @Test
+    public void testCompactArchiveList() throws OpenTokException {
+        stubArchiveListItems(10,
+                "{\"id\":\"ef546c5a-4fd7-4e59-ab3d-f1cfb4148d1d\",\"status\":\"available\",\"createdAt\":1395187930000," +
+                        "\"duration\":22,\"size\":2909274,\"partnerId\":123456,\"sessionId\":\"SESSIONID\",\"name\":\"\"," +
+                        "\"reason\":\"\",\"url\":\"http://example.com/archive.mp4\",\"hasVideo\":false}",
+                "{\"id\":\"EF546C5A-4FD7-4E59-AB3D-F1CFB4148D1D\",\"status\":\"started\",\"sessionId\":\"SESSIONID\"," +
+                        "\"outputMode\":\"individual\",\"hasAudio\":false}",
+                "{\"id\":\"NOT-A-UUID\",\"name\":\"named\"}");
+        ArchiveList archives = sdk.listArchives(0, 10);
+
+        CompactArchiveList compact = CompactArchiveList.copyOf(archives);
+
+        assertEquals(3, compact.size());
+        assertEquals(3, compact.getTotalCount());
+        for (int i = 0; i < archives.size(); i++) {
+            Archive expected = archives.get(i);
+            Archive actual = compact.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+            assertEquals(expected.getDuration(), actual.getDuration());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.getPartnerId(), actual.getPartnerId());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getSessionId(), actual.getSessionId());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getReason(), actual.getReason());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.hasAudio(), actual.hasAudio());
+            assertEquals(expected.hasVideo(), actual.hasVideo());
+            assertEquals(expected.getOutputMode(), actual.getOutputMode());
+            assertEquals(expected.toString(), actual.toString());
+        }
+        assertNull(compact.getStatus(2));
+    }
+
+    @Test
+    public void testListArchivesWithProjection() throws OpenTokException {
+        stubArchiveListItems(10,
+                "{\"id\":\"ARCHIVE1\",\"status\":\"available\",\"sessionId\":\"SESSIONID\",\"size\":100," +
+                        "\"url\":\"http://example.com/archive.mp4\",\"extra\":{\"nested\":[1,2]}}",
+                "{\"id\":\"ARCHIVE2\",\"status\":null,\"hasVideo\":false}");
+
+        ArchiveList archives = sdk.listArchives(0, 10,
+                EnumSet.of(Archive.Field.STATUS, Archive.Field.SESSION_ID, Archive.Field.HAS_VIDEO));
+
+        assertEquals(2, archives.getTotalCount());
+        assertEquals(2, archives.size());
+        assertEquals("ARCHIVE1", archives.get(0).getId());
+        assertEquals(Archive.Status.AVAILABLE, archives.get(0).getStatus());
+        assertEquals("SESSIONID", archives.get(0).getSessionId());
+        assertEquals(0, archives.get(0).getSize());
+        assertNull(archives.get(0).getUrl());
+        assertNull(archives.get(1).getStatus());
+        assertFalse(archives.get(1).hasVideo());
+    }
+
+    @Test
+    public void testGetArchiveWithProjection() throws OpenTokException {
+        stubArchive("ARCHIVEID", "stopped");
+
+        Archive archive = sdk.getArchive("ARCHIVEID", EnumSet.of(Archive.Field.SIZE));
+
+        assertEquals("ARCHIVEID", archive.getId());
+        assertEquals(8347554, archive.getSize());
+        assertNull(archive.getStatus());
+        assertNull(archive.getSessionId());
+        assertEquals(0, archive.getCreatedAt());
+    }
+
+    @Test
+    public void testProjectionFallsBackToDatabind() throws OpenTokException {
+        stubArchiveListItems(10,
+                "{\"id\":\"ARCHIVE1\",\"status\":\"available\",\"size\":\"100\",\"duration\":\"22\"}");
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE1"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\":\"ARCHIVE1\",\"status\":\"available\",\"size\":\"100\",\"duration\":\"22\"}")));
+
+        ArchiveList archives = sdk.listArchives(0, 10, EnumSet.of(Archive.Field.SIZE));
+        Archive archive = sdk.getArchive("ARCHIVE1", EnumSet.of(Archive.Field.SIZE));
+
+        for (Archive read : Arrays.asList(archives.get(0), archive)) {
+            assertEquals("ARCHIVE1", read.getId());
+            assertEquals(100, read.getSize());
+            // the databind result is projected like the one of the streaming codec
+            assertEquals(0, read.getDuration());
+            assertNull(read.getStatus());
+        }
+        assertEquals(1, archives.getTotalCount());
+    }
+
+    @Test
+    public void testArchiveCodecMatchesDatabind() throws Exception {
+        stubArchiveListItems(10,
+                "{\"id\":\"ARCHIVE1\",\"status\":\"available\",\"createdAt\":1395187930000,\"duration\":22," +
+                        "\"size\":2909274,\"partnerId\":123456,\"sessionId\":\"SESSIONID\",\"name\":\"a \\\"name\\\"\"," +
+                        "\"reason\":\"\",\"url\":null,\"hasVideo\":false,\"outputMode\":\"individual\",\"unknown\":[{}]}",
+                // the streaming codec falls back to databind for values it does not map itself
+                "{\"id\":\"ARCHIVE2\",\"status\":\"started\",\"size\":\"100\"}");
+
+        ArchiveList archives = sdk.listArchives(0, 10);
+
+        assertEquals(2, archives.size());
+        assertEquals("a \"name\"", archives.get(0).getName());
+        assertFalse(archives.get(0).hasVideo());
+        assertEquals(Archive.OutputMode.INDIVIDUAL, archives.get(0).getOutputMode());
+        assertEquals(100, archives.get(1).getSize());
+        ObjectMapper mapper = new ObjectMapper();
+        for (Archive archive : archives) {
+            assertEquals(mapper.readTree(mapper.writeValueAsString(archive)), mapper.readTree(archive.toString()));
+        }
+    }
+
+    @Test
+    public void testArchiveSerializerRoundTrip() throws OpenTokException {
+        stubArchiveListItems(10,
+                "{\"id\":\"ef546c5a-4fd7-4e59-ab3d-f1cfb4148d1d\",\"status\":\"available\",\"createdAt\":1395187930000," +
+                        "\"duration\":22,\"size\":2909274,\"partnerId\":123456,\"sessionId\":\"SESSIONID\",\"name\":\"n\u00e4me\"," +
+                        "\"reason\":\"\",\"url\":\"http://example.com/archive.mp4\",\"hasVideo\":false}",
+                "{\"id\":\"NOT-A-UUID\",\"status\":null,\"outputMode\":\"individual\",\"hasAudio\":false,\"size\":-1}");
+        ArchiveList archives = sdk.listArchives(0, 10);
+
+        byte[] encoded = ArchiveSerializer.serialize(archives);
+        ArchiveList decoded = ArchiveSerializer.deserializeArchiveList(encoded);
+
+        assertEquals(archives.getTotalCount(), decoded.getTotalCount());
+        assertEquals(archives.size(), decoded.size());
+        for (int i = 0; i < archives.size(); i++) {
+            assertEquals(archives.get(i).toString(), decoded.get(i).toString());
+            assertEquals(archives.get(i).toString(),
+                    ArchiveSerializer.deserializeArchive(ArchiveSerializer.serialize(archives.get(i))).toString());
+        }
+        assertTrue(encoded.length * 3 < archives.get(0).toString().length() + archives.get(1).toString().length());
+
+        try {
+            ArchiveSerializer.deserializeArchive(encoded);
+            fail("an encoded list is not an encoded archive");
+        } catch (InvalidArgumentException e) {
+            // expected
+        }
+        encoded[1] = (byte) (ArchiveSerializer.VERSION + 1);
+        try {
+            ArchiveSerializer.deserializeArchiveList(encoded);
+            fail("newer format versions are rejected");
+        } catch (InvalidArgumentException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+        try {
+            ArchiveSerializer.deserializeArchive(Arrays.copyOf(ArchiveSerializer.serialize(archives.get(0)), 20));
+            fail("truncated data is rejected");
+        } catch (InvalidArgumentException e) {
+            // expected
+        }
+    }
+
+    private void stubArchiveListItems(int count, String... items) {
+        StringBuilder body = new StringBuilder("{\"count\" : ").append(items.length).append(", \"items\" : [");
+        for (int i = 0; i < items.length; i++) {
+            body.append(i == 0 ? "" : ",").append(items[i]);
+        }
+        body.append("]}");
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive?count="+count))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(body.toString())));
+    }
+
     @Test
     public void testListArchives() throws OpenTokException {
 
@@ -514,6 +1100,79 @@ public class OpenTokTest {
 
     // TODO: test list archives failure scenarios
 
+    @Test
+    public void testConcurrentStartArchiveSharesOneRequest() throws Exception {
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"ARCHIVEID\", \"sessionId\" : \"SESSIONID\", \"status\" : \"started\"}")));
+
+        final int callers = 4;
+        final CountDownLatch ready = new CountDownLatch(callers);
+        final List<Archive> archives = Collections.synchronizedList(new ArrayList<Archive>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    ready.countDown();
+                    try {
+                        ready.await();
+                        archives.add(sdk.startArchive("SESSIONID"));
+                    } catch (Exception e) {
+                        // a missing result fails the assertions below
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(callers, archives.size());
+        for (Archive archive : archives) {
+            assertEquals("ARCHIVEID", archive.getId());
+        }
+        verify(1, postRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive")));
+    }
+
+    @Test
+    public void testConcurrentStartArchiveWithOtherPropertiesMakesItsOwnRequest() throws Exception {
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\" : \"ARCHIVEID\", \"sessionId\" : \"SESSIONID\", \"status\" : \"started\"}")));
+
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    sdk.startArchive("SESSIONID", "first");
+                } catch (OpenTokException e) {
+                    // only the requests are checked
+                }
+            }
+        });
+        first.start();
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while (findAll(postRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive"))).isEmpty()
+                && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        // the first start is in progress when a start with another name is made
+        sdk.startArchive("SESSIONID", new ArchiveProperties.Builder().name("second")
+                .outputMode(OutputMode.INDIVIDUAL).build());
+        first.join();
+
+        verify(2, postRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive")));
+        verify(1, postRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive"))
+                .withRequestBody(matching(".*\"second\".*")));
+    }
+
     @Test
     public void testStartArchive() throws OpenTokException {
         String sessionId = "SESSIONID";
@@ -746,6 +1405,1037 @@ public class OpenTokTest {
 
     // TODO: test delete archive failure scenarios
 
+    @Test
+    public void testStopArchives() throws OpenTokException {
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE1/stop"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\n" +
+                                "          \"createdAt\" : 1395183243000,\n" +
+                                "          \"duration\" : 0,\n" +
+                                "          \"id\" : \"ARCHIVE1\",\n" +
+                                "          \"name\" : \"\",\n" +
+                                "          \"partnerId\" : 123456,\n" +
+                                "          \"reason\" : \"\",\n" +
+                                "          \"sessionId\" : \"SESSIONID\",\n" +
+                                "          \"size\" : 0,\n" +
+                                "          \"status\" : \"stopped\",\n" +
+                                "          \"url\" : null\n" +
+                                "        }")));
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE2/stop"))
+                .willReturn(aResponse().withStatus(404)));
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE3/stop"))
+                .willReturn(aResponse().withStatus(409)));
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE4/stop"))
+                .willReturn(aResponse().withStatus(503)));
+
+        Map<String, ArchiveOperationResult> results = sdk.stopArchives(
+                Arrays.asList("ARCHIVE1", "ARCHIVE2", "ARCHIVE3", "ARCHIVE4"), 2);
+
+        assertEquals(Arrays.asList("ARCHIVE1", "ARCHIVE2", "ARCHIVE3", "ARCHIVE4"),
+                new ArrayList<String>(results.keySet()));
+        assertTrue(results.get("ARCHIVE1").isSuccess());
+        assertEquals(Archive.Status.STOPPED, results.get("ARCHIVE1").getArchive().getStatus());
+        assertEquals(ArchiveOperationResult.ErrorType.NOT_FOUND, results.get("ARCHIVE2").getErrorType());
+        assertEquals(ArchiveOperationResult.ErrorType.CONFLICT, results.get("ARCHIVE3").getErrorType());
+        assertEquals(ArchiveOperationResult.ErrorType.SERVER_ERROR, results.get("ARCHIVE4").getErrorType());
+        assertFalse(results.get("ARCHIVE4").isSuccess());
+    }
+
+    @Test
+    public void testDeleteArchives() throws OpenTokException {
+        List<String> archiveIds = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            String archiveId = "ARCHIVE" + i;
+            archiveIds.add(archiveId);
+            stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                    .willReturn(aResponse()
+                            .withStatus(i % 10 == 0 ? 409 : 204)
+                            .withHeader("Content-Type", "application/json")));
+        }
+
+        Map<String, ArchiveOperationResult> results = sdk.deleteArchives(archiveIds);
+
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; i++) {
+            ArchiveOperationResult result = results.get("ARCHIVE" + i);
+            if (i % 10 == 0) {
+                assertEquals(ArchiveOperationResult.ErrorType.CONFLICT, result.getErrorType());
+                assertEquals(409, ((RequestException) result.getError()).getStatusCode());
+            } else {
+                assertTrue(result.isSuccess());
+                assertNull(result.getArchive());
+            }
+        }
+        verify(50, deleteRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/.*"))
+                .withHeader("X-TB-PARTNER-AUTH", matching(this.apiKey+":"+this.apiSecret)));
+    }
+
+    @Test
+    public void testDeleteArchivesRecordsRequestsThatCannotStart() throws OpenTokException {
+        // the requests cannot even be made with this URL
+        OpenTok broken = new OpenTok.Builder(apiKey, apiSecret).apiUrl("http://[broken").build();
+
+        Map<String, ArchiveOperationResult> results = broken.deleteArchives(
+                Arrays.asList("ARCHIVE1", "ARCHIVE2", "ARCHIVE3"), 1);
+
+        assertEquals(3, results.size());
+        for (ArchiveOperationResult result : results.values()) {
+            assertFalse(result.isSuccess());
+            assertEquals(ArchiveOperationResult.ErrorType.OTHER, result.getErrorType());
+        }
+        broken.close();
+    }
+
+    @Test
+    public void testDeleteArchiveFailureHasStatusCode() throws OpenTokException {
+        String archiveId = "ARCHIVEID";
+        stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/"+archiveId))
+                .willReturn(aResponse().withStatus(409)));
+
+        try {
+            sdk.deleteArchive(archiveId);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testStopArchiveRejectedWhenKnownStopped() throws OpenTokException {
+        stubFor(post(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID/stop"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"ARCHIVEID\", \"sessionId\" : \"SESSIONID\", \"status\" : \"stopped\" }")));
+
+        sdk.stopArchive("ARCHIVEID");
+        try {
+            sdk.stopArchive("ARCHIVEID");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+        verify(1, postRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID/stop")));
+
+        OpenTok uncheckedSdk = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .archiveStateChecks(false).build();
+        uncheckedSdk.stopArchive("ARCHIVEID");
+        uncheckedSdk.stopArchive("ARCHIVEID");
+        verify(3, postRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID/stop")));
+    }
+
+    @Test
+    public void testDeleteArchivesRejectedWhenKnownExpired() throws OpenTokException {
+        stubArchive("ARCHIVE1", "expired");
+        stubArchive("ARCHIVE2", "started");
+        stubFor(delete(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVE.*"))
+                .willReturn(aResponse().withStatus(204)));
+
+        sdk.getArchive("ARCHIVE1");
+        sdk.getArchive("ARCHIVE2");
+        Map<String, ArchiveOperationResult> results = sdk.deleteArchives(Arrays.asList("ARCHIVE1", "ARCHIVE2"));
+
+        assertEquals(ArchiveOperationResult.ErrorType.CONFLICT, results.get("ARCHIVE1").getErrorType());
+        assertEquals(409, ((RequestException) results.get("ARCHIVE1").getError()).getStatusCode());
+        // a started archive may have become available since it was read
+        assertTrue(results.get("ARCHIVE2").isSuccess());
+        verify(0, deleteRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVE1")));
+        verify(1, deleteRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/ARCHIVE2")));
+    }
+
+    @Test
+    public void testDeleteArchiveAcceptedWhenKnownDeleted() throws OpenTokException {
+        stubArchive("ARCHIVEID", "deleted");
+        stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID"))
+                .willReturn(aResponse().withStatus(204)));
+
+        // the OpenTok API accepts deleting an archive again
+        sdk.getArchive("ARCHIVEID");
+        sdk.deleteArchive("ARCHIVEID");
+        sdk.deleteArchive("ARCHIVEID");
+
+        verify(2, deleteRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+    }
+
+    @Test
+    public void testOpenTokObjectsShareTransport() throws Exception {
+        OpenTokTransport transport = new OpenTokTransport.Builder().maxConnectionsPerHost(4).build();
+        try {
+            OpenTok first = new OpenTok.Builder(123456, "FIRSTSECRET").apiUrl(apiUrl).transport(transport).build();
+            OpenTok second = new OpenTok.Builder(654321, "SECONDSECRET").apiUrl(apiUrl).transport(transport).build();
+            stubFor(get(urlMatching("/v2/partner/.*/archive/ARCHIVEID"))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withHeader("Content-Type", "application/json")
+                            .withBody("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\" }")));
+
+            for (int i = 0; i < 3; i++) {
+                first.getArchive("ARCHIVEID");
+                second.getArchive("ARCHIVEID");
+            }
+
+            verify(3, getRequestedFor(urlEqualTo("/v2/partner/123456/archive/ARCHIVEID"))
+                    .withHeader("X-TB-PARTNER-AUTH", equalTo("123456:FIRSTSECRET"))
+                    .withHeader("User-Agent", matching(".*Opentok-Java-SDK/"+ Version.VERSION+".*")));
+            verify(3, getRequestedFor(urlEqualTo("/v2/partner/654321/archive/ARCHIVEID"))
+                    .withHeader("X-TB-PARTNER-AUTH", equalTo("654321:SECONDSECRET")));
+
+            // closing one OpenTok object leaves the shared transport open for the other
+            first.close();
+            assertTrue(first.isClosed());
+            assertFalse(transport.isClosed());
+            second.getArchive("ARCHIVEID");
+            try {
+                first.getArchive("ARCHIVEID");
+                fail("Expected a RequestException");
+            } catch (RequestException e) {
+                // the closed object makes no request
+            }
+            verify(3, getRequestedFor(urlEqualTo("/v2/partner/123456/archive/ARCHIVEID")));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testOpenTokRegistry() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        OpenTokRegistry registry = new OpenTokRegistry.Builder(new CredentialProvider() {
+            public String getApiSecret(int apiKey) {
+                lookups.incrementAndGet();
+                return apiKey == 404 ? null : "SECRET" + apiKey;
+            }
+        }).apiUrl(apiUrl).idleTimeout(100, TimeUnit.MILLISECONDS).build();
+        OpenTok first = null;
+        try {
+            first = registry.get(123456);
+            assertSame(first, registry.get(123456));
+            assertNotSame(first, registry.get(654321));
+            assertEquals(2, registry.size());
+            assertEquals(2, lookups.get());
+
+            try {
+                registry.get(404);
+                fail("Expected an InvalidArgumentException");
+            } catch (InvalidArgumentException e) {
+                // the key is not remembered, so the provider is asked again next time
+            }
+            assertEquals(2, registry.size());
+
+            stubArchive("ARCHIVEID", "available");
+            first.getArchive("ARCHIVEID");
+            verify(getRequestedFor(urlEqualTo("/v2/partner/123456/archive/ARCHIVEID"))
+                    .withHeader("X-TB-PARTNER-AUTH", equalTo("123456:SECRET123456")));
+
+            Thread.sleep(300);
+            registry.evictIdle();
+            assertEquals(0, registry.size());
+            assertEquals(2, registry.getEvictionCount());
+            assertNotSame(first, registry.get(123456));
+            assertEquals(3, registry.getCreationCount());
+            // a caller who looked it up just before the eviction can still make its call
+            assertFalse(first.isClosed());
+            first.getArchive("ARCHIVEID");
+        } finally {
+            registry.close();
+        }
+        assertTrue(first.isClosed());
+        assertTrue(registry.getTransport().isClosed());
+    }
+
+    @Test
+    public void testCloseDrainsRequestsInProgress() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(300)));
+        final OpenTok closing = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).build();
+        final List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        Thread caller = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    outcomes.add(closing.getArchive("SLOW"));
+                } catch (OpenTokException e) {
+                    outcomes.add(e);
+                }
+            }
+        });
+        caller.start();
+        awaitActiveCount(closing, 1);
+
+        DrainReport report = closing.close(5, TimeUnit.SECONDS);
+        caller.join();
+        assertEquals(1, report.getDrainedCount());
+        assertEquals(0, report.getCancelledCount());
+        assertTrue(outcomes.get(0) instanceof Archive);
+
+        try {
+            closing.getArchive("SLOW");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            // new calls are refused once closed
+        }
+        verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW")));
+        assertEquals(0, closing.close(5, TimeUnit.SECONDS).getDrainedCount());
+    }
+
+    @Test
+    public void testCloseCancelsRequestsAfterDeadline() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(3000)));
+        final OpenTok closing = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).build();
+        final List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        Thread caller = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    outcomes.add(closing.getArchive("SLOW"));
+                } catch (OpenTokException e) {
+                    outcomes.add(e);
+                }
+            }
+        });
+        caller.start();
+        awaitActiveCount(closing, 1);
+
+        DrainReport report = closing.close(100, TimeUnit.MILLISECONDS);
+        caller.join(2000);
+        assertEquals(0, report.getDrainedCount());
+        assertEquals(1, report.getCancelledCount());
+        assertTrue(outcomes.get(0) instanceof RequestException);
+    }
+
+    private static void awaitActiveCount(OpenTok opentok, int count) throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + 5000;
+        while (opentok.getActiveCount() != count && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, opentok.getActiveCount());
+    }
+
+    @Test
+    public void testDeadlineCancelsSlowRequest() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(3000)));
+        stubArchive("ARCHIVEID", "available");
+
+        OpenTok limited = sdk.withDeadline(200, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            limited.getArchive("SLOW");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+        }
+
+        // the deadline has passed, so the view sends no more requests
+        try {
+            limited.getArchive("ARCHIVEID");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            // expected
+        }
+        verify(0, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+        assertEquals("ARCHIVEID", sdk.getArchive("ARCHIVEID").getId());
+        assertEquals("ARCHIVEID", sdk.withDeadline(5, TimeUnit.SECONDS).getArchive("ARCHIVEID").getId());
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(3000)));
+        OpenTok limited = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .connectTimeout(1, TimeUnit.SECONDS)
+                .requestTimeout(200, TimeUnit.MILLISECONDS)
+                .build();
+        long start = System.nanoTime();
+        try {
+            limited.getArchive("SLOW");
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testBulkheadQueuesWithoutBlockingTheCaller() throws Exception {
+        final List<String> archiveIds = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            archiveIds.add("ARCHIVE" + i);
+            stubFor(delete(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVE"+i))
+                    .willReturn(aResponse()
+                            .withStatus(204)
+                            .withFixedDelay(200)));
+        }
+        final OpenTok limited = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .bulkhead(OperationClass.ARCHIVE_WRITE, new Bulkhead.Builder(1).build())
+                .build();
+        Bulkhead writes = limited.getBulkhead(OperationClass.ARCHIVE_WRITE);
+        final List<Map<String, ArchiveOperationResult>> outcomes =
+                Collections.synchronizedList(new ArrayList<Map<String, ArchiveOperationResult>>());
+        Thread caller = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    outcomes.add(limited.deleteArchives(archiveIds, 4));
+                } catch (OpenTokException e) {
+                    // a missing result fails the assertions below
+                }
+            }
+        });
+        caller.start();
+        try {
+            // the single thread making the requests queues all of them instead of waiting for each place
+            long waitUntil = System.currentTimeMillis() + 5000;
+            while (writes.getQueueDepth() < 3 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(5);
+            }
+            assertEquals(3, writes.getQueueDepth());
+            assertEquals(1, writes.getActiveCount());
+            caller.join();
+
+            assertEquals(1, outcomes.size());
+            for (ArchiveOperationResult result : outcomes.get(0).values()) {
+                assertTrue(result.isSuccess());
+            }
+            assertEquals(0, writes.getActiveCount());
+            assertEquals(0, writes.getQueueDepth());
+            assertEquals(0, writes.getRejectedCount());
+            verify(4, deleteRequestedFor(urlMatching("/v2/partner/"+this.apiKey+"/archive/.*")));
+        } finally {
+            caller.join();
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testBulkheadRejectsOnlySaturatedClass() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(1000)));
+        stubArchive("ARCHIVEID", "available");
+        stubFor(post(urlEqualTo("/session/create"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/xml")
+                        .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><" +
+                                "session_id>SESSIONID</session_id><partner_id>123456</partner_id><create_dt>" +
+                                "Mon Mar 17 00:41:31 PDT 2014</create_dt></Session></sessions>")));
+        final OpenTok limited = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .bulkhead(OperationClass.ARCHIVE_READ, new Bulkhead.Builder(1).maxQueued(0).build())
+                .bulkhead(OperationClass.SESSION, new Bulkhead.Builder(1).build())
+                .build();
+        final Bulkhead reads = limited.getBulkhead(OperationClass.ARCHIVE_READ);
+        assertNull(limited.getBulkhead(OperationClass.ARCHIVE_WRITE));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread slow = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    limited.getArchive("SLOW");
+                } catch (OpenTokException e) {
+                    // checked below
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        slow.start();
+        try {
+            long waitUntil = System.currentTimeMillis() + 2000;
+            while (reads.getActiveCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, reads.getActiveCount());
+
+            // the reads are saturated and do not queue, so the next one is rejected without a request
+            try {
+                limited.getArchive("ARCHIVEID");
+                fail("Expected a RequestRejectedException");
+            } catch (RequestRejectedException e) {
+                assertEquals(1, reads.getRejectedCount());
+            }
+            verify(0, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+
+            // the other classes are not affected
+            assertEquals("SESSIONID", limited.createSession().getSessionId());
+            assertEquals(0, limited.getBulkhead(OperationClass.SESSION).getActiveCount());
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(0, reads.getActiveCount());
+            assertEquals(0, reads.getQueueDepth());
+            assertEquals("ARCHIVEID", limited.getArchive("ARCHIVEID").getId());
+        } finally {
+            slow.join();
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testRateLimitsDelayOnlyTheirBudget() throws Exception {
+        stubArchive("ARCHIVEID", "available");
+        RateLimits limits = new RateLimits.Builder()
+                .limit(OperationClass.ARCHIVE_READ, RequestPriority.BACKGROUND, 2, 1)
+                .build();
+        OpenTok limited = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).rateLimits(limits).build();
+        OpenTok background = limited.withPriority(RequestPriority.BACKGROUND);
+        try {
+            long start = System.nanoTime();
+            background.getArchive("ARCHIVEID");
+            background.getArchive("ARCHIVEID");
+            background.getArchive("ARCHIVEID");
+            // one request every 500 ms once the burst is used
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+
+            // the interactive calls have their own budget
+            start = System.nanoTime();
+            limited.getArchive("ARCHIVEID");
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+
+            // a request that the budget would delay past the deadline is not sent
+            try {
+                background.withDeadline(100, TimeUnit.MILLISECONDS).getArchive("ARCHIVEID");
+                fail("Expected a RequestRejectedException");
+            } catch (RequestRejectedException e) {
+                // expected
+            }
+            verify(4, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testRateLimitedRequestsDoNotBlockTheCaller() throws Exception {
+        stubArchive("ARCHIVEID", "available");
+        HttpClient client = new HttpClient.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .rateLimits(new RateLimits.Builder()
+                        .limit(OperationClass.ARCHIVE_READ, RequestPriority.INTERACTIVE, 2, 1)
+                        .build())
+                .build();
+        String url = apiUrl + "/v2/partner/" + apiKey + "/archive/ARCHIVEID";
+        try {
+            assertEquals(200, client.prepareGet(url).execute().get().getStatusCode());
+            long start = System.nanoTime();
+            Future<com.ning.http.client.Response> delayed = client.prepareGet(url).execute();
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+            assertFalse(delayed.isDone());
+            assertEquals(200, delayed.get(5, TimeUnit.SECONDS).getStatusCode());
+
+            // a delayed request can be cancelled before it is sent
+            Future<com.ning.http.client.Response> cancelled = client.prepareGet(url).execute();
+            assertTrue(cancelled.cancel(true));
+            assertTrue(cancelled.isCancelled());
+            // the listeners of the completed request can run just after get() returns
+            long waitUntil = System.currentTimeMillis() + 1000;
+            while (client.getActiveCount() > 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, client.getActiveCount());
+            Thread.sleep(700);
+            verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSchedulerWeightsInteractiveRequests() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler.Builder(1).interactiveWeight(2).build();
+        List<String> order = scheduleBehindSlowRequest(scheduler, "B1", "B2", "B3", "I1", "I2", "I3");
+        assertEquals(Arrays.asList("SLOW", "I1", "I2", "B1", "I3", "B2", "B3"), order);
+        assertEquals(0, scheduler.getAgedCount());
+    }
+
+    @Test
+    public void testSchedulerDoesNotStarveBackgroundRequests() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler.Builder(1)
+                .interactiveWeight(1000)
+                .maxAge(100, TimeUnit.MILLISECONDS)
+                .build();
+        List<String> order = scheduleBehindSlowRequest(scheduler, "B1", "I1", "I2");
+        assertEquals(Arrays.asList("SLOW", "B1", "I1", "I2"), order);
+        assertEquals(1, scheduler.getAgedCount());
+    }
+
+    /**
+     * Queues requests (background ones when their ID starts with B) behind a slow request that
+     * holds the only place of the scheduler, and returns the order in which they were received.
+     */
+    private List<String> scheduleBehindSlowRequest(PriorityScheduler scheduler, String... archiveIds)
+            throws Exception {
+        stubFor(get(urlMatching("/v2/partner/"+this.apiKey+"/archive/.*"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{}")));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{}")
+                        .withFixedDelay(500)));
+        HttpClient client = new HttpClient.Builder(apiKey, apiSecret)
+                .apiUrl(apiUrl)
+                .requestScheduler(scheduler)
+                .build();
+        HttpClient background = client.withPriority(RequestPriority.BACKGROUND);
+        String url = apiUrl + "/v2/partner/" + apiKey + "/archive/";
+        try {
+            List<Future<com.ning.http.client.Response>> futures = new ArrayList<Future<com.ning.http.client.Response>>();
+            futures.add(client.prepareGet(url + "SLOW").execute());
+            for (String archiveId : archiveIds) {
+                HttpClient caller = archiveId.startsWith("B") ? background : client;
+                futures.add(caller.prepareGet(url + archiveId).execute());
+            }
+            assertEquals(archiveIds.length, scheduler.getQueueDepth(RequestPriority.INTERACTIVE) +
+                    scheduler.getQueueDepth(RequestPriority.BACKGROUND));
+            for (Future<com.ning.http.client.Response> future : futures) {
+                assertEquals(200, future.get(5, TimeUnit.SECONDS).getStatusCode());
+            }
+        } finally {
+            client.close();
+        }
+        List<String> order = new ArrayList<String>();
+        for (LoggedRequest request : findAll(getRequestedFor(urlMatching("/v2/partner/.*/archive/.*")))) {
+            order.add(request.getUrl().substring(request.getUrl().lastIndexOf('/') + 1));
+        }
+        return order;
+    }
+
+    @Test
+    public void testHedgedArchiveLookup() throws Exception {
+        stubArchive("ARCHIVEID", "available");
+        // the first lookup of HEDGED is slow, and the next ones are fast
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/HEDGED"))
+                .inScenario("hedge")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"HEDGED\", \"status\" : \"available\" }")
+                        .withFixedDelay(3000))
+                .willSetStateTo("hedged"));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/HEDGED"))
+                .inScenario("hedge")
+                .whenScenarioStateIs("hedged")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"HEDGED\", \"status\" : \"available\" }")));
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(600)));
+        // one hedge can be saved up, and the lookups earn no more
+        OpenTok hedged = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .hedging(new HedgePolicy.Builder().window(16, 5).budget(0, 1).build())
+                .build();
+        HedgePolicy policy = hedged.getHedging();
+        try {
+            assertEquals(-1, policy.getCurrentDelayNanos());
+            for (int i = 0; i < 5; i++) {
+                hedged.getArchive("ARCHIVEID");
+            }
+            assertTrue(policy.getCurrentDelayNanos() > 0);
+
+            long start = System.nanoTime();
+            assertEquals("HEDGED", hedged.getArchive("HEDGED").getId());
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+            verify(2, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/HEDGED")));
+            assertEquals(1, policy.getHedgedCount());
+            assertEquals(1, policy.getHedgeWinCount());
+
+            // the budget is spent, so a slow lookup is not hedged
+            start = System.nanoTime();
+            assertEquals("SLOW", hedged.getArchive("SLOW").getId());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(600));
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW")));
+            assertEquals(1, policy.getHedgedCount());
+        } finally {
+            hedged.close(0, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The adaptation of the limit to the latency is covered by AdaptiveLimiterTest, with synthetic
+     * samples; this checks the shedding of real calls.
+     */
+    @Test
+    public void testAdaptiveLimiterShedsWithoutSpendingRateLimit() throws Exception {
+        stubFor(get(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/SLOW"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{ \"id\" : \"SLOW\", \"status\" : \"available\" }")
+                        .withFixedDelay(300)));
+        stubArchive("ARCHIVEID", "available");
+        // two tokens, and the next one in a minute
+        final OpenTok limited = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl)
+                .concurrencyLimiter(new AdaptiveLimiter.Builder().initialLimit(1).maxLimit(1).build())
+                .rateLimits(new RateLimits.Builder()
+                        .limit(OperationClass.ARCHIVE_READ, RequestPriority.INTERACTIVE, 1.0 / 60, 2)
+                        .maxWait(100, TimeUnit.MILLISECONDS)
+                        .build())
+                .build();
+        AdaptiveLimiter limiter = limited.getConcurrencyLimiter();
+        Thread slow = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    limited.getArchive("SLOW");
+                } catch (OpenTokException e) {
+                    // the later calls are checked
+                }
+            }
+        });
+        slow.start();
+        try {
+            // the slow call is active before it takes its place in the limiter
+            long waitUntil = System.currentTimeMillis() + 5000;
+            while (limiter.getInFlightCount() != 1 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, limiter.getInFlightCount());
+            try {
+                limited.getArchive("ARCHIVEID");
+                fail("Expected a ConcurrencyLimitException");
+            } catch (ConcurrencyLimitException e) {
+                assertEquals(1, limiter.getRejectedCount());
+            }
+            slow.join();
+
+            // the shed call did not spend the second token
+            assertEquals("ARCHIVEID", limited.getArchive("ARCHIVEID").getId());
+            verify(1, getRequestedFor(urlEqualTo("/v2/partner/"+this.apiKey+"/archive/ARCHIVEID")));
+            assertEquals(0, limiter.getInFlightCount());
+        } finally {
+            slow.join();
+            limited.close();
+        }
+    }
+
+    /**
+     * Warms up an OpenTok object against a local TLS server, which stands in for the OpenTok API.
+     */
+    @Test
+    public void testWarmUpOpensTlsConnections() throws Exception {
+        WireMockServer tlsServer = new WireMockServer(wireMockConfig().dynamicPort().dynamicHttpsPort());
+        tlsServer.start();
+        // the server certificate is only checked on full handshakes, not on resumed sessions or
+        // pooled connections
+        final AtomicInteger handshakes = new AtomicInteger();
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] { new X509ExtendedTrustManager() {
+            // the stand-in server has a self-signed certificate, not issued for localhost
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+            }
+
+            public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+                handshakes.incrementAndGet();
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        } }, null);
+        OpenTokTransport transport = new OpenTokTransport.Builder()
+                .sslContext(sslContext)
+                .hostnameVerifier(new HostnameVerifier() {
+                    public boolean verify(String hostname, SSLSession session) {
+                        return true;
+                    }
+                })
+                .build();
+        OpenTok warm = new OpenTok.Builder(apiKey, apiSecret)
+                .apiUrl("https://localhost:" + tlsServer.httpsPort())
+                .transport(transport)
+                .build();
+        try {
+            tlsServer.stubFor(head(urlEqualTo("/")).willReturn(aResponse().withStatus(200)));
+            tlsServer.stubFor(post(urlEqualTo("/session/create"))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withHeader("Content-Type", "text/xml")
+                            .withBody("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions>" +
+                                    "<Session><session_id>SESSIONID</session_id></Session></sessions>")));
+
+            assertEquals(2, warm.warmUp(2));
+            tlsServer.verify(2, headRequestedFor(urlEqualTo("/")).withoutHeader("X-TB-PARTNER-AUTH"));
+            assertEquals(2, handshakes.get());
+            assertEquals(0, warm.getActiveCount());
+
+            // the calls use the warm connections, without a handshake of their own
+            for (int i = 0; i < 4; i++) {
+                assertEquals("SESSIONID", warm.createSession().getSessionId());
+            }
+            assertEquals(2, handshakes.get());
+            tlsServer.verify(4, postRequestedFor(urlEqualTo("/session/create"))
+                    .withHeader("X-TB-PARTNER-AUTH", equalTo(apiKey + ":" + apiSecret)));
+        } finally {
+            warm.close();
+            transport.close();
+            tlsServer.stop();
+        }
+    }
+
+    @Test
+    public void testSessionCacheSettingsApplyToTransportSslContextOnly() throws Exception {
+        SSLSessionContext shared = SSLContext.getDefault().getClientSessionContext();
+        int size = shared.getSessionCacheSize();
+        int timeout = shared.getSessionTimeout();
+        new OpenTokTransport.Builder()
+                .sslSessionCache(size + 7, timeout + 7, TimeUnit.SECONDS)
+                .build()
+                .close();
+        assertEquals(size, shared.getSessionCacheSize());
+        assertEquals(timeout, shared.getSessionTimeout());
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        new OpenTokTransport.Builder()
+                .sslContext(sslContext)
+                .sslSessionCache(100, 60, TimeUnit.SECONDS)
+                .build()
+                .close();
+        assertEquals(100, sslContext.getClientSessionContext().getSessionCacheSize());
+        assertEquals(60, sslContext.getClientSessionContext().getSessionTimeout());
+    }
+
+    @Test
+    public void testCloseCancelsWarmUp() throws Exception {
+        stubFor(head(urlEqualTo("/")).willReturn(aResponse().withStatus(200).withFixedDelay(3000)));
+        final OpenTok warming = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).build();
+        final AtomicInteger opened = new AtomicInteger(-1);
+        Thread caller = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    opened.set(warming.warmUp(2));
+                } catch (OpenTokException e) {
+                    // checked below
+                }
+            }
+        });
+        caller.start();
+        awaitActiveCount(warming, 2);
+
+        DrainReport report = warming.close(100, TimeUnit.MILLISECONDS);
+        caller.join(2000);
+        assertEquals(2, report.getCancelledCount());
+        assertEquals(0, opened.get());
+        assertEquals(0, warming.getActiveCount());
+    }
+
+    @Test(expected = RequestException.class)
+    public void testWarmUpUnknownHost() throws OpenTokException {
+        OpenTok unknown = new OpenTok.Builder(apiKey, apiSecret).apiUrl("https://unknown.invalid").build();
+        try {
+            unknown.warmUp(1);
+        } finally {
+            unknown.close();
+        }
+    }
+
+    @Test
+    public void testExtractIndividualArchive() throws Exception {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(zipBytes);
+        zip.putNextEntry(new ZipEntry("ARCHIVEID/STREAM1.webm"));
+        zip.write("first stream".getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("ARCHIVEID/ARCHIVEID.json"));
+        zip.write(("{ \"id\" : \"ARCHIVEID\", \"sessionId\" : \"SESSIONID\", \"createdAt\" : 1395187836000," +
+                " \"files\" : [" +
+                " { \"streamId\" : \"STREAM1\", \"filename\" : \"STREAM1.webm\", \"size\" : 12," +
+                " \"startTimeOffset\" : 0, \"stopTimeOffset\" : 1000, \"connectionData\" : \"a\" }," +
+                " { \"streamId\" : \"STREAM2\", \"filename\" : \"STREAM2.webm\", \"size\" : 13," +
+                " \"startTimeOffset\" : 500, \"stopTimeOffset\" : 1500, \"connectionData\" : \"b\" } ] }")
+                .getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("ARCHIVEID/STREAM2.webm"));
+        zip.write("second stream".getBytes("UTF-8"));
+        zip.close();
+
+        stubFor(get(urlEqualTo("/archive.zip"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/zip")
+                        .withBody(zipBytes.toByteArray())));
+        Archive archive = new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\"," +
+                " \"outputMode\" : \"individual\", \"url\" : \"" + apiUrl + "/archive.zip\" }", Archive.class);
+
+        File directory = File.createTempFile("archive", "");
+        directory.delete();
+        final List<String> events = new ArrayList<String>();
+        ArchiveManifest manifest = sdk.extractArchive(archive, directory, new ArchiveExtractionListener() {
+            public void onManifest(ArchiveManifest manifest) {
+                events.add("manifest:" + manifest.getFiles().size());
+            }
+
+            public void onStreamFile(File file, ArchiveManifest.StreamFile metadata) {
+                events.add(file.getName() + ":" + (metadata == null ? null : metadata.getStreamId()));
+            }
+        });
+
+        assertEquals(Arrays.asList("STREAM1.webm:null", "manifest:2", "STREAM2.webm:STREAM2"), events);
+        assertEquals("SESSIONID", manifest.getSessionId());
+        assertEquals(500, manifest.getFile("STREAM2.webm").getStartTimeOffset());
+        assertEquals(12, new File(directory, "STREAM1.webm").length());
+        assertEquals(13, new File(directory, "STREAM2.webm").length());
+        assertFalse(new File(directory, "ARCHIVEID.json").exists());
+        // only the stream files are left, not the spooled ZIP file
+        assertEquals(2, directory.list().length);
+
+        new File(directory, "STREAM1.webm").delete();
+        new File(directory, "STREAM2.webm").delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testExtractRejectsDuplicateStreamNames() throws Exception {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(zipBytes);
+        zip.putNextEntry(new ZipEntry("first/STREAM1.webm"));
+        zip.write("first stream".getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("second/STREAM1.webm"));
+        zip.write("second stream".getBytes("UTF-8"));
+        zip.close();
+
+        stubFor(get(urlEqualTo("/archive.zip"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/zip")
+                        .withBody(zipBytes.toByteArray())));
+        Archive archive = new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\"," +
+                " \"outputMode\" : \"individual\", \"url\" : \"" + apiUrl + "/archive.zip\" }", Archive.class);
+
+        File directory = File.createTempFile("archive", "");
+        directory.delete();
+        try {
+            sdk.extractArchive(archive, directory, null);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            // the second file would have overwritten the first one
+        }
+        File first = new File(directory, "STREAM1.webm");
+        assertEquals(12, first.length());
+        first.delete();
+        assertEquals(0, directory.list().length);
+        directory.delete();
+    }
+
+    @Test
+    public void testExtractSpillsWhenExtractionFallsBehind() throws Exception {
+        // more than the in-memory buffer, in data that does not compress
+        byte[] stream = new byte[12 * 1024 * 1024];
+        new Random(42).nextBytes(stream);
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(zipBytes);
+        zip.putNextEntry(new ZipEntry("ARCHIVEID/ARCHIVEID.json"));
+        zip.write("{ \"id\" : \"ARCHIVEID\", \"files\" : [] }".getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("ARCHIVEID/STREAM1.webm"));
+        zip.write(stream);
+        zip.close();
+
+        stubFor(get(urlEqualTo("/archive.zip"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/zip")
+                        .withBody(zipBytes.toByteArray())));
+        Archive archive = new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\"," +
+                " \"outputMode\" : \"individual\", \"url\" : \"" + apiUrl + "/archive.zip\" }", Archive.class);
+
+        final File directory = File.createTempFile("archive", "");
+        directory.delete();
+        final List<Integer> spilled = new ArrayList<Integer>();
+        sdk.extractArchive(archive, directory, new ArchiveExtractionListener() {
+            public void onManifest(ArchiveManifest manifest) {
+                // the download goes on while the extraction waits here
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                spilled.add(directory.list().length);
+            }
+
+            public void onStreamFile(File file, ArchiveManifest.StreamFile metadata) {
+            }
+        });
+
+        assertTrue("spilled files " + spilled, spilled.get(0) > 0);
+        File extracted = new File(directory, "STREAM1.webm");
+        byte[] content = new byte[(int) extracted.length()];
+        FileInputStream in = new FileInputStream(extracted);
+        try {
+            new DataInputStream(in).readFully(content);
+        } finally {
+            in.close();
+        }
+        assertTrue(Arrays.equals(stream, content));
+        // the spilled segments are gone once extracted
+        assertEquals(1, directory.list().length);
+        extracted.delete();
+        directory.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void testExtractThroughClosedClient() throws Exception {
+        OpenTok closed = new OpenTok.Builder(apiKey, apiSecret).apiUrl(apiUrl).build();
+        closed.close();
+        Archive archive = new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\"," +
+                " \"outputMode\" : \"individual\", \"url\" : \"" + apiUrl + "/archive.zip\" }", Archive.class);
+        File directory = File.createTempFile("archive", "");
+        directory.delete();
+        try {
+            closed.extractArchive(archive, directory, null);
+            fail("Expected a RequestException");
+        } catch (RequestException e) {
+            // the client rejects the download without calling its handler
+        }
+        assertEquals(0, directory.list().length);
+        directory.delete();
+        verify(0, getRequestedFor(urlEqualTo("/archive.zip")));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testExtractComposedArchive() throws Exception {
+        Archive archive = new ObjectMapper().readValue("{ \"id\" : \"ARCHIVEID\", \"status\" : \"available\"," +
+                " \"outputMode\" : \"composed\", \"url\" : \"" + apiUrl + "/archive.mp4\" }", Archive.class);
+        sdk.extractArchive(archive, new File("."), null);
+    }
+
     // NOTE: this test is pretty sloppy
     @Test public void testGetExpiredArchive() throws OpenTokException {
         String archiveId = "ARCHIVEID";
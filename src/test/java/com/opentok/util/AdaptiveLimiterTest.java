@@ -0,0 +1,141 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opentok.exception.ConcurrencyLimitException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the limiter with synthetic samples on a fake clock, in the same package since the
+ * samples are not part of the public API.
+ */
+public class AdaptiveLimiterTest {
+
+    private AdaptiveLimiter limiter;
+    private long clock;
+
+    @Before
+    public void setUp() {
+        limiter = new AdaptiveLimiter.Builder()
+                .initialLimit(4)
+                .maxLimit(16)
+                .backoffRatio(0.5)
+                .build();
+        // after the creation of the limiter, which is when the first decrease can count from
+        clock = System.nanoTime() + 1;
+    }
+
+    /**
+     * Sends as many requests as the limit allows and completes all of them after the latency.
+     */
+    private void roundTrip(long latencyMillis, boolean dropped) {
+        long sent = clock;
+        clock += TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        int inFlight = limiter.getLimit();
+        for (int i = 0; i < inFlight; i++) {
+            limiter.onSample(sent, clock, dropped, inFlight);
+        }
+        clock += TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void roundTrips(int count, long latencyMillis) {
+        for (int i = 0; i < count; i++) {
+            roundTrip(latencyMillis, false);
+        }
+    }
+
+    @Test
+    public void testLimitGrowsWithSteadyLatency() {
+        roundTrips(5, 20);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() >= 8);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), limiter.getBaselineNanos());
+
+        roundTrips(50, 20);
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenUnused() {
+        long sent = clock;
+        clock += TimeUnit.MILLISECONDS.toNanos(20);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(sent, clock, false, 1);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    /**
+     * A brownout of the OpenTok API: the latency jumps, then recovers.
+     */
+    @Test
+    public void testLimitFollowsLatency() {
+        roundTrips(8, 20);
+        int normalLimit = limiter.getLimit();
+
+        // each round trip of slow requests halves the limit once, not once for each request
+        roundTrip(300, false);
+        assertEquals(normalLimit / 2, limiter.getLimit());
+        roundTrips(2, 300);
+        int brownoutLimit = limiter.getLimit();
+        assertTrue("limit " + brownoutLimit + " after " + normalLimit, brownoutLimit <= normalLimit / 4);
+
+        roundTrips(8, 20);
+        assertTrue("limit " + limiter.getLimit() + " after " + brownoutLimit, limiter.getLimit() > brownoutLimit);
+    }
+
+    @Test
+    public void testThrottledRequestsReduceLimit() {
+        roundTrips(8, 20);
+        int normalLimit = limiter.getLimit();
+
+        roundTrip(20, true);
+        assertEquals(normalLimit / 2, limiter.getLimit());
+        // a throttled request says nothing about the latency
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), limiter.getBaselineNanos());
+    }
+
+    @Test
+    public void testLimitStaysWithinBounds() {
+        for (int i = 0; i < 20; i++) {
+            roundTrip(20, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testRequestsOverLimitAreShed() throws ConcurrencyLimitException {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        try {
+            limiter.check();
+            fail("Expected a ConcurrencyLimitException");
+        } catch (ConcurrencyLimitException e) {
+            // checking does not take a place
+        }
+        try {
+            limiter.acquire();
+            fail("Expected a ConcurrencyLimitException");
+        } catch (ConcurrencyLimitException e) {
+            assertEquals(2, limiter.getRejectedCount());
+        }
+        assertEquals(4, limiter.getInFlightCount());
+
+        // a request released without being sent does not count as a sample
+        limiter.release(null, 0);
+        assertEquals(3, limiter.getInFlightCount());
+        limiter.check();
+        assertEquals(4, limiter.getLimit());
+    }
+}
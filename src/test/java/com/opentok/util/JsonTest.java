@@ -0,0 +1,85 @@
+/**
+ * OpenTok Java SDK
+ * Copyright (C) 2015 TokBox, Inc.
+ * http://www.tokbox.com
+ *
+ * Licensed under The MIT License (MIT). See LICENSE file for more information.
+ */
+package com.opentok.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the reuse of the buffer of each thread, in the same package since the buffer is not part
+ * of the public API.
+ */
+public class JsonTest {
+
+    private static Json.Writer field(final String name, final String value) {
+        return new Json.Writer() {
+            public void writeTo(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                generator.writeStringField(name, value);
+                generator.writeEndObject();
+            }
+        };
+    }
+
+    @Test
+    public void testNestedWriterGetsItsOwnBuffer() throws IOException {
+        String json = Json.toString(new Json.Writer() {
+            public void writeTo(JsonGenerator generator) throws IOException {
+                generator.writeStartObject();
+                generator.writeStringField("before", "outer");
+                // the generator flushes to the buffer of the thread when its own buffer is full
+                generator.flush();
+                generator.writeStringField("inner", Json.toString(field("name", "inner")));
+                generator.writeStringField("after", "outer");
+                generator.writeEndObject();
+            }
+        });
+
+        assertEquals("{\"before\":\"outer\",\"inner\":\"{\\\"name\\\":\\\"inner\\\"}\",\"after\":\"outer\"}", json);
+        // the buffer of the thread is free again
+        assertEquals("{\"name\":\"value\"}", Json.toString(field("name", "value")));
+        assertTrue(Arrays.equals("{\"name\":\"value\"}".getBytes("UTF-8"), Json.toBytes(field("name", "value"))));
+    }
+
+    @Test
+    public void testLargeBufferIsNotRetained() throws IOException {
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+
+        String json = Json.toString(field("name", large));
+
+        assertEquals("{\"name\":\"" + large + "\"}", json);
+        assertTrue("capacity " + Json.retainedCapacity(), Json.retainedCapacity() <= 64 * 1024);
+        assertEquals("{\"name\":\"value\"}", Json.toString(field("name", "value")));
+    }
+
+    @Test
+    public void testBufferIsFreedWhenWriterFails() throws IOException {
+        try {
+            Json.toString(new Json.Writer() {
+                public void writeTo(JsonGenerator generator) throws IOException {
+                    generator.writeStartObject();
+                    generator.writeStringField("name", "partial");
+                    throw new IOException("failed");
+                }
+            });
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        assertEquals("{\"name\":\"value\"}", Json.toString(field("name", "value")));
+    }
+}